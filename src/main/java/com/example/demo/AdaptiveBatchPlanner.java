@@ -0,0 +1,163 @@
+package com.example.demo;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 自适应切批参数（按目标语言分别学习）：
+ * - 输出/输入 token 比：用成功批次的实测值做 EWMA，替代固定的 0.95/1.20；
+ * - 输出预算利用率：截断时乘性收缩，成功时缓慢放回，逼近不截断的最大批；
+ * - 单批条目上限：数量不一致时收缩，满批成功时加一，批耗时超过目标时收缩。
+ * TRANSLATE_ADAPTIVE=false 时退回静态参数（仍记录指标）。
+ */
+@Slf4j
+@Component
+public class AdaptiveBatchPlanner {
+
+    // ===== 参数（可用 .env 覆盖） =====
+    private static final boolean ENABLED =
+            Boolean.parseBoolean(System.getenv().getOrDefault("TRANSLATE_ADAPTIVE", "true"));
+    private static final int BASE_ITEMS = Math.max(1, getEnvInt("TRANSLATE_MAX_ITEMS_PER_BATCH", 10));
+    private static final int MAX_ITEMS  = Math.max(BASE_ITEMS, getEnvInt("TRANSLATE_ADAPTIVE_MAX_ITEMS", BASE_ITEMS * 4));
+    private static final int MIN_ITEMS  = 1;
+    private static final int TARGET_BATCH_MS = getEnvInt("TRANSLATE_ADAPTIVE_TARGET_MS", 60_000);
+
+    private static final double ALPHA = 0.2;      // EWMA 平滑系数
+    private static final double FILL_MIN = 0.5;   // 输出预算利用率下限
+    private static final double FILL_MAX = 1.0;
+    private static final int MIN_SAMPLES = 3;     // 样本不足时沿用先验比值
+
+    private static int getEnvInt(String k, int d){ try { return Integer.parseInt(System.getenv().getOrDefault(k, String.valueOf(d))); } catch(Exception e){ return d; } }
+
+    /** 一次规划使用的限额 */
+    public static final class Limits {
+        public final int maxItems;
+        public final double outputRatio;
+        public final double fill;
+        Limits(int maxItems, double outputRatio, double fill) {
+            this.maxItems = maxItems; this.outputRatio = outputRatio; this.fill = fill;
+        }
+        /** 在给定输出上限内实际允许规划的输出 token */
+        public int outputBudget(int completionLimit) { return (int) Math.floor(completionLimit * fill); }
+    }
+
+    private static final class LangState {
+        final double prior;
+        double ratio;
+        double fill = FILL_MAX;
+        int maxItems = BASE_ITEMS;
+        double latencyMs = 0;
+        double truncRate = 0, mismatchRate = 0;
+        long batches, truncations, mismatches, samples;
+
+        LangState(double prior) { this.prior = prior; this.ratio = prior; }
+
+        synchronized Limits limits() {
+            if (!ENABLED) return new Limits(BASE_ITEMS, prior, FILL_MAX);
+            // 比值取 EWMA 与先验中较大者直到样本足够，避免冷启动时低估
+            double r = samples < MIN_SAMPLES ? Math.max(ratio, prior) : ratio;
+            return new Limits(maxItems, r, fill);
+        }
+
+        synchronized void success(int items, int inTokens, int outTokens, long millis) {
+            batches++;
+            truncRate *= (1 - ALPHA);
+            mismatchRate *= (1 - ALPHA);
+            if (inTokens > 0 && outTokens > 0) {
+                double observed = (double) outTokens / inTokens;
+                ratio = samples == 0 ? observed : ratio + ALPHA * (observed - ratio);
+                samples++;
+            }
+            latencyMs = latencyMs == 0 ? millis : latencyMs + ALPHA * (millis - latencyMs);
+
+            fill = Math.min(FILL_MAX, fill + 0.02);
+            if (TARGET_BATCH_MS > 0 && latencyMs > TARGET_BATCH_MS) {
+                maxItems = Math.max(MIN_ITEMS, (int) Math.floor(maxItems * 0.8));
+            } else if (items >= maxItems && mismatchRate < 0.05) {
+                maxItems = Math.min(MAX_ITEMS, maxItems + 1);
+            }
+        }
+
+        synchronized void truncated(int items) {
+            batches++; truncations++;
+            truncRate += ALPHA * (1 - truncRate);
+            fill = Math.max(FILL_MIN, fill * 0.85);
+        }
+
+        synchronized void mismatched(int items) {
+            batches++; mismatches++;
+            mismatchRate += ALPHA * (1 - mismatchRate);
+            if (items > MIN_ITEMS) maxItems = Math.max(MIN_ITEMS, Math.min(maxItems, (int) Math.floor(items * 0.7)));
+        }
+
+        synchronized Map<String, Object> stats() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("outputRatio", round(ratio));
+            m.put("priorRatio", prior);
+            m.put("fill", round(fill));
+            m.put("maxItems", maxItems);
+            m.put("avgLatencyMs", (long) latencyMs);
+            m.put("batches", batches);
+            m.put("truncations", truncations);
+            m.put("mismatches", mismatches);
+            m.put("truncationRate", round(truncRate));
+            m.put("mismatchRate", round(mismatchRate));
+            return m;
+        }
+    }
+
+    private final Map<String, LangState> langs = new ConcurrentHashMap<>();
+
+    public Limits limitsFor(String targetLang) { return state(targetLang).limits(); }
+
+    /** 成功批次：inTokens/outTokens 为同一估算器下的输入/输出 token */
+    public void recordSuccess(String targetLang, int items, int inTokens, int outTokens, long millis) {
+        state(targetLang).success(items, inTokens, outTokens, millis);
+    }
+
+    public void recordTruncation(String targetLang, int items) {
+        LangState s = state(targetLang);
+        s.truncated(items);
+        log.debug("planner[{}]: truncation with {} items → {}", keyOf(targetLang), items, s.stats());
+    }
+
+    public void recordMismatch(String targetLang, int items) {
+        LangState s = state(targetLang);
+        s.mismatched(items);
+        log.debug("planner[{}]: mismatch with {} items → {}", keyOf(targetLang), items, s.stats());
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", ENABLED);
+        m.put("baseItems", BASE_ITEMS);
+        m.put("maxItemsCap", MAX_ITEMS);
+        Map<String, Object> per = new LinkedHashMap<>();
+        langs.forEach((k, v) -> per.put(k, v.stats()));
+        m.put("languages", per);
+        return m;
+    }
+
+    /** 粗略先验：CJK 语言更紧凑，其它语种略膨胀 */
+    static double priorRatioFor(String targetLang) {
+        if (targetLang == null) return 1.15;
+        String v = targetLang.toLowerCase(Locale.ROOT);
+        boolean cjk = v.startsWith("zh") || v.startsWith("ja") || v.startsWith("ko");
+        return cjk ? 0.95 : 1.20;
+    }
+
+    private LangState state(String targetLang) {
+        return langs.computeIfAbsent(keyOf(targetLang), k -> new LangState(priorRatioFor(targetLang)));
+    }
+
+    private static String keyOf(String targetLang) {
+        return targetLang == null ? "" : targetLang.toLowerCase(Locale.ROOT);
+    }
+
+    private static double round(double v) { return Math.round(v * 1000) / 1000.0; }
+}
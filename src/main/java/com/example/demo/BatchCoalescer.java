@@ -0,0 +1,185 @@
+package com.example.demo;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 跨请求微批：并发文档里同 targetLang/偏好 的小批次先缓冲几毫秒，拼成接近满预算的一次请求，
+ * 结果按偏移拆回各调用方。合并请求因截断/数量不一致失败时，各调用方退回单独发送（不互相牵连拆批逻辑）；
+ * 其它错误（限流、额度不足、网络等）单发也一样会失败，直接传给各调用方。
+ */
+@Slf4j
+@Component
+public class BatchCoalescer {
+
+    // ===== 参数（可用 .env 覆盖） =====
+    private static final int LINGER_MS = getEnvInt("TRANSLATE_COALESCE_MS", 5); // <=0 关闭
+
+    private static int getEnvInt(String k, int d){ try { return Integer.parseInt(System.getenv().getOrDefault(k, String.valueOf(d))); } catch(Exception e){ return d; } }
+
+    /** 实际发送一批（JSON 打包 → 模型 → 解析 + 数量校验） */
+    @FunctionalInterface
+    public interface Sender {
+        List<String> send(List<String> texts, String targetLang, String userInstruction) throws IOException;
+    }
+
+    @Autowired
+    private TranslationExecutor executor;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "coalescer-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Map<String, Bucket> open = new HashMap<>();
+
+    private final LongAdder callerRequests = new LongAdder();
+    private final LongAdder sentRequests = new LongAdder();
+    private final LongAdder mergedRequests = new LongAdder();
+    private final LongAdder mergeFallbacks = new LongAdder();
+
+    private static final class Pending {
+        final List<String> texts;
+        final CompletableFuture<List<String>> future = new CompletableFuture<>();
+        Pending(List<String> texts) { this.texts = texts; }
+    }
+
+    private static final class Bucket {
+        final String targetLang, userInstruction;
+        final Sender sender;
+        final int tokenBudget, maxItems;
+        final List<Pending> items = new ArrayList<>();
+        int itemCount, tokens;
+        Bucket(String lang, String instr, Sender sender, int tokenBudget, int maxItems) {
+            this.targetLang = lang; this.userInstruction = instr; this.sender = sender;
+            this.tokenBudget = tokenBudget; this.maxItems = maxItems;
+        }
+    }
+
+    /** 合并失败的标记：调用方改为单独发送 */
+    private static final class MergeFailed extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        MergeFailed(Throwable cause) { super(cause); }
+    }
+
+    /**
+     * @param estTokens   本批预计输出 token
+     * @param tokenBudget 单次请求可容纳的输出 token 上限
+     * @param maxItems    单次请求的条数上限（取该语种当前的自适应批大小）
+     */
+    public List<String> translate(List<String> texts, int estTokens, int tokenBudget, int maxItems,
+                                  String targetLang, String userInstruction, Sender sender) throws IOException {
+        callerRequests.increment();
+        // 已接近满额的批次直接发送
+        if (LINGER_MS <= 0 || texts.size() * 2 > maxItems || estTokens * 2 > tokenBudget) {
+            sentRequests.increment();
+            return sender.send(texts, targetLang, userInstruction);
+        }
+
+        Pending me = new Pending(texts);
+        Bucket full = null;
+        synchronized (this) {
+            String key = (targetLang == null ? "" : targetLang) + '\u0000' + Objects.toString(Kimi.sanitizeUserInstruction(userInstruction), "");
+            Bucket b = open.get(key);
+            if (b != null && (b.itemCount + texts.size() > b.maxItems || b.tokens + estTokens > b.tokenBudget)) {
+                open.remove(key);
+                full = b;
+                b = null;
+            }
+            if (b == null) {
+                b = new Bucket(targetLang, userInstruction, sender, tokenBudget, maxItems);
+                open.put(key, b);
+                Bucket scheduled = b;
+                timer.schedule(() -> closeAndFlush(key, scheduled), LINGER_MS, TimeUnit.MILLISECONDS);
+            }
+            b.items.add(me);
+            b.itemCount += texts.size();
+            b.tokens += estTokens;
+        }
+        if (full != null) flush(full);
+
+        try {
+            return me.future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待合并批次被中断", ie);
+        } catch (ExecutionException ee) {
+            Throwable c = ee.getCause();
+            if (c instanceof MergeFailed) {
+                mergeFallbacks.increment();
+                sentRequests.increment();
+                return sender.send(texts, targetLang, userInstruction);
+            }
+            if (c instanceof IOException) throw (IOException) c;
+            if (c instanceof RuntimeException) throw (RuntimeException) c;
+            throw new IOException(c);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("lingerMs", LINGER_MS);
+        m.put("callerRequests", callerRequests.sum());
+        m.put("sentRequests", sentRequests.sum());
+        m.put("mergedRequests", mergedRequests.sum());
+        m.put("mergeFallbacks", mergeFallbacks.sum());
+        return m;
+    }
+
+    @PreDestroy
+    public void shutdown() { timer.shutdownNow(); }
+
+    private void closeAndFlush(String key, Bucket b) {
+        synchronized (this) {
+            if (open.get(key) != b) return; // 已因满额被提前发送
+            open.remove(key);
+        }
+        executor.submit(() -> { flush(b); return null; });
+    }
+
+    private void flush(Bucket b) {
+        sentRequests.increment();
+        if (b.items.size() == 1) {
+            Pending only = b.items.get(0);
+            try { only.future.complete(b.sender.send(only.texts, b.targetLang, b.userInstruction)); }
+            catch (Throwable e) { only.future.completeExceptionally(e); }
+            return;
+        }
+
+        List<String> merged = new ArrayList<>(b.itemCount);
+        for (Pending p : b.items) merged.addAll(p.texts);
+        try {
+            List<String> res = b.sender.send(merged, b.targetLang, b.userInstruction);
+            mergedRequests.add(b.items.size());
+            int off = 0;
+            for (Pending p : b.items) {
+                p.future.complete(new ArrayList<>(res.subList(off, off + p.texts.size())));
+                off += p.texts.size();
+            }
+            log.debug("coalesced {} callers into one request ({} items)", b.items.size(), merged.size());
+        } catch (Throwable e) {
+            if (!splittable(e)) {
+                log.warn("coalesced request failed ({} callers): {}", b.items.size(), e.toString());
+                for (Pending p : b.items) p.future.completeExceptionally(e);
+                return;
+            }
+            log.warn("coalesced request failed ({} callers), falling back to individual sends: {}", b.items.size(), e.getMessage());
+            for (Pending p : b.items) p.future.completeExceptionally(new MergeFailed(e));
+        }
+    }
+
+    /** 只有截断/数量不一致与合并后的批次大小有关，拆回单发才可能成功 */
+    private static boolean splittable(Throwable e) {
+        String msg = String.valueOf(e.getMessage());
+        return msg.contains("finish_reason=length")
+                || msg.contains("仍不一致") || msg.contains("not equal") || msg.contains("size mismatch");
+    }
+}
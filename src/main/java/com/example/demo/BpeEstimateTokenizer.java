@@ -0,0 +1,94 @@
+package com.example.demo;
+
+/**
+ * 近似 BPE 的本地计数器：按 tiktoken 类分词器的预切分规则（字母词 / 数字每 3 位 / 标点串 / 换行）
+ * 把文本切成 run，再按脚本给出每个 run 的 token 数。单次线性扫描，不建子串、不用正则。
+ *
+ * 各脚本的系数取自大词表 BPE 的典型压缩率（以十分之一 token 计）：
+ * 拉丁词 ≤6 字母 1 个、此后每 4 字母 +1；西里尔/希腊/阿拉伯/希伯来每 3 字母 1 个；
+ * 汉字 1.0（沿用旧估算：CJK 是主要输入，实测数据支持前不下调，避免预占偏小）、假名 0.9、谚文音节 1.0、
+ * 泰文/天城文等 0.7 每字；emoji 等补充平面字符 2 个。与实际用量的对比见 TokenizerBenchmark。
+ */
+final class BpeEstimateTokenizer implements Tokenizer {
+
+    private static final int NONE = 0, LATIN = 1, DIGIT = 2, ALPHA3 = 3, HAN = 4, KANA = 5, HANGUL = 6,
+            COMPLEX = 7, PUNCT = 8, SPACE = 9, NEWLINE = 10, SUPPLEMENTARY = 11;
+
+    @Override
+    public int count(CharSequence s) {
+        if (s == null) return 0;
+        final int n = s.length();
+        int tenths = 0;
+        int run = NONE, len = 0;
+        for (int i = 0; i < n; ) {
+            char ch = s.charAt(i);
+            int cp = ch, width = 1;
+            if (Character.isHighSurrogate(ch) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                cp = Character.toCodePoint(ch, s.charAt(i + 1));
+                width = 2;
+            }
+            i += width;
+
+            int cls = classOf(cp);
+            if (cls == run) { len++; continue; }
+            tenths += cost(run, len);
+            run = cls; len = 1;
+        }
+        tenths += cost(run, len);
+        return (tenths + 9) / 10;
+    }
+
+    @Override
+    public String name() { return "bpe"; }
+
+    /** 一个同类 run 的 token 数（十分之一 token） */
+    private static int cost(int cls, int len) {
+        if (len == 0) return 0;
+        switch (cls) {
+            case LATIN:   return 10 * (len <= 6 ? 1 : 1 + (len - 6 + 3) / 4);
+            case DIGIT:   return 10 * ((len + 2) / 3);
+            case ALPHA3:  return 10 * ((len + 2) / 3);
+            case HAN:     return 10 * len;
+            case KANA:    return 9 * len;
+            case HANGUL:  return 10 * len;
+            case COMPLEX: return 7 * len;
+            case PUNCT:   return 10 * (1 + (len - 1) / 2); // "..." "--" 等常见组合会被合并
+            case SPACE:   return len == 1 ? 0 : 10;        // 单个空格并入下一个词
+            case NEWLINE: return 10;
+            case SUPPLEMENTARY: return 20 * len;
+            default:      return 10 * len;
+        }
+    }
+
+    private static int classOf(int cp) {
+        if (cp < 0x80) {
+            if ((cp >= 'a' && cp <= 'z') || (cp >= 'A' && cp <= 'Z')) return LATIN;
+            if (cp >= '0' && cp <= '9') return DIGIT;
+            if (cp == ' ' || cp == '\t') return SPACE;
+            if (cp == '\n' || cp == '\r') return NEWLINE;
+            return PUNCT;
+        }
+        if (cp >= 0x10000) {
+            // 扩展 B 区及以后的汉字按汉字算，其余（emoji 等）按补充平面
+            return (cp >= 0x20000 && cp <= 0x3134F) ? HAN : SUPPLEMENTARY;
+        }
+        if (cp <= 0x024F || (cp >= 0x1E00 && cp <= 0x1EFF)) {
+            return Character.isLetter(cp) ? LATIN : PUNCT;                           // Latin-1 / 扩展 / 越南文
+        }
+        if (cp >= 0x0370 && cp <= 0x06FF) return Character.isLetter(cp) ? ALPHA3 : PUNCT; // 希腊、西里尔、亚美尼亚、希伯来、阿拉伯
+        if (cp >= 0x0900 && cp <= 0x0DFF) return COMPLEX;                          // 印度诸文字
+        if (cp >= 0x0E00 && cp <= 0x0EFF) return COMPLEX;                          // 泰文、老挝文
+        if (cp >= 0x1100 && cp <= 0x11FF) return HANGUL;
+        if (cp >= 0x3040 && cp <= 0x30FF) return KANA;
+        if (cp >= 0x31F0 && cp <= 0x31FF) return KANA;
+        if (cp >= 0x3400 && cp <= 0x4DBF) return HAN;
+        if (cp >= 0x4E00 && cp <= 0x9FFF) return HAN;
+        if (cp >= 0xF900 && cp <= 0xFAFF) return HAN;
+        if (cp >= 0xAC00 && cp <= 0xD7AF) return HANGUL;
+        if (cp >= 0x3130 && cp <= 0x318F) return HANGUL;
+        if (cp == 0x3000) return SPACE;
+        if (Character.isWhitespace(cp)) return SPACE;
+        if (Character.isLetter(cp)) return ALPHA3;
+        return PUNCT;
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.demo;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 上游熔断器：连续失败达到阈值即打开，打开期间直接拒绝（快速失败，不再压垮网关）；
+ * 冷却后进入半开，只放行一个探测请求，成功则关闭、失败则重新打开。
+ */
+final class CircuitBreaker {
+    private static final int CLOSED = 0, OPEN = 1, HALF_OPEN = 2;
+
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private final AtomicInteger state = new AtomicInteger(CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong openedAt = new AtomicLong();
+
+    private final LongAdder opens = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = Math.max(0, openMillis) * 1_000_000L;
+    }
+
+    /** 是否放行本次请求；半开状态下只有抢到探测权的调用返回 true */
+    boolean allow() {
+        int s = state.get();
+        if (s == CLOSED) return true;
+        if (s == OPEN && System.nanoTime() - openedAt.get() >= openNanos && state.compareAndSet(OPEN, HALF_OPEN)) {
+            return true; // 本线程作为探测请求
+        }
+        rejected.increment();
+        return false;
+    }
+
+    void onSuccess() {
+        consecutiveFailures.set(0);
+        state.set(CLOSED);
+    }
+
+    void onFailure() {
+        int f = consecutiveFailures.incrementAndGet();
+        int s = state.get();
+        if ((s == HALF_OPEN || (s == CLOSED && f >= failureThreshold)) && state.compareAndSet(s, OPEN)) {
+            openedAt.set(System.nanoTime());
+            opens.increment();
+        }
+    }
+
+    /** 不计成败的结束（如 4xx 参数错误）：半开探测需归还探测权 */
+    void onIgnored() {
+        state.compareAndSet(HALF_OPEN, OPEN);
+    }
+
+    /** 打开状态下距放行半开探测的剩余毫秒；其它状态为 0 */
+    long millisUntilProbe() {
+        if (state.get() != OPEN) return 0L;
+        return Math.max(0L, (openNanos - (System.nanoTime() - openedAt.get())) / 1_000_000L);
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        int s = state.get();
+        m.put("state", s == CLOSED ? "closed" : s == OPEN ? "open" : "half-open");
+        m.put("consecutiveFailures", consecutiveFailures.get());
+        m.put("opens", opens.sum());
+        m.put("rejected", rejected.sum());
+        return m;
+    }
+}
@@ -1,6 +1,9 @@
 package com.example.demo;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
@@ -10,23 +13,64 @@ import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.apache.poi.xslf.usermodel.XMLSlideShow;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.hslf.usermodel.HSLFSlideShow;
+import org.apache.poi.ooxml.POIXMLDocument;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api")
 public class DocumentController {
 
+    // OOXML 输出只重新压缩改动过的部件，媒体等条目按原压缩字节直通；false 时走 POI 的完整 write
+    private static final boolean OOXML_PASSTHROUGH =
+            Boolean.parseBoolean(System.getenv().getOrDefault("OOXML_PASSTHROUGH", "true"));
+
     @Autowired
     private DocumentProcessor documentProcessor;
     @Autowired
     private OfficeConvertService officeConvertService;
+    @Autowired
+    private TranslationMemory translationMemory;
+    @Autowired
+    private TranslationExecutor translationExecutor;
+    @Autowired
+    private BatchCoalescer batchCoalescer;
+    @Autowired
+    private AdaptiveBatchPlanner batchPlanner;
+    @Autowired
+    private RequestHedger requestHedger;
+    @Autowired
+    private FairShareScheduler fairShareScheduler;
     
     @GetMapping("/")
     public String home() {
         return "Office Document Processor is running! 📄✨";
     }
+
+    // 运行指标（缓存命中等）
+    @GetMapping("/stats")
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("translationMemory", translationMemory.stats());
+        m.put("kimiHttp", Kimi.httpStats());
+        m.put("kimiLimiter", Kimi.limiterStats());
+        m.put("kimiUpstreams", Kimi.upstreamStats());
+        m.put("translationExecutor", translationExecutor.stats());
+        m.put("coalescer", batchCoalescer.stats());
+        m.put("batchPlanner", batchPlanner.stats());
+        m.put("hedging", requestHedger.stats());
+        m.put("scheduler", fairShareScheduler.stats());
+        return m;
+    }
     
     // Apache POI 处理方法
 @PostMapping("/process")
@@ -34,8 +78,12 @@ public ResponseEntity<byte[]> processWithPOI(
         @RequestParam("file") MultipartFile file,
         @RequestParam(value = "sourceLang", required = false, defaultValue = "auto") String sourceLang,
         @RequestParam(value = "targetLang", required = false, defaultValue = "en") String targetLang,
-        @RequestParam(value = "userPrompt", required = false) String userPrompt
+        @RequestParam(value = "userPrompt", required = false) String userPrompt,
+        @RequestHeader(value = "X-Tenant", required = false) String tenant,
+        @RequestHeader(value = "X-Priority", required = false) String priority
 ) throws Exception {
+    // 租户与优先级（interactive|batch）交给批次调度器；未指定时按文档片段数自动判定
+    FairShareScheduler.bind(tenant, priority);
     try {
         System.out.println("开始处理文件: " + file.getOriginalFilename());
         String filename = file.getOriginalFilename().toLowerCase();
@@ -60,23 +108,55 @@ public ResponseEntity<byte[]> processWithPOI(
         System.err.println("处理文件时出错: " + e.getMessage());
         e.printStackTrace();
         throw e;
+    } finally {
+        FairShareScheduler.unbind();
     }
 }
+
+    // TPD 不足：直接回 429，并告诉客户端额度何时重置（不经 /error 转发，避免丢失异常信息）
+    @ExceptionHandler(QuotaExceededException.class)
+    public ResponseEntity<Map<String, Object>> handleQuotaExceeded(QuotaExceededException e) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("status", HttpStatus.TOO_MANY_REQUESTS.value());
+        body.put("error", HttpStatus.TOO_MANY_REQUESTS.getReasonPhrase());
+        body.put("message", e.getMessage());
+        body.put("neededTokens", e.neededTokens());
+        body.put("remainingTokens", Math.max(0, e.remainingTokens()));
+        body.put("retryAfterSeconds", e.retryAfterSeconds());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.retryAfterSeconds()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
     
+    // 上游全部熔断：回 503，让客户端在熔断器半开后重试，不返回模拟译文拼成的文档
+    @ExceptionHandler(UpstreamUnavailableException.class)
+    public ResponseEntity<Map<String, Object>> handleUpstreamUnavailable(UpstreamUnavailableException e) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("status", HttpStatus.SERVICE_UNAVAILABLE.value());
+        body.put("error", HttpStatus.SERVICE_UNAVAILABLE.getReasonPhrase());
+        body.put("message", e.getMessage());
+        body.put("retryAfterSeconds", e.retryAfterSeconds());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.retryAfterSeconds()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+
     private ResponseEntity<byte[]> processExcelXLSX(MultipartFile file, String targetLang, String userPrompt) throws Exception {
         System.out.println("处理Excel XLSX文件 - 使用批量翻译");
-        XSSFWorkbook workbook = new XSSFWorkbook(file.getInputStream());
-        
-        // 使用新的批量处理逻辑
-        workbook = documentProcessor.processExcelDocument(workbook, targetLang, userPrompt);
-        
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        workbook.write(out);
-        workbook.close();
-        
-        return ResponseEntity.ok()
-                .header("Content-Disposition", "attachment; filename=batch-translated.xlsx")
-                .body(out.toByteArray());
+        Path src = spool(file, ".xlsx");
+        try {
+            // 使用新的批量处理逻辑
+            byte[] out = processOoxml(src, XSSFWorkbook::new,
+                    workbook -> documentProcessor.processExcelDocument(workbook, targetLang, userPrompt));
+
+            return ResponseEntity.ok()
+                    .header("Content-Disposition", "attachment; filename=batch-translated.xlsx")
+                    .body(out);
+        } finally {
+            deleteQuietly(src);
+        }
     }
     
     private ResponseEntity<byte[]> processExcelXLS(MultipartFile file, String targetLang, String userPrompt) throws Exception {
@@ -104,18 +184,20 @@ public ResponseEntity<byte[]> processWithPOI(
     
     private ResponseEntity<byte[]> processWordDOCX(MultipartFile file, String targetLang, String userPrompt) throws Exception {
         System.out.println("处理Word DOCX文件 - 使用批量翻译");
-        XWPFDocument doc = new XWPFDocument(file.getInputStream());
-        
-        // 使用新的批量处理逻辑
-        doc = documentProcessor.processWordDocument(doc, targetLang, userPrompt);
-        
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        doc.write(out);
-        doc.close();
-        
-        return ResponseEntity.ok()
-                .header("Content-Disposition", "attachment; filename=batch-translated.docx")
-                .body(out.toByteArray());
+        Path src = spool(file, ".docx");
+        try {
+            // 使用新的批量处理逻辑
+            byte[] out = DocumentProcessor.STREAMING_DOCX
+                    ? documentProcessor.processWordDocxStreaming(src, targetLang, userPrompt)
+                    : processOoxml(src, XWPFDocument::new,
+                            doc -> documentProcessor.processWordDocument(doc, targetLang, userPrompt));
+
+            return ResponseEntity.ok()
+                    .header("Content-Disposition", "attachment; filename=batch-translated.docx")
+                    .body(out);
+        } finally {
+            deleteQuietly(src);
+        }
     }
     
     private ResponseEntity<byte[]> processWordDOC(MultipartFile file, String targetLang, String userPrompt) throws Exception {
@@ -129,12 +211,15 @@ public ResponseEntity<byte[]> processWithPOI(
 
         // 3) 在 .docx 上执行已有的翻译逻辑
         byte[] translatedDocx;
-        try (XWPFDocument xdoc = new XWPFDocument(new ByteArrayInputStream(asDocx));
-            ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-            XWPFDocument translated = documentProcessor.processWordDocument(xdoc, targetLang, userPrompt);
-            translated.write(out);
-            translated.close();
-            translatedDocx = out.toByteArray();
+        Path src = Files.createTempFile("office-", ".docx");
+        try {
+            Files.write(src, asDocx);
+            translatedDocx = DocumentProcessor.STREAMING_DOCX
+                    ? documentProcessor.processWordDocxStreaming(src, targetLang, userPrompt)
+                    : processOoxml(src, XWPFDocument::new,
+                            xdoc -> documentProcessor.processWordDocument(xdoc, targetLang, userPrompt));
+        } finally {
+            deleteQuietly(src);
         }
 
         // 4) 将翻译后的 .docx -> .doc，保证输出扩展仍为 .doc
@@ -147,18 +232,18 @@ public ResponseEntity<byte[]> processWithPOI(
 
     private ResponseEntity<byte[]> processPowerPointPPTX(MultipartFile file, String targetLang, String userPrompt) throws Exception {
         System.out.println("处理PowerPoint PPTX文件 - 使用批量翻译");
-        XMLSlideShow ppt = new XMLSlideShow(file.getInputStream());
-        
-        // 使用新的批量处理逻辑
-        ppt = documentProcessor.processPowerPointPPTX(ppt, targetLang, userPrompt);
-        
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        ppt.write(out);
-        ppt.close();
-        
-        return ResponseEntity.ok()
-                .header("Content-Disposition", "attachment; filename=batch-translated.pptx")
-                .body(out.toByteArray());
+        Path src = spool(file, ".pptx");
+        try {
+            // 使用新的批量处理逻辑
+            byte[] out = processOoxml(src, XMLSlideShow::new,
+                    ppt -> documentProcessor.processPowerPointPPTX(ppt, targetLang, userPrompt));
+
+            return ResponseEntity.ok()
+                    .header("Content-Disposition", "attachment; filename=batch-translated.pptx")
+                    .body(out);
+        } finally {
+            deleteQuietly(src);
+        }
     }
     
     private ResponseEntity<byte[]> processPowerPointPPT(MultipartFile file, String targetLang, String userPrompt) throws Exception {
@@ -186,4 +271,54 @@ public ResponseEntity<byte[]> processWithPOI(
     }
     
 
+    @FunctionalInterface
+    private interface OoxmlStep<T, R> {
+        R apply(T t) throws Exception;
+    }
+
+    /**
+     * POI 处理 OOXML：从临时文件按需读取部件（媒体不进堆），输出时只有提交过的 XML 部件重新压缩，
+     * 其余条目按原压缩字节直通；部件有增删时退回 POI 的完整 write。
+     */
+    private <D extends POIXMLDocument> byte[] processOoxml(Path src, OoxmlStep<OPCPackage, D> open,
+                                                           OoxmlStep<D, D> process) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!OOXML_PASSTHROUGH) {
+            try (InputStream in = Files.newInputStream(src);
+                 D doc = process.apply(open.apply(OPCPackage.open(in)))) {
+                doc.write(out);
+            }
+            return out.toByteArray();
+        }
+
+        OPCPackage pkg = OPCPackage.open(src.toFile(), PackageAccess.READ_WRITE);
+        try (OoxmlZip zip = OoxmlZip.open(src)) {
+            D doc = process.apply(open.apply(pkg));
+            if (!OoxmlZip.writeCommitted(doc, zip, out)) {
+                System.out.println("OOXML 部件有增删，改用完整写出");
+                out.reset();
+                doc.write(out);
+            }
+            return out.toByteArray();
+        } finally {
+            pkg.revert(); // READ_WRITE 打开的包 close() 会回写临时文件，这里直接丢弃
+        }
+    }
+
+    private static Path spool(MultipartFile file, String suffix) throws IOException {
+        Path tmp = Files.createTempFile("office-", suffix);
+        try (InputStream in = file.getInputStream()) {
+            Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return tmp;
+    }
+
+    private static void deleteQuietly(Path p) {
+        try {
+            Files.deleteIfExists(p);
+        } catch (IOException e) {
+            p.toFile().deleteOnExit();
+        }
+    }
+
 }
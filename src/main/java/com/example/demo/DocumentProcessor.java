@@ -20,62 +20,69 @@ public class DocumentProcessor {
     
     @Autowired
     private TranslateService translateService;
+
+    // DOCX 引擎：poi（默认，XWPFDocument）/ stax（流式，不建 DOM，适合超大文档）
+    static final boolean STREAMING_DOCX =
+            "stax".equalsIgnoreCase(System.getenv().getOrDefault("DOCX_ENGINE", "poi").trim());
     
-    // 文档结构信息类
-    public static class TextElement {
-        public String text;
-        public String type;
-        public Map<String, Object> position;
-        
-        public TextElement(String text, String type, Map<String, Object> position) {
-            this.text = text;
-            this.type = type;
-            this.position = position;
-        }
-    }
-    
+    // 片段类型（SegmentTable 类型码）及各列含义
+    static final byte CELL = 1;        // Excel 单元格：loc0..2=工作表/行/列
+    static final byte TEXT_RUN = 2;    // PPTX 文本 run：loc0..3=幻灯片/顶层 shape/段落/run；ref0=分组内路径
+    static final byte TABLE_CELL = 3;  // PPT(X) 表格单元格：loc0..3=幻灯片/顶层 shape/行/列；ref0=分组内路径
+    static final byte TEXT_SHAPE = 4;  // PPT 文本框：loc0..1=幻灯片/顶层 shape；ref0=分组内路径
+
     // 1. Word DOCX文档处理
     public XWPFDocument processWordDocument(XWPFDocument docx, String targetLang, String userPrompt) throws Exception {
         System.out.println("开始批量处理Word文档");
 
-        List<WordDocxExtractorRestorer.TextElement> elements = WordDocxExtractorRestorer.extractWordTexts(docx);
+        SegmentTable elements = WordDocxExtractorRestorer.extractWordTexts(docx);
         System.out.println("提取到 " + elements.size() + " 个文本元素");
 
-        for (int i = 0; i < elements.size(); i++) {
-            log.debug("DOCX element[{}]: {}", i, preview(elements.get(i).text));
-        }
-        
-        List<String> texts = new ArrayList<>();
-        for (WordDocxExtractorRestorer.TextElement element : elements) {
-            texts.add(element.text);
+        if (log.isDebugEnabled()) {
+            for (int i = 0; i < elements.size(); i++) {
+                log.debug("DOCX element[{}]: {}", i, preview(elements.text(i)));
+            }
         }
 
-        List<String> translatedTexts = translateService.batchTranslate(texts, targetLang, userPrompt);
+        List<String> translatedTexts = translateService.batchTranslate(elements.texts(), targetLang, userPrompt);
 
         WordDocxExtractorRestorer.restoreWordTexts(docx, elements, translatedTexts);
         
         return docx;
     }
+
+    // 1b. Word DOCX 流式处理（DOCX_ENGINE=stax）：全程不构建 XWPFDocument，未改动的 zip 条目按原压缩字节直通
+    public byte[] processWordDocxStreaming(java.nio.file.Path docx, String targetLang, String userPrompt) throws Exception {
+        System.out.println("开始流式处理Word文档");
+
+        try (OoxmlZip zip = OoxmlZip.open(docx)) {
+            StaxDocxProcessor.Extraction extraction = StaxDocxProcessor.extract(zip);
+            System.out.println("提取到 " + extraction.texts.size() + " 个文本元素");
+
+            List<String> translatedTexts = translateService.batchTranslate(extraction.texts, targetLang, userPrompt);
+
+            java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+            StaxDocxProcessor.restore(zip, extraction, translatedTexts, out);
+            return out.toByteArray();
+        }
+    }
    
     // 2. Excel XLSX文档处理
     public XSSFWorkbook processExcelDocument(XSSFWorkbook workbook, String targetLang, String userPrompt) throws Exception {
         System.out.println("开始批量处理Excel文档");
         
-        List<TextElement> elements = extractExcelTexts(workbook);
+        SegmentTable elements = extractExcelTexts(workbook);
         System.out.println("提取到 " + elements.size() + " 个单元格文本");
         
-        List<String> texts = new ArrayList<>();
-        for (TextElement element : elements) {
-            texts.add(element.text);
-        }
+        List<String> texts = elements.texts();
         List<String> translatedTexts = translateService.batchTranslate(texts, targetLang, userPrompt);
         
         restoreExcelTexts(workbook, elements, translatedTexts);
         return workbook;
     }
     
-    private List<TextElement> extractExcelTexts(XSSFWorkbook workbook) {
-        List<TextElement> elements = new ArrayList<>();
+    private SegmentTable extractExcelTexts(XSSFWorkbook workbook) {
+        SegmentTable elements = new SegmentTable();
         
         for (int sheetIndex = 0; sheetIndex < workbook.getNumberOfSheets(); sheetIndex++) {
             XSSFSheet sheet = workbook.getSheetAt(sheetIndex);
@@ -87,11 +94,7 @@ public class DocumentProcessor {
                         if (cell != null && cell.getCellType() == CellType.STRING) {
                             String text = cell.getStringCellValue();
                             if (text != null && !text.trim().isEmpty()) {
-                                Map<String, Object> position = new HashMap<>();
-                                position.put("sheetIndex", sheetIndex);
-                                position.put("rowIndex", rowNum);
-                                position.put("cellIndex", cellNum);
-                                elements.add(new TextElement(text, "cell", position));
+                                elements.add(CELL, text, sheetIndex, rowNum, cellNum, 0, 0, 0);
                             }
                         }
                     }
@@ -101,13 +104,12 @@ public class DocumentProcessor {
         return elements;
     }
     
-    private void restoreExcelTexts(XSSFWorkbook workbook, List<TextElement> elements, List<String> translatedTexts) {
+    private void restoreExcelTexts(XSSFWorkbook workbook, SegmentTable elements, List<String> translatedTexts) {
         for (int i = 0; i < elements.size(); i++) {
-            TextElement element = elements.get(i);
-            int sheetIndex = (Integer) element.position.get("sheetIndex");
-            int rowIndex = (Integer) element.position.get("rowIndex");
-            int cellIndex = (Integer) element.position.get("cellIndex");
-            
+            int sheetIndex = elements.location(i, 0);
+            int rowIndex = elements.location(i, 1);
+            int cellIndex = elements.location(i, 2);
+
             XSSFCell cell = workbook.getSheetAt(sheetIndex).getRow(rowIndex).getCell(cellIndex);
             cell.setCellValue(translatedTexts.get(i));
         }
@@ -117,13 +119,10 @@ public class DocumentProcessor {
     public XMLSlideShow processPowerPointPPTX(XMLSlideShow ppt, String targetLang, String userPrompt) throws Exception {
         System.out.println("开始批量处理PowerPoint PPTX文档");
         
-        List<TextElement> elements = extractPPTXTexts(ppt);
+        SegmentTable elements = extractPPTXTexts(ppt);
         System.out.println("提取到 " + elements.size() + " 个文本元素");
         
-        List<String> texts = new ArrayList<>();
-        for (TextElement element : elements) {
-            texts.add(element.text);
-        }
+        List<String> texts = elements.texts();
         System.out.println(texts);
         List<String> translatedTexts = translateService.batchTranslate(texts, targetLang, userPrompt);
         
@@ -131,8 +130,8 @@ public class DocumentProcessor {
         return ppt;
     }
     
-    private List<TextElement> extractPPTXTexts(XMLSlideShow ppt) {
-        List<TextElement> elements = new ArrayList<>();
+    private SegmentTable extractPPTXTexts(XMLSlideShow ppt) {
+        SegmentTable elements = new SegmentTable();
 
         for (int slideIndex = 0; slideIndex < ppt.getSlides().size(); slideIndex++) {
             XSLFSlide slide = ppt.getSlides().get(slideIndex);
@@ -146,7 +145,7 @@ public class DocumentProcessor {
         return elements;
     }
 
-    private void collectFromShape(XSLFShape shape, int slideIndex, int topShapeIndex, List<Integer> path, List<TextElement> elements) {
+    private void collectFromShape(XSLFShape shape, int slideIndex, int topShapeIndex, List<Integer> path, SegmentTable elements) {
         if (shape instanceof XSLFGroupShape group) {
             List<XSLFShape> children = group.getShapes();
             for (int i = 0; i < children.size(); i++) {
@@ -164,13 +163,9 @@ public class DocumentProcessor {
                     XSLFTextRun run = paragraph.getTextRuns().get(runIndex);
                     String text = run.getRawText();
                     if (text != null && !text.trim().isEmpty()) {
-                        Map<String, Object> position = new HashMap<>();
-                        position.put("slideIndex", slideIndex);
-                        position.put("shapeIndex", topShapeIndex); // 顶层 shape 的索引，保持兼容
-                        position.put("paragraphIndex", paragraphIndex);
-                        position.put("runIndex", runIndex);
-                        if (!path.isEmpty()) position.put("shapePath", pathToString(path)); // 仅在分组中记录
-                        elements.add(new TextElement(text, "textRun", position));
+                        // 顶层 shape 的索引 + 分组内路径（仅在分组中记录）
+                        int seg = elements.add(TEXT_RUN, text, slideIndex, topShapeIndex, paragraphIndex, runIndex, 0, 0);
+                        if (!path.isEmpty()) elements.setRef(seg, 0, pathToString(path));
                     }
                 }
             }
@@ -181,13 +176,8 @@ public class DocumentProcessor {
                     XSLFTableCell cell = row.getCells().get(cellIndex);
                     String cellText = cell.getText();
                     if (cellText != null && !cellText.trim().isEmpty()) {
-                        Map<String, Object> position = new HashMap<>();
-                        position.put("slideIndex", slideIndex);
-                        position.put("shapeIndex", topShapeIndex); // 顶层 shape 的索引，保持兼容
-                        position.put("rowIndex", rowIndex);
-                        position.put("cellIndex", cellIndex);
-                        if (!path.isEmpty()) position.put("shapePath", pathToString(path));
-                        elements.add(new TextElement(cellText, "tableCell", position));
+                        int seg = elements.add(TABLE_CELL, cellText, slideIndex, topShapeIndex, rowIndex, cellIndex, 0, 0);
+                        if (!path.isEmpty()) elements.setRef(seg, 0, pathToString(path));
                     }
                 }
             }
@@ -203,17 +193,17 @@ public class DocumentProcessor {
         return sb.toString();
     }
 
-    private void restorePPTXTexts(XMLSlideShow ppt, List<TextElement> elements, List<String> translatedTexts) {
+    private void restorePPTXTexts(XMLSlideShow ppt, SegmentTable elements, List<String> translatedTexts) {
         for (int i = 0; i < elements.size(); i++) {
-            TextElement element = elements.get(i);
+            byte type = elements.type(i);
             String translatedText = translatedTexts.get(i);
 
-            if ("textRun".equals(element.type)) {
-                int slideIndex = (Integer) element.position.get("slideIndex");
-                int shapeIndex = (Integer) element.position.get("shapeIndex");
-                Integer paragraphIndex = (Integer) element.position.get("paragraphIndex");
-                Integer runIndex = (Integer) element.position.get("runIndex");
-                String shapePath = (String) element.position.get("shapePath"); // 可能为 null
+            if (type == TEXT_RUN) {
+                int slideIndex = elements.location(i, 0);
+                int shapeIndex = elements.location(i, 1);
+                int paragraphIndex = elements.location(i, 2);
+                int runIndex = elements.location(i, 3);
+                String shapePath = elements.ref(i, 0); // 可能为 null
 
                 XSLFSlide slide = safeGet(ppt.getSlides(), slideIndex);
                 if (slide == null) continue;
@@ -229,12 +219,12 @@ public class DocumentProcessor {
 
                 run.setText(translatedText);
 
-            } else if ("tableCell".equals(element.type)) {
-                int slideIndex = (Integer) element.position.get("slideIndex");
-                int shapeIndex = (Integer) element.position.get("shapeIndex");
-                Integer rowIndex = (Integer) element.position.get("rowIndex");
-                Integer cellIndex = (Integer) element.position.get("cellIndex");
-                String shapePath = (String) element.position.get("shapePath"); // 可能为 null
+            } else if (type == TABLE_CELL) {
+                int slideIndex = elements.location(i, 0);
+                int shapeIndex = elements.location(i, 1);
+                int rowIndex = elements.location(i, 2);
+                int cellIndex = elements.location(i, 3);
+                String shapePath = elements.ref(i, 0); // 可能为 null
 
                 XSLFSlide slide = safeGet(ppt.getSlides(), slideIndex);
                 if (slide == null) continue;
@@ -272,8 +262,8 @@ public class DocumentProcessor {
         return current;
     }
 
-    private static <T> T safeGet(List<T> list, Integer idx) {
-        if (list == null || idx == null) return null;
+    private static <T> T safeGet(List<T> list, int idx) {
+        if (list == null) return null;
         return (idx >= 0 && idx < list.size()) ? list.get(idx) : null;
     }
 
@@ -287,15 +277,10 @@ public class DocumentProcessor {
     // 4. Word DOC处理
     public HWPFDocument processWordDOC(HWPFDocument doc, String targetLang, String userPrompt) throws Exception {
         System.out.println("开始批量处理 .doc 文档");
-        List<WordDocExtractorRestorer.TextElement> elements = WordDocExtractorRestorer.extractWordTexts(doc);
+        SegmentTable elements = WordDocExtractorRestorer.extractWordTexts(doc);
         System.out.println("提取到 " + elements.size() + " 个文本元素");
-        // 提取原文去翻译
-        List<String> originals = new ArrayList<>();
-        for (WordDocExtractorRestorer.TextElement el : elements) {
-            originals.add(el.text);
-        }
-        // 批量翻译
-        List<String> translated = translateService.batchTranslate(originals, targetLang, userPrompt);
+        // 批量翻译（原文按行号顺序）
+        List<String> translated = translateService.batchTranslate(elements.texts(), targetLang, userPrompt);
         System.out.println("翻译完成，开始写回文档");
         // 写回翻译结果
         WordDocExtractorRestorer.restoreWordTexts(doc, elements, translated);
@@ -306,13 +291,10 @@ public class DocumentProcessor {
     public HSSFWorkbook processExcelXLS(HSSFWorkbook workbook, String targetLang, String userPrompt) throws Exception {
         System.out.println("开始批量处理Excel XLS文档");
         
-        List<TextElement> elements = extractXLSTexts(workbook);
+        SegmentTable elements = extractXLSTexts(workbook);
         System.out.println("提取到 " + elements.size() + " 个单元格文本");
         
-        List<String> texts = new ArrayList<>();
-        for (TextElement element : elements) {
-            texts.add(element.text);
-        }
+        List<String> texts = elements.texts();
         
         if (!texts.isEmpty()) {
             List<String> translatedTexts = translateService.batchTranslate(texts, targetLang, userPrompt);
@@ -322,8 +304,8 @@ public class DocumentProcessor {
         return workbook;
     }
 
-    private List<TextElement> extractXLSTexts(HSSFWorkbook workbook) {
-        List<TextElement> elements = new ArrayList<>();
+    private SegmentTable extractXLSTexts(HSSFWorkbook workbook) {
+        SegmentTable elements = new SegmentTable();
         
         for (int sheetIndex = 0; sheetIndex < workbook.getNumberOfSheets(); sheetIndex++) {
             HSSFSheet sheet = workbook.getSheetAt(sheetIndex);
@@ -335,11 +317,7 @@ public class DocumentProcessor {
                         if (cell != null && cell.getCellType() == CellType.STRING) {
                             String text = cell.getStringCellValue();
                             if (text != null && !text.trim().isEmpty()) {
-                                Map<String, Object> position = new HashMap<>();
-                                position.put("sheetIndex", sheetIndex);
-                                position.put("rowIndex", rowNum);
-                                position.put("cellIndex", cellNum);
-                                elements.add(new TextElement(text, "cell", position));
+                                elements.add(CELL, text, sheetIndex, rowNum, cellNum, 0, 0, 0);
                             }
                         }
                     }
@@ -349,13 +327,12 @@ public class DocumentProcessor {
         return elements;
     }
 
-    private void restoreXLSTexts(HSSFWorkbook workbook, List<TextElement> elements, List<String> translatedTexts) {
+    private void restoreXLSTexts(HSSFWorkbook workbook, SegmentTable elements, List<String> translatedTexts) {
         for (int i = 0; i < elements.size(); i++) {
-            TextElement element = elements.get(i);
-            int sheetIndex = (Integer) element.position.get("sheetIndex");
-            int rowIndex = (Integer) element.position.get("rowIndex");
-            int cellIndex = (Integer) element.position.get("cellIndex");
-            
+            int sheetIndex = elements.location(i, 0);
+            int rowIndex = elements.location(i, 1);
+            int cellIndex = elements.location(i, 2);
+
             HSSFCell cell = workbook.getSheetAt(sheetIndex).getRow(rowIndex).getCell(cellIndex);
             cell.setCellValue(translatedTexts.get(i));
         }
@@ -365,21 +342,18 @@ public class DocumentProcessor {
     public HSLFSlideShow processPowerPointPPT(HSLFSlideShow ppt, String targetLang, String userPrompt) throws Exception {
         System.out.println("开始批量处理PowerPoint PPT文档");
         
-        List<TextElement> elements = extractPPTTexts(ppt);
+        SegmentTable elements = extractPPTTexts(ppt);
         System.out.println("提取到 " + elements.size() + " 个文本元素");
         
-        List<String> texts = new ArrayList<>();
-        for (TextElement element : elements) {
-            texts.add(element.text);
-        }
+        List<String> texts = elements.texts();
         List<String> translatedTexts = translateService.batchTranslate(texts, targetLang, userPrompt);
         
         restorePPTTexts(ppt, elements, translatedTexts);
         return ppt;
     }
     
-    private List<TextElement> extractPPTTexts(HSLFSlideShow ppt) {
-        List<TextElement> elements = new ArrayList<>();
+    private SegmentTable extractPPTTexts(HSLFSlideShow ppt) {
+        SegmentTable elements = new SegmentTable();
 
         for (int slideIndex = 0; slideIndex < ppt.getSlides().size(); slideIndex++) {
             HSLFSlide slide = ppt.getSlides().get(slideIndex);
@@ -392,7 +366,7 @@ public class DocumentProcessor {
         return elements;
     }
 
-    private void collectFromHslfShape(HSLFShape shape, int slideIndex, int topShapeIndex, List<Integer> path, List<TextElement> out) {
+    private void collectFromHslfShape(HSLFShape shape, int slideIndex, int topShapeIndex, List<Integer> path, SegmentTable out) {
         if (shape instanceof HSLFGroupShape) {
             HSLFGroupShape group = (HSLFGroupShape) shape;
             List<HSLFShape> children = group.getShapes();
@@ -408,11 +382,8 @@ public class DocumentProcessor {
             HSLFTextShape textShape = (HSLFTextShape) shape;
             String text = textShape.getText();
             if (text != null && !text.trim().isEmpty()) {
-                Map<String, Object> position = new HashMap<>();
-                position.put("slideIndex", slideIndex);
-                position.put("shapeIndex", topShapeIndex);       // 仍记录顶层 shape 索引，保持兼容
-                if (!path.isEmpty()) position.put("shapePath", pathToString(path));
-                out.add(new TextElement(text, "textShape", position));
+                int seg = out.add(TEXT_SHAPE, text, slideIndex, topShapeIndex, 0, 0, 0, 0); // 仍记录顶层 shape 索引
+                if (!path.isEmpty()) out.setRef(seg, 0, pathToString(path));
             }
 
         } else if (shape instanceof HSLFTable) {
@@ -423,13 +394,8 @@ public class DocumentProcessor {
                     if (cell != null) {
                         String cellText = cell.getText();
                         if (cellText != null && !cellText.trim().isEmpty()) {
-                            Map<String, Object> position = new HashMap<>();
-                            position.put("slideIndex", slideIndex);
-                            position.put("shapeIndex", topShapeIndex);
-                            position.put("rowIndex", rowIndex);
-                            position.put("cellIndex", cellIndex);
-                            if (!path.isEmpty()) position.put("shapePath", pathToString(path));
-                            out.add(new TextElement(cellText, "tableCell", position));
+                            int seg = out.add(TABLE_CELL, cellText, slideIndex, topShapeIndex, rowIndex, cellIndex, 0, 0);
+                            if (!path.isEmpty()) out.setRef(seg, 0, pathToString(path));
                         }
                     }
                 }
@@ -437,15 +403,15 @@ public class DocumentProcessor {
         }
     }
 
-    private void restorePPTTexts(HSLFSlideShow ppt, List<TextElement> elements, List<String> translatedTexts) {
+    private void restorePPTTexts(HSLFSlideShow ppt, SegmentTable elements, List<String> translatedTexts) {
         for (int i = 0; i < elements.size(); i++) {
-            TextElement element = elements.get(i);
+            byte type = elements.type(i);
             String translatedText = translatedTexts.get(i);
 
-            if ("textShape".equals(element.type)) {
-                Integer slideIndex = (Integer) element.position.get("slideIndex");
-                Integer shapeIndex = (Integer) element.position.get("shapeIndex");
-                String shapePath = (String) element.position.get("shapePath"); // 可能为 null
+            if (type == TEXT_SHAPE) {
+                int slideIndex = elements.location(i, 0);
+                int shapeIndex = elements.location(i, 1);
+                String shapePath = elements.ref(i, 0); // 可能为 null
 
                 HSLFSlide slide = safeGet(ppt.getSlides(), slideIndex);
                 if (slide == null) continue;
@@ -455,12 +421,12 @@ public class DocumentProcessor {
 
                 ((HSLFTextShape) shape).setText(translatedText);
 
-            } else if ("tableCell".equals(element.type)) {
-                Integer slideIndex = (Integer) element.position.get("slideIndex");
-                Integer shapeIndex = (Integer) element.position.get("shapeIndex");
-                Integer rowIndex = (Integer) element.position.get("rowIndex");
-                Integer cellIndex = (Integer) element.position.get("cellIndex");
-                String shapePath = (String) element.position.get("shapePath"); // 可能为 null
+            } else if (type == TABLE_CELL) {
+                int slideIndex = elements.location(i, 0);
+                int shapeIndex = elements.location(i, 1);
+                int rowIndex = elements.location(i, 2);
+                int cellIndex = elements.location(i, 3);
+                String shapePath = elements.ref(i, 0); // 可能为 null
 
                 HSLFSlide slide = safeGet(ppt.getSlides(), slideIndex);
                 if (slide == null) continue;
@@ -469,7 +435,7 @@ public class DocumentProcessor {
                 if (!(shape instanceof HSLFTable)) continue;
 
                 HSLFTable table = (HSLFTable) shape;
-                HSLFTableCell cell = (rowIndex != null && cellIndex != null) ? table.getCell(rowIndex, cellIndex) : null;
+                HSLFTableCell cell = table.getCell(rowIndex, cellIndex);
                 if (cell != null) {
                     cell.setText(translatedText);
                 }
@@ -477,7 +443,7 @@ public class DocumentProcessor {
         }
     }
 
-    private HSLFShape resolveHslfShape(HSLFSlide slide, Integer topShapeIndex, String shapePath) {
+    private HSLFShape resolveHslfShape(HSLFSlide slide, int topShapeIndex, String shapePath) {
         HSLFShape current = safeGet(slide.getShapes(), topShapeIndex);
         if (current == null) return null;
         if (shapePath == null || shapePath.isEmpty()) return current;
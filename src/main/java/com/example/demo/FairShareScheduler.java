@@ -0,0 +1,197 @@
+package com.example.demo;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 批次调度：所有作业的批次先进这里排队，同时在途的批次数不超过 slots，避免单个大作业把限流器排满。
+ * - 两个优先级：交互（小文档或显式 X-Priority: interactive）严格优先，大作业只用剩余容量；
+ * - 同一优先级内按加权公平排队（WFQ，虚拟完成时间 = 起始 + 成本/权重），
+ *   权重 = 租户权重 / 该租户当前活跃作业数，保证租户之间、作业之间都公平。
+ */
+@Slf4j
+@Component
+public class FairShareScheduler {
+
+    // ===== 参数（可用 .env 覆盖） =====
+    private static final boolean ENABLED =
+            Boolean.parseBoolean(System.getenv().getOrDefault("TRANSLATE_FAIR_SCHEDULING", "true"));
+    private static final int SLOTS = getEnvInt("TRANSLATE_SCHEDULER_SLOTS", 0); // <=0：取 Kimi 总并发
+    private static final int INTERACTIVE_MAX_SEGMENTS = getEnvInt("TRANSLATE_INTERACTIVE_MAX_SEGMENTS", 200);
+    private static final Map<String, Double> TENANT_WEIGHTS = parseWeights(System.getenv().getOrDefault("TRANSLATE_TENANT_WEIGHTS", ""));
+
+    private static int getEnvInt(String k, int d){ try { return Integer.parseInt(System.getenv().getOrDefault(k, String.valueOf(d))); } catch(Exception e){ return d; } }
+
+    public enum Priority { INTERACTIVE, BATCH }
+
+    // 请求线程上的租户/优先级（由 DocumentController 绑定）
+    private static final ThreadLocal<String[]> REQUEST_CONTEXT = new ThreadLocal<>();
+
+    public static void bind(String tenant, String priority) { REQUEST_CONTEXT.set(new String[]{tenant, priority}); }
+    public static void unbind() { REQUEST_CONTEXT.remove(); }
+
+    @Autowired
+    private TranslationExecutor executor;
+
+    /** 一次 batchTranslate 即一个作业 */
+    public static final class Job {
+        final long id;
+        final String tenant;
+        final Priority priority;
+        double lastFinish; // 本作业最后一个批次的虚拟完成时间
+        Job(long id, String tenant, Priority priority) { this.id = id; this.tenant = tenant; this.priority = priority; }
+        public Priority priority() { return priority; }
+    }
+
+    private static final class Item {
+        final Job job;
+        final double start, finish;
+        final long seq;
+        final long enqueuedAt = System.nanoTime();
+        final Callable<?> task;
+        final CompletableFuture<Object> result;
+        Thread runner; // 仅在 synchronized(this) 下读写
+        Item(Job job, double start, double finish, long seq, Callable<?> task, CompletableFuture<Object> result) {
+            this.job = job; this.start = start; this.finish = finish; this.seq = seq; this.task = task; this.result = result;
+        }
+    }
+
+    private static final Comparator<Item> BY_FINISH =
+            Comparator.<Item>comparingDouble(i -> i.finish).thenComparingLong(i -> i.seq);
+
+    private final EnumMap<Priority, PriorityQueue<Item>> queues = new EnumMap<>(Priority.class);
+    private final Map<String, Integer> activeJobsPerTenant = new HashMap<>();
+    private final AtomicLong jobSeq = new AtomicLong();
+    private long itemSeq = 0;
+    private double virtualTime = 0;
+    private int running = 0;
+    private int slots = -1;
+
+    private final EnumMap<Priority, LongAdder> dispatched = new EnumMap<>(Priority.class);
+    private final EnumMap<Priority, LongAdder> queueWaitNanos = new EnumMap<>(Priority.class);
+
+    public FairShareScheduler() {
+        for (Priority p : Priority.values()) {
+            queues.put(p, new PriorityQueue<>(BY_FINISH));
+            dispatched.put(p, new LongAdder());
+            queueWaitNanos.put(p, new LongAdder());
+        }
+    }
+
+    /** 开始一个作业：租户/优先级取自请求线程绑定的上下文，未指定优先级时按片段数判定 */
+    public synchronized Job open(int segments) {
+        String[] ctx = REQUEST_CONTEXT.get();
+        String tenant = ctx != null && ctx[0] != null && !ctx[0].isBlank() ? ctx[0].trim() : "default";
+        String p = ctx != null ? ctx[1] : null;
+        Priority priority = p != null && !p.isBlank()
+                ? ("interactive".equalsIgnoreCase(p.trim()) ? Priority.INTERACTIVE : Priority.BATCH)
+                : (segments <= INTERACTIVE_MAX_SEGMENTS ? Priority.INTERACTIVE : Priority.BATCH);
+        activeJobsPerTenant.merge(tenant, 1, Integer::sum);
+        Job job = new Job(jobSeq.incrementAndGet(), tenant, priority);
+        job.lastFinish = virtualTime;
+        log.info("job#{} opened: tenant={}, priority={}, segments={}", job.id, tenant, priority, segments);
+        return job;
+    }
+
+    public synchronized void close(Job job) {
+        activeJobsPerTenant.computeIfPresent(job.tenant, (k, v) -> v <= 1 ? null : v - 1);
+    }
+
+    /** 提交一个批次；cost 为该批的预算成本（如预计 token），决定在公平队列中的份额 */
+    @SuppressWarnings("unchecked")
+    public <T> Future<T> submit(Job job, int cost, Callable<T> task) {
+        if (!ENABLED || job == null) return executor.submit(task);
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        synchronized (this) {
+            double weight = TENANT_WEIGHTS.getOrDefault(job.tenant, 1.0)
+                    / Math.max(1, activeJobsPerTenant.getOrDefault(job.tenant, 1));
+            double start = Math.max(virtualTime, job.lastFinish);
+            double finish = start + Math.max(1, cost) / weight;
+            job.lastFinish = finish;
+            queues.get(job.priority).add(new Item(job, start, finish, itemSeq++, task, result));
+        }
+        dispatch();
+        return (Future<T>) (Future<?>) result;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", ENABLED);
+        m.put("slots", slots());
+        m.put("running", running);
+        m.put("activeTenants", activeJobsPerTenant.size());
+        for (Priority p : Priority.values()) {
+            String k = p.name().toLowerCase(Locale.ROOT);
+            long n = dispatched.get(p).sum();
+            m.put(k + "Queued", queues.get(p).size());
+            m.put(k + "Dispatched", n);
+            m.put(k + "AvgQueueMs", n == 0 ? 0 : queueWaitNanos.get(p).sum() / n / 1_000_000L);
+        }
+        return m;
+    }
+
+    private int slots() {
+        if (slots < 0) slots = SLOTS > 0 ? SLOTS : Math.max(1, Kimi.totalConcurrency());
+        return slots;
+    }
+
+    /** 有空位就按“交互优先、同级最小虚拟完成时间”取出批次交给共享执行器 */
+    private void dispatch() {
+        while (true) {
+            Item next;
+            synchronized (this) {
+                if (running >= slots()) return;
+                next = null;
+                for (Priority p : Priority.values()) {
+                    PriorityQueue<Item> q = queues.get(p);
+                    while ((next = q.poll()) != null && next.result.isDone()) { /* 已取消，跳过 */ }
+                    if (next != null) break;
+                }
+                if (next == null) return;
+                running++;
+                virtualTime = Math.max(virtualTime, next.start);
+            }
+            Item item = next;
+            queueWaitNanos.get(item.job.priority).add(System.nanoTime() - item.enqueuedAt);
+            dispatched.get(item.job.priority).increment();
+            // 调用方 cancel(true) 时中断执行中的批次（Kimi 随之取消 HTTP 调用）
+            item.result.whenComplete((r, e) -> {
+                if (!item.result.isCancelled()) return;
+                synchronized (item) { if (item.runner != null) item.runner.interrupt(); }
+            });
+            executor.submit(() -> {
+                synchronized (item) { item.runner = Thread.currentThread(); }
+                try {
+                    if (!item.result.isDone()) item.result.complete(item.task.call());
+                } catch (Throwable e) {
+                    item.result.completeExceptionally(e);
+                } finally {
+                    synchronized (item) { item.runner = null; }
+                    Thread.interrupted(); // 不把取消留下的中断带给线程池里的下一个任务
+                    synchronized (this) { running--; }
+                    dispatch();
+                }
+                return null;
+            });
+        }
+    }
+
+    private static Map<String, Double> parseWeights(String v) {
+        Map<String, Double> m = new HashMap<>();
+        for (String kv : v.split(",")) {
+            int eq = kv.indexOf('=');
+            if (eq <= 0) continue;
+            try { m.put(kv.substring(0, eq).trim(), Math.max(0.01, Double.parseDouble(kv.substring(eq + 1).trim()))); }
+            catch (NumberFormatException ignore) {}
+        }
+        return m;
+    }
+}
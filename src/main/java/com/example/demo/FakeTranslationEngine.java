@@ -0,0 +1,83 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 进程内离线引擎：不访问网络，译文为 "[targetLang] 原文"。
+ * 延迟、截断率、数量不一致率可配置；是否截断/缺条由 (种子, 请求内容) 决定，同一输入结果可复现。
+ */
+final class FakeTranslationEngine implements TranslationEngine {
+
+    // ===== 参数（可用 .env 覆盖） =====
+    private static final int LATENCY_MS    = getEnvInt("FAKE_ENGINE_LATENCY_MS", 200);
+    private static final int JITTER_MS     = getEnvInt("FAKE_ENGINE_JITTER_MS", 100);
+    private static final int TRUNCATE_PCT  = getEnvInt("FAKE_ENGINE_TRUNCATION_PCT", 0);
+    private static final int MISMATCH_PCT  = getEnvInt("FAKE_ENGINE_MISMATCH_PCT", 0);
+    private static final long SEED         = getEnvInt("FAKE_ENGINE_SEED", 42);
+
+    private static int getEnvInt(String k, int d){ try { return Integer.parseInt(System.getenv().getOrDefault(k, String.valueOf(d))); } catch(Exception e){ return d; } }
+
+    @Override
+    public String translate(String jsonTexts, String targetLang, String userInstruction) throws IOException {
+        SplittableRandom rnd = randomFor(jsonTexts);
+        simulateLatency(rnd);
+        if (rnd.nextInt(100) < TRUNCATE_PCT) throw new Kimi.TruncatedException(Collections.emptyList(), Collections.emptyMap());
+
+        com.alibaba.fastjson.JSONArray texts = com.alibaba.fastjson.JSONObject.parseObject(jsonTexts).getJSONArray("texts");
+        com.alibaba.fastjson.JSONArray out = new com.alibaba.fastjson.JSONArray();
+        for (int i = 0; i < texts.size(); i++) out.add(fakeTranslate(texts.getString(i), targetLang));
+        if (!out.isEmpty() && rnd.nextInt(100) < MISMATCH_PCT) out.remove(out.size() - 1);
+
+        com.alibaba.fastjson.JSONObject r = new com.alibaba.fastjson.JSONObject();
+        r.put("translations", out);
+        return r.toJSONString();
+    }
+
+    @Override
+    public String translateKeyed(String jsonTexts, int expectedCount, String targetLang, String userInstruction) throws IOException {
+        SplittableRandom rnd = randomFor(jsonTexts);
+        simulateLatency(rnd);
+        if (rnd.nextInt(100) < TRUNCATE_PCT) throw new Kimi.TruncatedException(Collections.emptyList(), Collections.emptyMap());
+
+        com.alibaba.fastjson.JSONObject texts = com.alibaba.fastjson.JSONObject.parseObject(jsonTexts).getJSONObject("texts");
+        com.alibaba.fastjson.JSONObject out = new com.alibaba.fastjson.JSONObject(true);
+        for (Map.Entry<String, Object> e : texts.entrySet()) out.put(e.getKey(), fakeTranslate(String.valueOf(e.getValue()), targetLang));
+        if (!out.isEmpty() && rnd.nextInt(100) < MISMATCH_PCT) {
+            List<String> ids = new ArrayList<>(out.keySet());
+            out.remove(ids.get(rnd.nextInt(ids.size())));
+        }
+
+        com.alibaba.fastjson.JSONObject r = new com.alibaba.fastjson.JSONObject();
+        r.put("translations", out);
+        return r.toJSONString();
+    }
+
+    @Override public String name() { return "fake"; }
+
+    @Override public boolean cacheable() { return false; }
+
+    static String fakeTranslate(String text, String targetLang) {
+        if (text == null || text.isEmpty()) return "";
+        return "[" + (targetLang == null ? "" : targetLang) + "] " + text;
+    }
+
+    private static SplittableRandom randomFor(String payload) {
+        return new SplittableRandom(SEED * 31 + (payload == null ? 0 : payload.hashCode()));
+    }
+
+    private static void simulateLatency(SplittableRandom rnd) throws IOException {
+        long ms = LATENCY_MS + (JITTER_MS > 0 ? rnd.nextInt(JITTER_MS + 1) : 0);
+        if (ms <= 0) return;
+        long deadline = System.nanoTime() + ms * 1_000_000L;
+        long remain;
+        while ((remain = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remain);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new IOException("fake engine interrupted");
+            }
+        }
+    }
+}
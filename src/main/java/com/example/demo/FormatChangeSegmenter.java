@@ -5,14 +5,22 @@ import org.apache.poi.xwpf.usermodel.*;
 import org.apache.xmlbeans.XmlCursor;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTR;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTText;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.STUnderline;
 
 import javax.xml.namespace.QName;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /** 仅因格式变化分段；遇到含 <w:tab/> 的 run 视为硬边界且不纳入分段文本 */
 public final class FormatChangeSegmenter {
     private FormatChangeSegmenter() {}
     private static final String NS_W = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+    private static final QName QN_VAL = new QName(NS_W, "val");
+    private static final QName QN_ASCII = new QName(NS_W, "ascii");
+
+    // 同一文档里不同的样式组合很少：相同的 StyleKey 共用一个实例，softEqual 先比引用
+    private static final int INTERN_MAX = 4096;
+    private static final ConcurrentHashMap<StyleKey, StyleKey> INTERNED = new ConcurrentHashMap<>();
 
     public static final class Segment {
         public final XWPFParagraph paragraph;
@@ -48,6 +56,21 @@ public final class FormatChangeSegmenter {
             this.charSpacingHundPt = charSpacingHundPt;
             this.highlightVal = nz(highlightVal);
         }
+        @Override public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof StyleKey)) return false;
+            StyleKey k = (StyleKey) o;
+            return bold == k.bold && italic == k.italic && strike == k.strike
+                && inHyperlink == k.inHyperlink && inField == k.inField
+                && Objects.equals(fontFamily, k.fontFamily) && Objects.equals(fontSizePt, k.fontSizePt)
+                && Objects.equals(underline, k.underline) && Objects.equals(colorHex, k.colorHex)
+                && Objects.equals(vertAlign, k.vertAlign) && Objects.equals(charSpacingHundPt, k.charSpacingHundPt)
+                && Objects.equals(highlightVal, k.highlightVal);
+        }
+        @Override public int hashCode() {
+            return Objects.hash(fontFamily, fontSizePt, bold, italic, strike, underline, colorHex, vertAlign,
+                    inHyperlink, inField, charSpacingHundPt, highlightVal);
+        }
         private static String nz(String s){ return (s==null||s.isEmpty())?null:s; }
         private static String normHex(String s){
             if (s==null||s.isEmpty()) return null;
@@ -132,15 +155,15 @@ public final class FormatChangeSegmenter {
                 continue; // tab run 自身不纳入文本
             }
 
+            StyleKey k = keyOf(r);
             if (segStart == -1) {
-                segStart = i; segKey = keyOf(r);
+                segStart = i; segKey = k;
                 appendRunTextPreserve(r, segText);
                 continue;
             }
 
-            boolean boundary = hardBoundary(r, runs.get(i - 1));
-            StyleKey k = keyOf(r);
-            if (boundary || !softEqual(segKey, k, policy)) {
+            // 超链接/域的进出由 softEqual 里的 inHyperlink/inField 比较负责断开
+            if (!softEqual(segKey, k, policy)) {
                 out.add(new Segment(p, segStart, i - 1, segKey, segText.toString()));
                 segStart = i; segKey = k; segText.setLength(0);
             }
@@ -153,24 +176,94 @@ public final class FormatChangeSegmenter {
         return out;
     }
 
+    /** 一次遍历 rPr 的直接子元素读出全部样式属性（每个属性只取第一次出现，与 POI 的 getXxxArray(0) 一致），结果驻留复用 */
     public static StyleKey keyOf(XWPFRun r) {
-        String family = r.getFontFamily();
-        Integer sizePt = fontSizePtOf(r);
-        boolean bold = r.isBold();
-        boolean italic = r.isItalic();
-        boolean strike = r.isStrikeThrough();
-        String underline = (r.getUnderline()!=null) ? r.getUnderline().name() : null;
-        String colorHex = r.getColor();
-        String vertAlign = vertAlignOf(r);
-        boolean inHyperlink = (r instanceof XWPFHyperlinkRun);
-        boolean inField = hasFieldMark(r.getCTR());
-        Integer charSp = charSpacingHundPtOf(r);
-        String highlight = highlightOf(r);
-        return new StyleKey(family, sizePt, bold, italic, strike, underline, colorHex, vertAlign,
-                inHyperlink, inField, charSp, highlight);
+        CTR ctr = r.getCTR();
+        String family = null, underline = null, colorHex = null, vertAlign = null, highlight = null;
+        Integer sizePt = null, charSp = null;
+        boolean bold = false, italic = false, strike = false;
+        boolean sizeUnparsed = false;
+
+        if (ctr != null && ctr.isSetRPr()) {
+            int seen = 0;
+            try (XmlCursor c = ctr.getRPr().newCursor()) {
+                if (c.toFirstChild()) {
+                    do {
+                        QName n = c.getName();
+                        if (n == null || !NS_W.equals(n.getNamespaceURI())) continue;
+                        int bit;
+                        switch (n.getLocalPart()) {
+                            case "rFonts":    bit = 1;   break;
+                            case "b":         bit = 2;   break;
+                            case "i":         bit = 4;   break;
+                            case "strike":    bit = 8;   break;
+                            case "color":     bit = 16;  break;
+                            case "spacing":   bit = 32;  break;
+                            case "sz":        bit = 64;  break;
+                            case "highlight": bit = 128; break;
+                            case "u":         bit = 256; break;
+                            case "vertAlign": bit = 512; break;
+                            default: continue;
+                        }
+                        if ((seen & bit) != 0) continue;
+                        seen |= bit;
+                        String val = c.getAttributeText(QN_VAL);
+                        switch (bit) {
+                            case 1:   family = c.getAttributeText(QN_ASCII); break;
+                            case 2:   bold = onOff(val); break;
+                            case 4:   italic = onOff(val); break;
+                            case 8:   strike = onOff(val); break;
+                            case 16:  colorHex = val; break;
+                            case 32:  charSp = parseIntOrNull(val); break;
+                            case 64: {
+                                Integer half = parseIntOrNull(val);
+                                if (half != null) sizePt = Math.max(0, (int) Math.round(half / 2.0));
+                                else sizeUnparsed = val != null && !val.isEmpty();
+                                break;
+                            }
+                            case 128: highlight = (val == null || val.isEmpty()) ? null : val; break;
+                            case 256: underline = val; break;
+                            default:  vertAlign = (val == null || val.isEmpty()) ? null : val;
+                        }
+                    } while (c.toNextSibling());
+                }
+            }
+        }
+        if (sizeUnparsed) { // 带单位的字号（如 "12pt"）交给 POI 解析
+            try { @SuppressWarnings("deprecation") int v = r.getFontSize(); sizePt = (v > 0) ? v : null; }
+            catch (Throwable ignore) {}
+        }
+
+        return intern(new StyleKey(family, sizePt, bold, italic, strike, underlineName(underline), colorHex, vertAlign,
+                r instanceof XWPFHyperlinkRun, hasFieldMark(ctr), charSp, highlight));
     }
 
-    private static boolean softEqual(StyleKey a, StyleKey b, MergePolicy p) {
+    static StyleKey intern(StyleKey k) {
+        StyleKey prev = INTERNED.putIfAbsent(k, k);
+        if (prev != null) return prev;
+        if (INTERNED.size() > INTERN_MAX) INTERNED.clear(); // 样式组合异常多时整体清空，只影响复用率
+        return k;
+    }
+
+    /** w:u/@w:val → 与 XWPFRun.getUnderline().name() 相同的名字；没有 w:u 或没有 val 时为 NONE */
+    static String underlineName(String val) {
+        if (val == null || val.isEmpty()) return UnderlinePatterns.NONE.name();
+        STUnderline.Enum e = STUnderline.Enum.forString(val);
+        return e == null ? val : UnderlinePatterns.valueOf(e.intValue()).name();
+    }
+
+    /** ST_OnOff：没有 val 视为 true */
+    private static boolean onOff(String v) {
+        return v == null || !("false".equals(v) || "0".equals(v) || "off".equals(v));
+    }
+
+    private static Integer parseIntOrNull(String v) {
+        if (v == null || v.isEmpty()) return null;
+        try { return Integer.parseInt(v); } catch (NumberFormatException ignore) { return null; }
+    }
+
+    static boolean softEqual(StyleKey a, StyleKey b, MergePolicy p) {
+        if (a == b) return true; // 驻留后同样式即同一实例
         if (a.inHyperlink != b.inHyperlink) return false;
         if (a.inField != b.inField) return false;
         if (!Objects.equals(nz(a.vertAlign), nz(b.vertAlign))) return false;
@@ -215,71 +308,6 @@ public final class FormatChangeSegmenter {
         return h.length()==6 ? h.toLowerCase(Locale.ROOT) : h.toLowerCase(Locale.ROOT);
     }
 
-    private static boolean hardBoundary(XWPFRun cur, XWPFRun prev) {
-        if ((cur instanceof XWPFHyperlinkRun)!=(prev instanceof XWPFHyperlinkRun)) return true;
-        boolean curFld = hasFieldMark(cur.getCTR());
-        boolean prevFld = hasFieldMark(prev.getCTR());
-        return curFld != prevFld;
-    }
-
-    private static Integer fontSizePtOf(XWPFRun r) {
-        CTR ctr = r.getCTR();
-        if (ctr != null) {
-            try (XmlCursor c = ctr.newCursor()) {
-                c.selectPath("declare namespace w='" + NS_W + "' .//w:sz");
-                if (c.toNextSelection()) {
-                    String half = c.getAttributeText(new QName(NS_W, "val"));
-                    if (half != null && !half.isEmpty()) {
-                        try {
-                            int halfPt = Integer.parseInt(half);
-                            return Math.max(0, (int) Math.round(halfPt / 2.0));
-                        } catch (NumberFormatException ignore) {}
-                    }
-                }
-            }
-        }
-        try { @SuppressWarnings("deprecation") int v = r.getFontSize(); return (v > 0) ? v : null; }
-        catch (Throwable ignore) { return null; }
-    }
-
-    private static String vertAlignOf(XWPFRun r) {
-        CTR ctr = r.getCTR(); if (ctr == null) return null;
-        try (XmlCursor c = ctr.newCursor()) {
-            c.selectPath("declare namespace w='" + NS_W + "' .//w:vertAlign");
-            if (c.toNextSelection()) {
-                String val = c.getAttributeText(new QName(NS_W, "val"));
-                return (val == null || val.isEmpty()) ? null : val;
-            }
-        }
-        return null;
-    }
-
-    private static Integer charSpacingHundPtOf(XWPFRun r) {
-        CTR ctr = r.getCTR(); if (ctr == null) return null;
-        try (XmlCursor c = ctr.newCursor()) {
-            c.selectPath("declare namespace w='" + NS_W + "' .//w:rPr/w:spacing");
-            if (c.toNextSelection()) {
-                String v = c.getAttributeText(new QName(NS_W,"val"));
-                if (v != null && !v.isEmpty()) {
-                    try { return Integer.parseInt(v); } catch (NumberFormatException ignore) {}
-                }
-            }
-        }
-        return null;
-    }
-
-    private static String highlightOf(XWPFRun r) {
-        CTR ctr = r.getCTR(); if (ctr == null) return null;
-        try (XmlCursor c = ctr.newCursor()) {
-            c.selectPath("declare namespace w='" + NS_W + "' .//w:rPr/w:highlight");
-            if (c.toNextSelection()) {
-                String v = c.getAttributeText(new QName(NS_W,"val"));
-                return (v == null || v.isEmpty()) ? null : v;
-            }
-        }
-        return null;
-    }
-
     private static boolean hasFieldMark(CTR ctr) {
         if (ctr == null) return false;
         if (ctr.sizeOfFldCharArray() > 0) return true;
@@ -7,19 +7,18 @@ import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
 
 import java.io.IOException;
-import java.time.LocalDate;
-import java.time.ZoneId;
 import java.util.*;
 
 @Slf4j
 public final class Kimi {
 
     // ===== 基础配置（建议用 .env 注入） =====
-    private static final String API_KEY = System.getenv().getOrDefault("MOONSHOT_API_KEY", "");
-    private static final String CHAT_COMPLETION_URL = System.getenv().getOrDefault(
-            "MOONSHOT_API_URL", "https://api.moonshot.cn/v1/chat/completions");
+    // 多 key / 多地址：MOONSHOT_API_KEYS、MOONSHOT_API_URLS 逗号分隔；未设置时取单个 MOONSHOT_API_KEY / MOONSHOT_API_URL
+    private static final List<String> API_KEYS = envList("MOONSHOT_API_KEYS", System.getenv().getOrDefault("MOONSHOT_API_KEY", ""));
+    private static final List<String> API_URLS = envList("MOONSHOT_API_URLS",
+            System.getenv().getOrDefault("MOONSHOT_API_URL", "https://api.moonshot.cn/v1/chat/completions"));
 
-    // 账号配额（Tier3 可在 .env 设置；TPD=0 表示无限）
+    // 账号配额（每个 key 各自的配额；Tier3 可在 .env 设置；TPD=0 表示无限）
     private static final int RPM_LIMIT = getEnvInt("MOONSHOT_RPM", 5000);
     private static final int TPM_LIMIT = getEnvInt("MOONSHOT_TPM", 384000);
     private static final int TPD_LIMIT = getEnvInt("MOONSHOT_TPD", 0);
@@ -27,29 +26,197 @@ public final class Kimi {
     // 显式设置的 max_tokens（网关按 prompt + max_tokens 计入 TPM/TPD；也影响是否 length 截断）
     private static final int MAX_COMPLETION_TOKENS = getEnvInt("MOONSHOT_MAX_COMPLETION", 1500);
 
+    // 按响应 usage 退回未用完的预占（prompt 估算 + max_tokens 与实际用量的差额）
+    private static final boolean TOKEN_REFUND =
+            Boolean.parseBoolean(System.getenv().getOrDefault("MOONSHOT_TOKEN_REFUND", "true"));
+
+    // 429/5xx/网络错误：指数退避 + 抖动重试（优先 Retry-After）；连续失败触发熔断
+    private static final int MAX_RETRIES = getEnvInt("MOONSHOT_MAX_RETRIES", 4);
+    private static final int BACKOFF_BASE_MS = getEnvInt("MOONSHOT_BACKOFF_BASE_MS", 500);
+    private static final int BACKOFF_MAX_MS = getEnvInt("MOONSHOT_BACKOFF_MAX_MS", 30_000);
+    private static final int BREAKER_FAILURES = getEnvInt("MOONSHOT_BREAKER_FAILURES", 5);
+    private static final int BREAKER_OPEN_SEC = getEnvInt("MOONSHOT_BREAKER_OPEN_SEC", 30);
+
+    // 流式模式（SSE）：增量解析 translations；按已出条目的 token 速率预判必然截断时提前中止
+    private static final boolean STREAM =
+            Boolean.parseBoolean(System.getenv().getOrDefault("MOONSHOT_STREAM", "false"));
+    private static final int STREAM_ABORT_PCT = getEnvInt("MOONSHOT_STREAM_ABORT_PCT", 115);
+
     // 并发上限（不“串行”卡死；按机器核数/网速调；不填默认 32）
     private static final int CONCURRENCY_LIMIT = getEnvInt("MOONSHOT_CONCURRENCY", 32);
     private static final int LOG_PREVIEW_MAX = 2000;
 
+    // HTTP 连接池/超时（单位：秒；连接池空闲连接数默认与并发一致）
+    private static final int HTTP_MAX_IDLE_CONNECTIONS = getEnvInt("MOONSHOT_HTTP_MAX_IDLE", CONCURRENCY_LIMIT);
+    private static final int HTTP_KEEP_ALIVE_SEC       = getEnvInt("MOONSHOT_HTTP_KEEPALIVE_SEC", 300);
+    private static final int HTTP_CONNECT_TIMEOUT_SEC  = getEnvInt("MOONSHOT_CONNECT_TIMEOUT_SEC", 60);
+    private static final int HTTP_WRITE_TIMEOUT_SEC    = getEnvInt("MOONSHOT_WRITE_TIMEOUT_SEC", 120);
+    private static final int HTTP_READ_TIMEOUT_SEC     = getEnvInt("MOONSHOT_READ_TIMEOUT_SEC", 240);
+    private static final int HTTP_CALL_TIMEOUT_SEC     = getEnvInt("MOONSHOT_CALL_TIMEOUT_SEC", 300);
+
     private static int getEnvInt(String k, int d){
         try { return Integer.parseInt(System.getenv().getOrDefault(k, String.valueOf(d))); }
         catch(Exception e){ return d; }
     }
 
+    private static List<String> envList(String k, String fallback) {
+        String v = System.getenv().getOrDefault(k, "");
+        if (v.isBlank()) v = fallback;
+        List<String> out = new ArrayList<>();
+        for (String p : v.split(",")) if (!p.isBlank()) out.add(p.trim());
+        return out;
+    }
+
     private Kimi() {}
 
-    // 全局限流器（并发=CONCURRENCY_LIMIT，守护 RPM/TPM/TPD）
-    private static final RateLimiter LIMITER = new RateLimiter(RPM_LIMIT, TPM_LIMIT, TPD_LIMIT, CONCURRENCY_LIMIT);
+    // 限流状态存储（MOONSHOT_LIMITER_STORE=local|file|redis）：file/redis 时多个实例按 key 共享同一份配额
+    private static final LimiterStore LIMITER_STORE = LimiterStore.fromEnv();
+
+    // 上游池：每个 key/地址一个限流器（并发=CONCURRENCY_LIMIT，守护 RPM/TPM/TPD）+ 熔断器
+    private static final List<KimiUpstream> UPSTREAMS = buildUpstreams();
+    private static final java.util.concurrent.atomic.AtomicInteger UPSTREAM_RR = new java.util.concurrent.atomic.AtomicInteger();
+
+    /** key 与地址按下标配对（较短的一方循环使用），上游数 = max(key 数, 地址数) */
+    private static List<KimiUpstream> buildUpstreams() {
+        List<KimiUpstream> list = new ArrayList<>();
+        if (API_KEYS.isEmpty() || API_URLS.isEmpty()) return list;
+        int n = Math.max(API_KEYS.size(), API_URLS.size());
+        for (int i = 0; i < n; i++) {
+            String key = API_KEYS.get(i % API_KEYS.size());
+            String url = API_URLS.get(i % API_URLS.size());
+            list.add(new KimiUpstream("upstream-" + (i + 1), key, url,
+                    new RateLimiter(RPM_LIMIT, TPM_LIMIT, TPD_LIMIT, CONCURRENCY_LIMIT,
+                            LIMITER_STORE, "moonshot:" + KimiUpstream.fingerprint(key)),
+                    new CircuitBreaker(BREAKER_FAILURES, BREAKER_OPEN_SEC * 1000L)));
+        }
+        if (n > 1) log.info("[Kimi] upstream pool: {} keys x {} urls → {} upstreams", API_KEYS.size(), API_URLS.size(), n);
+        return Collections.unmodifiableList(list);
+    }
+
+    /** 整个上游池允许的在途请求总数（供批次调度确定并发槽位） */
+    public static int totalConcurrency() {
+        return CONCURRENCY_LIMIT * Math.max(1, UPSTREAMS.size());
+    }
+
+    /** 重试用尽时所有上游都已熔断：按上游不可用让整个作业失败，而不是只让这一批失败后被模拟译文顶替 */
+    private static void failIfAllOpen(IOException cause) {
+        long probeMs = Long.MAX_VALUE;
+        for (KimiUpstream u : UPSTREAMS) {
+            long ms = u.breaker.millisUntilProbe();
+            if (ms <= 0) return;
+            probeMs = Math.min(probeMs, ms);
+        }
+        UpstreamUnavailableException e = new UpstreamUnavailableException("上游熔断中（连续失败过多），请稍后重试", probeMs);
+        e.initCause(cause);
+        throw e;
+    }
+
+    /** 挑选余量最大且未熔断的上游（余量相同时轮转，避免总压在第一个）；全部熔断时整个作业失败，由调用方稍后重试 */
+    private static KimiUpstream pickUpstream() {
+        int n = UPSTREAMS.size();
+        if (n == 1) {
+            KimiUpstream only = UPSTREAMS.get(0);
+            if (only.breaker.allow()) return only;
+            throw new UpstreamUnavailableException("上游熔断中（连续失败过多），请稍后重试", only.breaker.millisUntilProbe());
+        }
+        int start = Math.floorMod(UPSTREAM_RR.getAndIncrement(), n);
+        KimiUpstream[] order = new KimiUpstream[n];
+        double[] room = new double[n];
+        for (int k = 0; k < n; k++) {
+            order[k] = UPSTREAMS.get((start + k) % n);
+            room[k] = order[k].limiter.headroom();
+        }
+        // 余量降序的插入排序（n 很小）；稳定排序保留轮转顺序
+        for (int i = 1; i < n; i++) {
+            KimiUpstream u = order[i]; double r = room[i]; int j = i - 1;
+            while (j >= 0 && room[j] < r) { order[j + 1] = order[j]; room[j + 1] = room[j]; j--; }
+            order[j + 1] = u; room[j + 1] = r;
+        }
+        for (KimiUpstream u : order) if (u.breaker.allow()) return u;
+        long probeMs = Long.MAX_VALUE;
+        for (KimiUpstream u : order) probeMs = Math.min(probeMs, u.breaker.millisUntilProbe());
+        throw new UpstreamUnavailableException("所有上游均熔断中（连续失败过多），请稍后重试", probeMs);
+    }
+
+    // 全局共享 HTTP 客户端（长连接池 + HTTP/2 多路复用，避免每批重建连接池/重复 TLS 握手）
+    private static final HttpMetrics HTTP_METRICS = new HttpMetrics();
+    private static final ConnectionPool HTTP_POOL =
+            new ConnectionPool(Math.max(1, HTTP_MAX_IDLE_CONNECTIONS), HTTP_KEEP_ALIVE_SEC, java.util.concurrent.TimeUnit.SECONDS);
+    private static final OkHttpClient HTTP = buildHttpClient();
+
+    private static final java.util.concurrent.atomic.AtomicLong STREAM_REQUESTS = new java.util.concurrent.atomic.AtomicLong();
+    private static final java.util.concurrent.atomic.AtomicLong STREAM_EARLY_ABORTS = new java.util.concurrent.atomic.AtomicLong();
+    private static final java.util.concurrent.atomic.AtomicLong STREAM_FIRST_ITEM_NANOS = new java.util.concurrent.atomic.AtomicLong();
+    private static final java.util.concurrent.atomic.AtomicLong RETRIES_429 = new java.util.concurrent.atomic.AtomicLong();
+    private static final java.util.concurrent.atomic.AtomicLong RETRIES_5XX = new java.util.concurrent.atomic.AtomicLong();
+    private static final java.util.concurrent.atomic.AtomicLong RETRIES_NETWORK = new java.util.concurrent.atomic.AtomicLong();
+    private static final java.util.concurrent.atomic.AtomicLong PROMPT_TOKENS_ESTIMATED = new java.util.concurrent.atomic.AtomicLong();
+    private static final java.util.concurrent.atomic.AtomicLong PROMPT_TOKENS_ACTUAL = new java.util.concurrent.atomic.AtomicLong();
+
+    private static OkHttpClient buildHttpClient() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(Math.max(64, CONCURRENCY_LIMIT * 2));
+        dispatcher.setMaxRequestsPerHost(Math.max(64, CONCURRENCY_LIMIT * 2));
+        return new OkHttpClient.Builder()
+                .connectionPool(HTTP_POOL)
+                .dispatcher(dispatcher)
+                .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .retryOnConnectionFailure(true)
+                .eventListener(HTTP_METRICS)
+                .connectTimeout(HTTP_CONNECT_TIMEOUT_SEC, java.util.concurrent.TimeUnit.SECONDS)
+                .writeTimeout(HTTP_WRITE_TIMEOUT_SEC, java.util.concurrent.TimeUnit.SECONDS)
+                .readTimeout(HTTP_READ_TIMEOUT_SEC, java.util.concurrent.TimeUnit.SECONDS)
+                .callTimeout(HTTP_CALL_TIMEOUT_SEC, java.util.concurrent.TimeUnit.SECONDS)
+                .build();
+    }
 
     public enum Direction { ZH2EN, EN2ZH }
 
     @NoArgsConstructor @AllArgsConstructor @Data
     public static class MoonshotMessage { private String role; private String content; }
 
+    /** 上游 HTTP 错误（保留状态码与 Retry-After，供退避/熔断判断） */
+    public static final class HttpStatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final int code;
+        private final long retryAfterMs;
+        HttpStatusException(int code, String body, long retryAfterMs) {
+            super("HTTP " + code + ": " + body);
+            this.code = code;
+            this.retryAfterMs = retryAfterMs;
+        }
+        public int code() { return code; }
+        public long retryAfterMs() { return retryAfterMs; }
+        boolean retryable() { return code == 429 || code == 408 || code >= 500; }
+    }
+
+    /**
+     * finish_reason=length；completed 为截断前已完整输出的前缀条目，completedById 为按 id 协议已完整输出的条目
+     * （仅流式模式可能非空）
+     */
+    public static final class TruncatedException extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final List<String> completed;
+        private final Map<String, String> completedById;
+        TruncatedException(List<String> completed, Map<String, String> completedById) {
+            super("API输出被截断（finish_reason=length）");
+            this.completed = completed;
+            this.completedById = completedById;
+        }
+        public List<String> completed() { return completed; }
+        public Map<String, String> completedById() { return completedById; }
+    }
+
     /** 智能翻译（严格 texts→translations 对齐；length 直接抛异常给上层切批） */
     /** 全语种：targetLang 例如 "en" "zh-CN" "ja" "fr" ...；userInstruction 为可选偏好 */
     public static String robustTranslate(String jsonTexts, String targetLang, String userInstruction) throws IOException {
-        if (API_KEY.isEmpty()) throw new IOException("MOONSHOT_API_KEY 未配置");
+        return robustTranslate(jsonTexts, targetLang, userInstruction, null);
+    }
+
+    /** 流式模式下每条译文完成即回调 onItem（数量纠正重发时会从下标 0 再回调一遍，以最后一次为准） */
+    public static String robustTranslate(String jsonTexts, String targetLang, String userInstruction,
+                                         TranslationsStreamParser.ItemListener onItem) throws IOException {
+        if (UPSTREAMS.isEmpty()) throw new IOException("MOONSHOT_API_KEY 未配置");
         if (jsonTexts == null || jsonTexts.trim().isEmpty()) return "{\"translations\":[]}";
 
         int expectedCount = 0;
@@ -85,9 +252,15 @@ public final class Kimi {
         messages.add(new MoonshotMessage("user", userPrompt));
 
         for (int attempt = 0; attempt < 3; attempt++) {
-            String resp = chatNoStreamWithFinishReason("kimi-k2-turbo-preview", messages);
+            List<String> streamed = new ArrayList<>();
+            String resp = STREAM
+                    ? chatStreamWithFinishReason("kimi-k2-turbo-preview", messages, expectedCount, (i, id, t) -> {
+                          streamed.add(t);
+                          if (onItem != null) onItem.onItem(i, id, t);
+                      })
+                    : chatNoStreamWithFinishReason("kimi-k2-turbo-preview", messages);
             String finish = parseFinishReason(resp);
-            if ("length".equals(finish)) throw new IOException("API输出被截断（finish_reason=length）");
+            if ("length".equals(finish)) throw new TruncatedException(streamed, Collections.emptyMap());
 
             String contentJson = parseContentString(resp);
             if (isValidAndMatchedCount(contentJson, expectedCount)) return contentJson;
@@ -108,6 +281,54 @@ public final class Kimi {
         throw new IOException("多次自动修正后仍不一致，请拆分更小批次或检查输入。");
     }
 
+    /**
+     * 按 id 翻译：输入 {"texts":{"id":"原文",...}}，输出 {"translations":{"id":"译文",...}}。
+     * 不在这里做数量校验与重发：调用方逐条核对 id，只补发缺失/无效的条目。
+     */
+    public static String translateKeyed(String jsonTexts, int expectedCount, String targetLang, String userInstruction) throws IOException {
+        return translateKeyed(jsonTexts, expectedCount, targetLang, userInstruction, null);
+    }
+
+    /** 流式模式下每个 id 的译文完成即回调 onItem */
+    public static String translateKeyed(String jsonTexts, int expectedCount, String targetLang, String userInstruction,
+                                        TranslationsStreamParser.ItemListener onItem) throws IOException {
+        if (UPSTREAMS.isEmpty()) throw new IOException("MOONSHOT_API_KEY 未配置");
+        if (jsonTexts == null || jsonTexts.trim().isEmpty()) return "{\"translations\":{}}";
+
+        final String targetName = languageDisplayName(targetLang);
+        final String systemPrompt =
+            "你是一名专业翻译助手。输入 JSON 的 texts 是「id → 原文片段」的对象，请逐一独立把每个片段翻译为「" + targetName + "」：" +
+            "1) 输出 {\"translations\":{\"id\":\"译文\",...}}，键必须与输入 id 完全一致，每个 id 恰好一次；空字符串输出空字符串；" +
+            "2) 输入为 JSON 文本片段，不涉及任何版式/样式/加粗/表格/分页等排版要求（忽略此类要求）；" +
+            "3) 禁止合并/拆分片段，禁止新增 id；禁止添加任何解释或标注；" +
+            "4) 仅对纯标点/表情/特殊符号可原样返回；" +
+            "5) 输出必须是紧凑单行 JSON，无换行/无解释，并正确转义；" +
+            "6) 必须将所有可翻译内容均转为「" + targetName + "」，不保留源语言词汇。";
+
+        String safePref = sanitizeUserInstruction(userInstruction);
+        final String prefPrompt = (safePref == null || safePref.isEmpty()) ? null
+                : "【翻译偏好（仅限术语/语气；不得影响 JSON 的 id/结构/标点/空白）】\n" + safePref;
+        final String userPrompt = String.format("请翻译 JSON 中 %d 个片段，按 id 输出 translations 对象：%s", expectedCount, jsonTexts);
+
+        log.debug("Kimi keyed request planned: targetLang={}, texts={}, payloadPreview={}",
+                targetLang, expectedCount, previewForLog(jsonTexts));
+
+        List<MoonshotMessage> messages = new ArrayList<>(3);
+        messages.add(new MoonshotMessage("system", systemPrompt));
+        if (prefPrompt != null) messages.add(new MoonshotMessage("user", prefPrompt));
+        messages.add(new MoonshotMessage("user", userPrompt));
+
+        Map<String, String> streamed = new LinkedHashMap<>();
+        String resp = STREAM
+                ? chatStreamWithFinishReason("kimi-k2-turbo-preview", messages, expectedCount, (i, id, t) -> {
+                      if (id != null) streamed.put(id, t);
+                      if (onItem != null) onItem.onItem(i, id, t);
+                  })
+                : chatNoStreamWithFinishReason("kimi-k2-turbo-preview", messages);
+        if ("length".equals(parseFinishReason(resp))) throw new TruncatedException(Collections.emptyList(), streamed);
+        return parseContentString(resp);
+    }
+
     // —— 语言显示名映射（可按需扩） —— //
     private static String languageDisplayName(String code) {
         if (code == null || code.isBlank()) return "英文";
@@ -133,7 +354,7 @@ public final class Kimi {
     }
 
     // 仅做安全清洗：去控制字符/围栏/长度限制；不做语义改写
-    private static String sanitizeUserInstruction(String s) {
+    static String sanitizeUserInstruction(String s) {
         if (s == null) return null;
         String t = s.replace('\uFEFF',' ')
                     .replaceAll("[\\p{Cntrl}&&[^\\r\\n\\t]]"," ") // 移除控制字符
@@ -145,47 +366,273 @@ public final class Kimi {
         return t;
     }
 
-    /** 底层对话（按 prompt+max_tokens 预占限流，显式 max_tokens） */
+    /** 底层对话（按 prompt+max_tokens 预占限流，显式 max_tokens；429/5xx/网络错误自动退避重试） */
     public static String chatNoStreamWithFinishReason(String model, List<MoonshotMessage> messages) throws IOException {
+        return withRetries(u -> chatNoStreamOnce(u, model, messages), () -> true);
+    }
+
+    private static String chatNoStreamOnce(KimiUpstream u, String model, List<MoonshotMessage> messages) throws IOException {
         int promptTokensEst = estimatePromptTokensForMessages(messages);
         int budget = promptTokensEst + MAX_COMPLETION_TOKENS;
-        LIMITER.beforeRequest(budget);
+        u.limiter.beforeRequest(budget);
+        u.requests.increment();
         try {
-            cn.hutool.json.JSONObject payload = new cn.hutool.json.JSONObject()
-                    .putOpt("model", model)
-                    .putOpt("messages", messages)
-                    .putOpt("stream", false)
-                    .putOpt("response_format", new cn.hutool.json.JSONObject().putOpt("type", "json_object"))
-                    .putOpt("max_tokens", MAX_COMPLETION_TOKENS);
-            String requestBody = payload.toString();
-
-            OkHttpClient client = new OkHttpClient.Builder()
-                    .connectTimeout(60, java.util.concurrent.TimeUnit.SECONDS)
-                    .writeTimeout(120, java.util.concurrent.TimeUnit.SECONDS)
-                    .readTimeout(240, java.util.concurrent.TimeUnit.SECONDS)
-                    .callTimeout(300, java.util.concurrent.TimeUnit.SECONDS)
-                    .build();
-
+            String requestBody = buildPayload(model, messages, false);
             log.debug("[Kimi] sending payload: {}", previewForLog(requestBody));
 
-            Request req = new Request.Builder()
-                    .url(CHAT_COMPLETION_URL)
-                    .post(RequestBody.create(requestBody, MediaType.get("application/json")))
-                    .addHeader("Authorization", "Bearer " + API_KEY)
-                    .build();
+            String body = executeInterruptibly(HTTP.newCall(newChatRequest(u, requestBody)), (call, resp) -> {
+                if (resp.body() == null) throw new IOException("空响应体");
+                String b = resp.body().string();
+                log.debug("[Kimi] response code={} body={}", resp.code(), previewForLog(b));
+                if (resp.code() >= 400) throw new HttpStatusException(resp.code(), b, parseRetryAfterMs(resp));
+                return b;
+            });
+            if (TOKEN_REFUND) u.limiter.reconcile(budget, parseUsageTokens(body));
+            recordPromptEstimate(promptTokensEst, body);
+            return body;
+        } finally {
+            u.limiter.afterRequest();
+        }
+    }
+
+    /**
+     * 流式对话（stream=true）：边收边解析 translations，每条完整即回调；
+     * 已出条目按比例外推的输出 token 超过 max_tokens*STREAM_ABORT_PCT% 时提前中止并按 length 处理。
+     * 返回值与非流式响应同构（choices[0].message.content / finish_reason / usage），上层解析逻辑不变。
+     */
+    public static String chatStreamWithFinishReason(String model, List<MoonshotMessage> messages, int expectedCount,
+                                                    TranslationsStreamParser.ItemListener listener) throws IOException {
+        // 已向上游回调过条目后不再重试，避免重复条目
+        int[] emitted = {0};
+        TranslationsStreamParser.ItemListener counting = (i, id, t) -> {
+            emitted[0]++;
+            if (listener != null) listener.onItem(i, id, t);
+        };
+        return withRetries(u -> chatStreamOnce(u, model, messages, expectedCount, counting), () -> emitted[0] == 0);
+    }
 
-            try (Response resp = client.newCall(req).execute()) {
+    private static String chatStreamOnce(KimiUpstream u, String model, List<MoonshotMessage> messages, int expectedCount,
+                                         TranslationsStreamParser.ItemListener listener) throws IOException {
+        int promptTokensEst = estimatePromptTokensForMessages(messages);
+        int budget = promptTokensEst + MAX_COMPLETION_TOKENS;
+        u.limiter.beforeRequest(budget);
+        u.requests.increment();
+        try {
+            String requestBody = buildPayload(model, messages, true);
+            log.debug("[Kimi] sending stream payload: {}", previewForLog(requestBody));
+            STREAM_REQUESTS.incrementAndGet();
+
+            long t0 = System.nanoTime();
+            TranslationsStreamParser parser = new TranslationsStreamParser((i, id, t) -> {
+                if (i == 0) STREAM_FIRST_ITEM_NANOS.addAndGet(System.nanoTime() - t0);
+                if (listener != null) listener.onItem(i, id, t);
+            });
+            final String[] finishHolder = new String[1];
+            final com.alibaba.fastjson.JSONObject[] usageHolder = new com.alibaba.fastjson.JSONObject[1];
+
+            executeInterruptibly(HTTP.newCall(newChatRequest(u, requestBody)), (call, resp) -> {
                 if (resp.body() == null) throw new IOException("空响应体");
-                String body = resp.body().string();
-                log.debug("[Kimi] response code={} body={}", resp.code(), previewForLog(body));
-                if (resp.code() >= 400) throw new IOException("HTTP " + resp.code() + ": " + body);
-                return body;
-            }
+                if (resp.code() >= 400) {
+                    String body = resp.body().string();
+                    log.debug("[Kimi] response code={} body={}", resp.code(), previewForLog(body));
+                    throw new HttpStatusException(resp.code(), body, parseRetryAfterMs(resp));
+                }
+                okio.BufferedSource src = resp.body().source();
+                String line;
+                while ((line = src.readUtf8Line()) != null) {
+                    if (!line.startsWith("data:")) continue;
+                    String data = line.substring(5).trim();
+                    if (data.isEmpty()) continue;
+                    if ("[DONE]".equals(data)) break;
+
+                    com.alibaba.fastjson.JSONObject chunk = com.alibaba.fastjson.JSONObject.parseObject(data);
+                    if (chunk.getJSONObject("usage") != null) usageHolder[0] = chunk.getJSONObject("usage");
+                    com.alibaba.fastjson.JSONArray choices = chunk.getJSONArray("choices");
+                    if (choices == null || choices.isEmpty()) continue;
+                    com.alibaba.fastjson.JSONObject c0 = choices.getJSONObject(0);
+                    if (c0.getJSONObject("usage") != null) usageHolder[0] = c0.getJSONObject("usage");
+                    com.alibaba.fastjson.JSONObject delta = c0.getJSONObject("delta");
+                    if (delta != null) parser.feed(delta.getString("content"));
+                    if (c0.getString("finish_reason") != null) finishHolder[0] = c0.getString("finish_reason");
+
+                    if (finishHolder[0] == null && willOverflow(parser, expectedCount)) {
+                        STREAM_EARLY_ABORTS.incrementAndGet();
+                        log.warn("[Kimi] stream projected to exceed max_tokens after {}/{} items, aborting early",
+                                parser.emitted(), expectedCount);
+                        call.cancel();
+                        finishHolder[0] = "length";
+                        break;
+                    }
+                }
+                return null;
+            });
+            String finish = finishHolder[0];
+            com.alibaba.fastjson.JSONObject usage = usageHolder[0];
+            log.debug("[Kimi] stream finished: finish={}, items={}, content={}", finish, parser.emitted(), previewForLog(parser.content()));
+
+            com.alibaba.fastjson.JSONObject message = new com.alibaba.fastjson.JSONObject();
+            message.put("role", "assistant");
+            message.put("content", parser.content());
+            com.alibaba.fastjson.JSONObject choice = new com.alibaba.fastjson.JSONObject();
+            choice.put("index", 0);
+            choice.put("message", message);
+            choice.put("finish_reason", finish);
+            com.alibaba.fastjson.JSONArray choices = new com.alibaba.fastjson.JSONArray();
+            choices.add(choice);
+            com.alibaba.fastjson.JSONObject body = new com.alibaba.fastjson.JSONObject();
+            body.put("choices", choices);
+            if (usage != null) body.put("usage", usage);
+            String bodyStr = body.toJSONString();
+            if (TOKEN_REFUND) u.limiter.reconcile(budget, parseUsageTokens(bodyStr));
+            recordPromptEstimate(promptTokensEst, bodyStr);
+            return bodyStr;
         } finally {
-            LIMITER.afterRequest();
+            u.limiter.afterRequest();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Attempt {
+        String run(KimiUpstream upstream) throws IOException;
+    }
+
+    /**
+     * 熔断 + 重试：429/408/5xx 与网络错误按 Retry-After 或指数退避（full jitter）重试；
+     * 429 同时推后本地限流器，所有调用方一起退避；其它 4xx 直接抛出。每次重试都重新经过限流器。
+     */
+    private static String withRetries(Attempt attempt, java.util.function.BooleanSupplier retryAllowed) throws IOException {
+        for (int n = 0; ; n++) {
+            KimiUpstream u = pickUpstream(); // 每次重试都重新挑选，429 的 key 会因余量被压低而让位
+            long waitMs;
+            try {
+                String r = attempt.run(u);
+                u.breaker.onSuccess();
+                return r;
+            } catch (RuntimeException e) {
+                u.breaker.onIgnored();
+                throw e;
+            } catch (HttpStatusException e) {
+                if (!e.retryable()) { u.breaker.onIgnored(); throw e; }
+                u.breaker.onFailure();
+                u.failures.increment();
+                if (n >= MAX_RETRIES || !retryAllowed.getAsBoolean()) { failIfAllOpen(e); throw e; }
+                waitMs = Math.max(e.retryAfterMs(), backoffMs(n));
+                if (e.code() == 429) {
+                    RETRIES_429.incrementAndGet();
+                    u.limiter.penalize(waitMs * 1_000_000L);
+                } else {
+                    RETRIES_5XX.incrementAndGet();
+                }
+                // 还有其它上游时不必原地等满：该上游已被暂停，下一次挑选会让位给余量充足的上游
+                if (UPSTREAMS.size() > 1) waitMs = Math.min(waitMs, backoffMs(0));
+                log.warn("[Kimi] {} HTTP {} (attempt {}/{}), retrying in {} ms", u.name, e.code(), n + 1, MAX_RETRIES + 1, waitMs);
+            } catch (IOException e) {
+                // 只有真正的取消（线程被中断/调用被 cancel）才直接抛出；读/连接/整体超时同样是 InterruptedIOException，按网络错误重试并计入熔断
+                if (e instanceof CallCancelledException || Thread.currentThread().isInterrupted()) {
+                    u.breaker.onIgnored();
+                    throw e;
+                }
+                u.breaker.onFailure();
+                u.failures.increment();
+                if (n >= MAX_RETRIES || !retryAllowed.getAsBoolean()) { failIfAllOpen(e); throw e; }
+                waitMs = backoffMs(n);
+                RETRIES_NETWORK.incrementAndGet();
+                log.warn("[Kimi] {} {} (attempt {}/{}), retrying in {} ms", u.name, e.toString(), n + 1, MAX_RETRIES + 1, waitMs);
+            }
+            try {
+                Thread.sleep(waitMs);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new java.io.InterruptedIOException("退避等待被中断");
+            }
         }
     }
 
+    /** 指数退避 + full jitter：[0, min(max, base*2^n)] 均匀随机，下限取 base/2 */
+    private static long backoffMs(int n) {
+        long cap = Math.min(BACKOFF_MAX_MS, (long) BACKOFF_BASE_MS << Math.min(n, 20));
+        long lo = Math.min(cap, BACKOFF_BASE_MS / 2);
+        return lo + java.util.concurrent.ThreadLocalRandom.current().nextLong(cap - lo + 1);
+    }
+
+    /** Retry-After：秒数或 HTTP 日期；缺失/无法解析返回 0 */
+    private static long parseRetryAfterMs(Response resp) {
+        String v = resp.header("Retry-After");
+        if (v == null || v.isBlank()) return 0;
+        try {
+            return Math.max(0, (long) (Double.parseDouble(v.trim()) * 1000));
+        } catch (NumberFormatException ignore) {}
+        try {
+            java.time.ZonedDateTime at = java.time.ZonedDateTime.parse(v.trim(), java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, at.toInstant().toEpochMilli() - System.currentTimeMillis());
+        } catch (Exception ignore) {}
+        return 0;
+    }
+
+    /** 调用被主动取消（等待线程被中断，如对冲请求的落败方）；与超时区分开，不重试也不计入熔断 */
+    private static final class CallCancelledException extends java.io.InterruptedIOException {
+        private static final long serialVersionUID = 1L;
+        CallCancelledException() { super("请求已取消"); }
+    }
+
+    @FunctionalInterface
+    private interface ResponseHandler<T> {
+        T handle(Call call, Response resp) throws IOException;
+    }
+
+    /**
+     * 在 OkHttp 调度线程里执行并处理响应，当前线程只等待结果；
+     * 等待被中断（如对冲请求的落败方被取消）时立即 cancel 该 HTTP 调用，释放连接与并发额度。
+     */
+    private static <T> T executeInterruptibly(Call call, ResponseHandler<T> handler) throws IOException {
+        java.util.concurrent.CompletableFuture<T> result = new java.util.concurrent.CompletableFuture<>();
+        call.enqueue(new Callback() {
+            @Override public void onFailure(Call c, IOException e) { result.completeExceptionally(e); }
+            @Override public void onResponse(Call c, Response resp) {
+                try (resp) { result.complete(handler.handle(c, resp)); }
+                catch (Throwable t) { result.completeExceptionally(t); }
+            }
+        });
+        try {
+            return result.get();
+        } catch (InterruptedException ie) {
+            call.cancel();
+            Thread.currentThread().interrupt();
+            throw new CallCancelledException();
+        } catch (java.util.concurrent.ExecutionException ee) {
+            Throwable c = ee.getCause();
+            if (c instanceof IOException) throw (IOException) c; // OkHttp 的 callTimeout 也会内部 cancel，这里不按取消处理
+            if (c instanceof RuntimeException) throw (RuntimeException) c;
+            throw new IOException(c);
+        }
+    }
+
+    private static boolean willOverflow(TranslationsStreamParser parser, int expectedCount) {
+        int done = parser.emitted();
+        if (expectedCount <= 0 || done < 2 || done >= expectedCount) return false;
+        long used = parser.tokens();
+        long projected = used * expectedCount / done;
+        return projected * 100 > (long) MAX_COMPLETION_TOKENS * STREAM_ABORT_PCT;
+    }
+
+    private static String buildPayload(String model, List<MoonshotMessage> messages, boolean stream) {
+        cn.hutool.json.JSONObject payload = new cn.hutool.json.JSONObject()
+                .putOpt("model", model)
+                .putOpt("messages", messages)
+                .putOpt("stream", stream)
+                .putOpt("response_format", new cn.hutool.json.JSONObject().putOpt("type", "json_object"))
+                .putOpt("max_tokens", MAX_COMPLETION_TOKENS);
+        return payload.toString();
+    }
+
+    private static Request newChatRequest(KimiUpstream u, String requestBody) {
+        return new Request.Builder()
+                .url(u.url)
+                .post(RequestBody.create(requestBody, MediaType.get("application/json")))
+                .addHeader("Authorization", "Bearer " + u.apiKey)
+                .build();
+    }
+
     // ===== 解析与校验 =====
     private static String parseFinishReason(String responseJsonStr) {
         try {
@@ -196,6 +643,19 @@ public final class Kimi {
         return null;
     }
 
+    /** usage.prompt_tokens + usage.completion_tokens；无 usage 返回 -1 */
+    private static int parseUsageTokens(String responseJsonStr) {
+        try {
+            com.alibaba.fastjson.JSONObject usage = com.alibaba.fastjson.JSONObject.parseObject(responseJsonStr).getJSONObject("usage");
+            if (usage == null) return -1;
+            if (usage.containsKey("prompt_tokens") || usage.containsKey("completion_tokens")) {
+                return usage.getIntValue("prompt_tokens") + usage.getIntValue("completion_tokens");
+            }
+            if (usage.containsKey("total_tokens")) return usage.getIntValue("total_tokens");
+        } catch (Exception ignore) {}
+        return -1;
+    }
+
     private static String parseContentString(String responseJsonStr) {
         try {
             com.alibaba.fastjson.JSONObject responseJson = com.alibaba.fastjson.JSONObject.parseObject(responseJsonStr);
@@ -240,91 +700,99 @@ public final class Kimi {
         return input + 200; // 留出消息结构/role等开销
     }
     private static int estimateTokensForText(String s) {
-        if (s == null || s.isEmpty()) return 0;
-        int cjk = 0, other = 0;
-        for (int i = 0; i < s.length(); i++) {
-            char ch = s.charAt(i);
-            if ((ch >= '\u4E00' && ch <= '\u9FFF') || (ch >= '\u3400' && ch <= '\u4DBF')) cjk++; else other++;
-        }
-        return cjk + (int)Math.ceil(other / 4.0);
+        return Tokenizer.shared().count(s);
     }
 
-    // ===== 限流器（并发、RPM、TPM、TPD；TPD<=0 表示无限） =====
-    private static final class RateLimiter {
-        private final int rpmLimit; // 每分钟请求数
-        private final int tpmLimit; // 每分钟 token
-        private final int tpdLimit; // 每日 token（<=0 表示无限）
-
-        private final java.util.concurrent.Semaphore concurrency;
-        private final Deque<Long> recentRequests = new ArrayDeque<>();
-
-        private long minuteWindowStart = System.currentTimeMillis();
-        private int tokensThisMinute = 0;
-
-        private LocalDate day = LocalDate.now(ZoneId.systemDefault());
-        private int tokensToday = 0;
+    /** 用响应 usage.prompt_tokens 校准本地估算（累计对比，见 httpStats.tokenizer） */
+    private static void recordPromptEstimate(int estimated, String responseJsonStr) {
+        try {
+            com.alibaba.fastjson.JSONObject usage = com.alibaba.fastjson.JSONObject.parseObject(responseJsonStr).getJSONObject("usage");
+            if (usage == null || !usage.containsKey("prompt_tokens")) return;
+            PROMPT_TOKENS_ESTIMATED.addAndGet(estimated);
+            PROMPT_TOKENS_ACTUAL.addAndGet(usage.getIntValue("prompt_tokens"));
+        } catch (Exception ignore) {}
+    }
 
-        RateLimiter(int rpm, int tpm, int tpd, int concurrencyLimit) {
-            this.rpmLimit = rpm; this.tpmLimit = tpm; this.tpdLimit = tpd;
-            this.concurrency = new java.util.concurrent.Semaphore(Math.max(1, concurrencyLimit));
+    /** 限流器指标：剩余 RPM/TPM 额度、当日 token、被限流次数与等待时长 */
+    /** 当日剩余 token：按账号 key 去重后求和（同一 key 的多个地址共用一份 TPD）；未设 TPD 时无限 */
+    public static long remainingDailyTokens() {
+        long sum = 0;
+        Set<String> seen = new HashSet<>();
+        for (KimiUpstream u : UPSTREAMS) {
+            if (!seen.add(u.apiKey)) continue;
+            long r = u.limiter.dailyRemaining();
+            if (r == Long.MAX_VALUE) return Long.MAX_VALUE;
+            sum += r;
         }
+        return sum;
+    }
 
-        void beforeRequest(int requestedTokens) {
-            acquireConcurrency();
-            synchronized (this) {
-                while (true) {
-                    long now = System.currentTimeMillis();
-                    while (!recentRequests.isEmpty() && now - recentRequests.peekFirst() >= 60_000) recentRequests.pollFirst();
-                    if (now - minuteWindowStart >= 60_000) { minuteWindowStart = now; tokensThisMinute = 0; }
-
-                    LocalDate today = LocalDate.now(ZoneId.systemDefault());
-                    if (!today.equals(day)) { day = today; tokensToday = 0; }
-
-                    boolean rpmOk = recentRequests.size() < rpmLimit;
-                    boolean tpmOk = (tokensThisMinute + requestedTokens) <= tpmLimit;
-                    boolean tpdOk = (tpdLimit <= 0) || ((tokensToday + requestedTokens) <= tpdLimit);
-
-                    if (rpmOk && tpmOk && tpdOk) {
-                        recentRequests.addLast(now);
-                        tokensThisMinute += requestedTokens;
-                        tokensToday += requestedTokens;
-                        return;
-                    }
+    public static Map<String, Object> limiterStats() {
+        if (UPSTREAMS.size() == 1) return UPSTREAMS.get(0).limiter.stats();
+        Map<String, Object> m = new LinkedHashMap<>();
+        for (KimiUpstream u : UPSTREAMS) m.put(u.name, u.limiter.stats());
+        return m;
+    }
 
-                    long sleepMs = 250L;
-                    if (!rpmOk) {
-                        long oldest = recentRequests.peekFirst();
-                        sleepMs = Math.max(sleepMs, 60_000 - (now - oldest) + 5);
-                    }
-                    if (!tpmOk) {
-                        sleepMs = Math.max(sleepMs, 60_000 - (now - minuteWindowStart) + 5);
-                    }
-                    if (!tpdOk) {
-                        releaseConcurrency();
-                        throw new RuntimeException("超出当日可用tokens预算(TPD)，请次日再试或降低用量");
-                    }
-                    try { this.wait(sleepMs); } catch (InterruptedException ie) { Thread.currentThread().interrupt(); }
-                }
-            }
-        }
+    /** 各上游（key/地址）的用量、余量、熔断状态 */
+    public static Map<String, Object> upstreamStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        for (KimiUpstream u : UPSTREAMS) m.put(u.name, u.stats());
+        return m;
+    }
 
-        void afterRequest() {
-            synchronized (this) {
-                long now = System.currentTimeMillis();
-                while (!recentRequests.isEmpty() && now - recentRequests.peekFirst() >= 60_000) recentRequests.pollFirst();
-                if (now - minuteWindowStart >= 60_000) { minuteWindowStart = now; tokensThisMinute = 0; }
-                LocalDate today = LocalDate.now(ZoneId.systemDefault());
-                if (!today.equals(day)) { day = today; tokensToday = 0; }
-                this.notifyAll();
-            }
-            releaseConcurrency();
-        }
+    /** HTTP 连接复用指标：新建连接/TLS 握手次数 vs. 连接获取次数 */
+    public static Map<String, Object> httpStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        long acquired = HTTP_METRICS.connectionsAcquired.get();
+        long opened = HTTP_METRICS.connectsStarted.get();
+        m.put("calls", HTTP_METRICS.callsStarted.get());
+        m.put("callsFailed", HTTP_METRICS.callsFailed.get());
+        m.put("connectionsAcquired", acquired);
+        m.put("connectionsOpened", opened);
+        m.put("connectionsReused", Math.max(0, acquired - opened));
+        m.put("tlsHandshakes", HTTP_METRICS.tlsHandshakes.get());
+        m.put("connectFailures", HTTP_METRICS.connectsFailed.get());
+        m.put("http2Acquisitions", HTTP_METRICS.http2Acquired.get());
+        long streams = STREAM_REQUESTS.get();
+        m.put("streamMode", STREAM);
+        m.put("streamRequests", streams);
+        m.put("streamEarlyAborts", STREAM_EARLY_ABORTS.get());
+        m.put("streamAvgFirstItemMs", streams == 0 ? 0 : STREAM_FIRST_ITEM_NANOS.get() / streams / 1_000_000L);
+        m.put("retries429", RETRIES_429.get());
+        m.put("retries5xx", RETRIES_5XX.get());
+        m.put("retriesNetwork", RETRIES_NETWORK.get());
+        m.put("poolConnections", HTTP_POOL.connectionCount());
+        m.put("poolIdleConnections", HTTP_POOL.idleConnectionCount());
+        long est = PROMPT_TOKENS_ESTIMATED.get(), act = PROMPT_TOKENS_ACTUAL.get();
+        Map<String, Object> tk = new LinkedHashMap<>();
+        tk.put("name", Tokenizer.shared().name());
+        tk.put("promptTokensEstimated", est);
+        tk.put("promptTokensActual", act);
+        tk.put("estimateToActual", act == 0 ? 0.0 : Math.round(1000.0 * est / act) / 1000.0);
+        m.put("tokenizer", tk);
+        return m;
+    }
 
-        private void acquireConcurrency() {
-            try { concurrency.acquire(); }
-            catch (InterruptedException e) { Thread.currentThread().interrupt(); throw new RuntimeException("并发信号量获取被中断", e); }
+    // ===== HTTP 事件计数（共享单例，线程安全） =====
+    private static final class HttpMetrics extends okhttp3.EventListener {
+        final java.util.concurrent.atomic.AtomicLong callsStarted = new java.util.concurrent.atomic.AtomicLong();
+        final java.util.concurrent.atomic.AtomicLong callsFailed = new java.util.concurrent.atomic.AtomicLong();
+        final java.util.concurrent.atomic.AtomicLong connectsStarted = new java.util.concurrent.atomic.AtomicLong();
+        final java.util.concurrent.atomic.AtomicLong connectsFailed = new java.util.concurrent.atomic.AtomicLong();
+        final java.util.concurrent.atomic.AtomicLong tlsHandshakes = new java.util.concurrent.atomic.AtomicLong();
+        final java.util.concurrent.atomic.AtomicLong connectionsAcquired = new java.util.concurrent.atomic.AtomicLong();
+        final java.util.concurrent.atomic.AtomicLong http2Acquired = new java.util.concurrent.atomic.AtomicLong();
+
+        @Override public void callStart(Call call) { callsStarted.incrementAndGet(); }
+        @Override public void callFailed(Call call, IOException ioe) { callsFailed.incrementAndGet(); }
+        @Override public void connectStart(Call call, java.net.InetSocketAddress addr, java.net.Proxy proxy) { connectsStarted.incrementAndGet(); }
+        @Override public void connectFailed(Call call, java.net.InetSocketAddress addr, java.net.Proxy proxy, Protocol protocol, IOException ioe) { connectsFailed.incrementAndGet(); }
+        @Override public void secureConnectStart(Call call) { tlsHandshakes.incrementAndGet(); }
+        @Override public void connectionAcquired(Call call, Connection connection) {
+            connectionsAcquired.incrementAndGet();
+            if (connection.protocol() == Protocol.HTTP_2) http2Acquired.incrementAndGet();
         }
-        private void releaseConcurrency() { concurrency.release(); }
     }
 
     private static String previewForLog(String text) {
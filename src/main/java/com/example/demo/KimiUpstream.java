@@ -0,0 +1,56 @@
+package com.example.demo;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个上游（API key + 接口地址）：各自独立的 RPM/TPM/TPD 限流器与熔断器。
+ * 多个 key/地址时，Kimi 每次请求挑选余量最大的可用上游。
+ */
+final class KimiUpstream {
+    final String name;
+    final String apiKey;
+    final String url;
+    final RateLimiter limiter;
+    final CircuitBreaker breaker;
+
+    final LongAdder requests = new LongAdder();
+    final LongAdder failures = new LongAdder();
+
+    KimiUpstream(String name, String apiKey, String url, RateLimiter limiter, CircuitBreaker breaker) {
+        this.name = name; this.apiKey = apiKey; this.url = url; this.limiter = limiter; this.breaker = breaker;
+    }
+
+    /** 日志/指标里只露出 key 末 4 位 */
+    static String mask(String key) {
+        if (key == null || key.length() <= 8) return "****";
+        return key.substring(0, 3) + "..." + key.substring(key.length() - 4);
+    }
+
+    /** 配额按账号 key 计：共享限流存储里用 key 的 sha256 前缀作标识，不落明文 */
+    static String fingerprint(String key) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 8; i++) sb.append(String.format("%02x", d[i]));
+            return sb.toString();
+        } catch (Exception e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("key", mask(apiKey));
+        m.put("url", url);
+        m.put("requests", requests.sum());
+        m.put("failures", failures.sum());
+        m.put("headroom", Math.round(limiter.headroom() * 1000) / 1000.0);
+        m.put("breaker", breaker.stats());
+        m.put("limiter", limiter.stats());
+        return m;
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.demo;
+
+/**
+ * 限流状态存储：GCRA 的虚拟排程时间（TAT）与当日 token 计数放在哪里。
+ * - local：进程内（默认，与单实例行为一致）；当日计数另存 MOONSHOT_TPD_FILE，重启不清零；
+ * - file：同机多进程共享的 mmap 文件（文件锁串行化）；
+ * - redis：RESP 协议 + Lua 原子脚本，多副本共享同一账号配额。
+ * 所有方法返回“相对时间”（需等待的纳秒），各实现用自己的时钟基准，调用方不关心绝对时刻。
+ */
+interface LimiterStore {
+
+    long WINDOW_NS = 60_000_000_000L;
+
+    /** 在 key 上预约 cost 个单位（每单位间隔 intervalNs），返回需要等待的纳秒（<=0 立即放行） */
+    long reserve(String key, long intervalNs, long cost);
+
+    /** 退回（cost<0）或补记（cost>0）额度；退回不早于当前时刻 */
+    void adjust(String key, long intervalNs, long cost);
+
+    /** pauseNanos 内不再放行（429 退避，所有共享该 key 的实例一起生效） */
+    void pause(String key, long intervalNs, long pauseNanos);
+
+    /** 当前窗口内还能立即放行的单位数 */
+    long available(String key, long intervalNs);
+
+    /**
+     * 当日计数累加 delta；delta>0 且 limit>0 时若超出 limit 则不累加并返回 -1；limit<=0 时无条件累加（对账补记实际用量）。
+     * delta<0 只作用于 day 当天的计数（已跨日则忽略），结果不低于 0。返回累加后的值。
+     */
+    long addDaily(String key, long day, long delta, long limit);
+
+    /** day 当天的计数 */
+    long daily(String key, long day);
+
+    String name();
+
+    static LimiterStore fromEnv() {
+        String mode = System.getenv().getOrDefault("MOONSHOT_LIMITER_STORE", "local").trim().toLowerCase();
+        switch (mode) {
+            case "file":
+                return SharedFileLimiterStore.open(
+                        System.getenv().getOrDefault("MOONSHOT_LIMITER_FILE", "data/moonshot-limiter.bin"));
+            case "redis":
+                return new RedisLimiterStore(
+                        System.getenv().getOrDefault("MOONSHOT_LIMITER_REDIS", "redis://127.0.0.1:6379"));
+            default: {
+                String f = System.getenv().getOrDefault("MOONSHOT_TPD_FILE", "data/moonshot-tpd.properties").trim();
+                return new LocalLimiterStore(f.isEmpty() ? null : java.nio.file.Paths.get(f));
+            }
+        }
+    }
+
+    // ===== GCRA 纯函数（local/file 共用；redis 在 Lua 里做同样的计算） =====
+
+    static long gcraReserve(long tat, long now, long intervalNs, long cost) {
+        return Math.max(tat, now) + cost * intervalNs;
+    }
+
+    /** 返回新的 TAT；不需要变化时返回原值 */
+    static long gcraAdjust(long tat, long now, long intervalNs, long cost) {
+        long delta = cost * intervalNs;
+        if (cost < 0) return tat <= now ? tat : Math.max(now, tat + delta);
+        return Math.max(tat, now) + delta;
+    }
+
+    /** 把 TAT 推到“下一个请求恰好在 now+pause 放行”的位置 */
+    static long gcraPause(long tat, long now, long intervalNs, long pauseNanos) {
+        return Math.max(tat, now + pauseNanos + WINDOW_NS - intervalNs);
+    }
+
+    static long gcraAvailable(long tat, long now, long intervalNs) {
+        long backlog = Math.max(0L, tat - now);
+        return Math.max(0L, (WINDOW_NS - backlog) / intervalNs);
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.demo;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内限流状态：每个 key 一个 AtomicLong，CAS 推进，无锁。
+ * 当日计数打包为 高 32 位 = epochDay，低 32 位 = 当日已预占 tokens，单个 CAS 完成跨日清零 + 累加。
+ * 指定 dailyFile 时当日计数落盘（每秒至多写一次 + 退出时写），重启不会把 TPD 清零。
+ */
+@Slf4j
+final class LocalLimiterStore implements LimiterStore {
+
+    private final ConcurrentHashMap<String, AtomicLong> cells = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> dailyCells = new ConcurrentHashMap<>();
+
+    private final Path dailyFile;
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    LocalLimiterStore() { this(null); }
+
+    LocalLimiterStore(Path dailyFile) {
+        this.dailyFile = dailyFile;
+        if (dailyFile == null) return;
+        load();
+        ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "tpd-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, 1, 1, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "tpd-flush-on-exit"));
+    }
+
+    private AtomicLong cell(String key, long initial) {
+        return cells.computeIfAbsent(key, k -> new AtomicLong(initial));
+    }
+
+    @Override
+    public long reserve(String key, long intervalNs, long cost) {
+        long now = System.nanoTime();
+        AtomicLong tat = cell(key, now); // 初始即“桶空”
+        while (true) {
+            long cur = tat.get();
+            long next = LimiterStore.gcraReserve(cur, now, intervalNs, cost);
+            if (tat.compareAndSet(cur, next)) return next - WINDOW_NS - now;
+        }
+    }
+
+    @Override
+    public void adjust(String key, long intervalNs, long cost) {
+        long now = System.nanoTime();
+        AtomicLong tat = cell(key, now);
+        while (true) {
+            long cur = tat.get();
+            long next = LimiterStore.gcraAdjust(cur, now, intervalNs, cost);
+            if (next == cur || tat.compareAndSet(cur, next)) return;
+        }
+    }
+
+    @Override
+    public void pause(String key, long intervalNs, long pauseNanos) {
+        long now = System.nanoTime();
+        AtomicLong tat = cell(key, now);
+        while (true) {
+            long cur = tat.get();
+            long next = LimiterStore.gcraPause(cur, now, intervalNs, pauseNanos);
+            if (next == cur || tat.compareAndSet(cur, next)) return;
+        }
+    }
+
+    @Override
+    public long available(String key, long intervalNs) {
+        long now = System.nanoTime();
+        return LimiterStore.gcraAvailable(cell(key, now).get(), now, intervalNs);
+    }
+
+    @Override
+    public long addDaily(String key, long day, long delta, long limit) {
+        AtomicLong daily = dailyCells.computeIfAbsent(key, k -> cell(k, 0L));
+        while (true) {
+            long cur = daily.get();
+            boolean sameDay = (cur >>> 32) == day;
+            if (delta < 0 && !sameDay) return 0L; // 已跨日，昨日的预占无需退回
+            long used = sameDay ? (cur & 0xFFFFFFFFL) : 0L;
+            if (delta > 0 && limit > 0 && used + delta > limit) return -1L;
+            long next = Math.max(0L, Math.min(0xFFFFFFFFL, used + delta));
+            if (daily.compareAndSet(cur, (day << 32) | next)) { dirty.set(true); return next; }
+        }
+    }
+
+    @Override
+    public long daily(String key, long day) {
+        AtomicLong daily = cells.get(key);
+        if (daily == null) return 0L;
+        long cur = daily.get();
+        return (cur >>> 32) == day ? (cur & 0xFFFFFFFFL) : 0L;
+    }
+
+    @Override
+    public String name() { return "local"; }
+
+    // —— 当日计数持久化：key=packed(epochDay<<32|used)，先写临时文件再原子替换 ——
+    private void load() {
+        if (!Files.exists(dailyFile)) return;
+        Properties p = new Properties();
+        try (Reader r = Files.newBufferedReader(dailyFile, StandardCharsets.UTF_8)) {
+            p.load(r);
+            for (String k : p.stringPropertyNames()) {
+                dailyCells.put(k, cell(k, Long.parseLong(p.getProperty(k).trim())));
+            }
+            log.info("[Kimi] loaded daily token counters from {} ({} keys)", dailyFile, dailyCells.size());
+        } catch (IOException | NumberFormatException e) {
+            log.warn("[Kimi] daily token counters not loaded from {}: {}", dailyFile, e.getMessage());
+        }
+    }
+
+    private synchronized void flush() {
+        if (!dirty.getAndSet(false)) return;
+        Properties p = new Properties();
+        for (Map.Entry<String, AtomicLong> e : dailyCells.entrySet()) p.setProperty(e.getKey(), Long.toString(e.getValue().get()));
+        try {
+            Path parent = dailyFile.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            Path tmp = dailyFile.resolveSibling(dailyFile.getFileName() + ".tmp");
+            try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                p.store(w, "daily token counters: epochDay<<32 | tokens");
+            }
+            Files.move(tmp, dailyFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty.set(true);
+            log.warn("[Kimi] failed to persist daily token counters to {}: {}", dailyFile, e.getMessage());
+        }
+    }
+}
@@ -30,8 +30,7 @@ public final class MergePolicy {
     }
 
     /** 宽松合并策略：适度忽略字号/字距/auto 颜色/高亮差异，保留粗斜下划线为强边界 */
-    public static MergePolicy loose() {
-        return new Builder()
+    private static final MergePolicy LOOSE = new Builder()
             .fontSizeTolerancePt(1.0)
             .charSpacingTolerance(100)
             .ignoreFontFamilyNullVsExplicit(true)
@@ -44,6 +43,10 @@ public final class MergePolicy {
             .hardOnStrikeDiff(false)
             .hardOnFontFamilyDiff(false)
             .build();
+
+    /** 不可变，全局共用一个实例 */
+    public static MergePolicy loose() {
+        return LOOSE;
     }
 
     public static final class Builder {
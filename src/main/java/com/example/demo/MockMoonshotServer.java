@@ -0,0 +1,166 @@
+package com.example.demo;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 本地 Moonshot 兼容的 chat/completions 模拟服务（JDK 内置 HttpServer），用于无外网环境压测完整 HTTP 链路。
+ * MOCK_MOONSHOT_PORT>0 时随应用启动；再把 MOONSHOT_API_URL 指向 http://127.0.0.1:端口/v1/chat/completions 即可。
+ * 译文、延迟、截断、数量不一致与 FakeTranslationEngine 相同（共用 FAKE_ENGINE_* 配置），支持 stream=true。
+ */
+@Slf4j
+@Component
+public class MockMoonshotServer {
+
+    private static final int PORT = getEnvInt("MOCK_MOONSHOT_PORT", 0); // <=0 不启动
+
+    private static int getEnvInt(String k, int d){ try { return Integer.parseInt(System.getenv().getOrDefault(k, String.valueOf(d))); } catch(Exception e){ return d; } }
+
+    private final FakeTranslationEngine engine = new FakeTranslationEngine();
+    private HttpServer server;
+    private ExecutorService pool;
+
+    public MockMoonshotServer() {
+        if (PORT <= 0) return;
+        try {
+            AtomicInteger seq = new AtomicInteger();
+            pool = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "mock-moonshot-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", PORT), 256);
+            server.createContext("/", this::handle);
+            server.setExecutor(pool);
+            server.start();
+            log.info("mock moonshot server listening on http://127.0.0.1:{}/v1/chat/completions", PORT);
+        } catch (IOException e) {
+            log.warn("mock moonshot server failed to start on port {}: {}", PORT, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (server != null) server.stop(0);
+        if (pool != null) pool.shutdownNow();
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try {
+            if (!"POST".equalsIgnoreCase(ex.getRequestMethod()) || !ex.getRequestURI().getPath().endsWith("/chat/completions")) {
+                send(ex, 404, "{\"error\":{\"message\":\"not found\"}}");
+                return;
+            }
+            com.alibaba.fastjson.JSONObject req = com.alibaba.fastjson.JSONObject.parseObject(
+                    new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            com.alibaba.fastjson.JSONArray messages = req.getJSONArray("messages");
+
+            String system = "", lastUser = "";
+            int promptTokens = 0;
+            for (int i = 0; i < messages.size(); i++) {
+                com.alibaba.fastjson.JSONObject m = messages.getJSONObject(i);
+                String c = m.getString("content");
+                promptTokens += Tokenizer.shared().count(c);
+                if ("system".equals(m.getString("role"))) system = c;
+                else if ("user".equals(m.getString("role")) && c != null && c.contains("{")) lastUser = c;
+            }
+            String payload = lastUser.substring(Math.max(0, lastUser.indexOf('{')));
+            String lang = lastBetween(system, '「', '」');
+
+            String content, finish = "stop";
+            try {
+                Object texts = com.alibaba.fastjson.JSONObject.parseObject(payload).get("texts");
+                content = texts instanceof com.alibaba.fastjson.JSONObject
+                        ? engine.translateKeyed(payload, ((com.alibaba.fastjson.JSONObject) texts).size(), lang, null)
+                        : engine.translate(payload, lang, null);
+            } catch (Kimi.TruncatedException te) {
+                content = "{\"translations\":[";
+                finish = "length";
+            }
+
+            com.alibaba.fastjson.JSONObject usage = new com.alibaba.fastjson.JSONObject();
+            usage.put("prompt_tokens", promptTokens);
+            usage.put("completion_tokens", Tokenizer.shared().count(content));
+            usage.put("total_tokens", promptTokens + Tokenizer.shared().count(content));
+
+            if (req.getBooleanValue("stream")) sendStream(ex, content, finish, usage);
+            else send(ex, 200, completion(content, finish, usage));
+        } catch (Exception e) {
+            send(ex, 500, "{\"error\":{\"message\":" + com.alibaba.fastjson.JSON.toJSONString(String.valueOf(e.getMessage())) + "}}");
+        } finally {
+            ex.close();
+        }
+    }
+
+    private static String completion(String content, String finish, com.alibaba.fastjson.JSONObject usage) {
+        com.alibaba.fastjson.JSONObject message = new com.alibaba.fastjson.JSONObject();
+        message.put("role", "assistant");
+        message.put("content", content);
+        com.alibaba.fastjson.JSONObject choice = new com.alibaba.fastjson.JSONObject();
+        choice.put("index", 0);
+        choice.put("message", message);
+        choice.put("finish_reason", finish);
+        com.alibaba.fastjson.JSONArray choices = new com.alibaba.fastjson.JSONArray();
+        choices.add(choice);
+        com.alibaba.fastjson.JSONObject body = new com.alibaba.fastjson.JSONObject();
+        body.put("object", "chat.completion");
+        body.put("choices", choices);
+        body.put("usage", usage);
+        return body.toJSONString();
+    }
+
+    private static void sendStream(HttpExchange ex, String content, String finish, com.alibaba.fastjson.JSONObject usage) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        ex.sendResponseHeaders(200, 0);
+        try (OutputStream os = ex.getResponseBody()) {
+            for (int i = 0; i < content.length(); i += 16) {
+                String piece = content.substring(i, Math.min(content.length(), i + 16));
+                os.write(("data: " + chunk(piece, null, null) + "\n\n").getBytes(StandardCharsets.UTF_8));
+                os.flush();
+            }
+            os.write(("data: " + chunk(null, finish, usage) + "\n\n").getBytes(StandardCharsets.UTF_8));
+            os.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String chunk(String delta, String finish, com.alibaba.fastjson.JSONObject usage) {
+        com.alibaba.fastjson.JSONObject d = new com.alibaba.fastjson.JSONObject();
+        if (delta != null) d.put("content", delta);
+        com.alibaba.fastjson.JSONObject choice = new com.alibaba.fastjson.JSONObject();
+        choice.put("index", 0);
+        choice.put("delta", d);
+        choice.put("finish_reason", finish);
+        if (usage != null) choice.put("usage", usage);
+        com.alibaba.fastjson.JSONArray choices = new com.alibaba.fastjson.JSONArray();
+        choices.add(choice);
+        com.alibaba.fastjson.JSONObject c = new com.alibaba.fastjson.JSONObject();
+        c.put("object", "chat.completion.chunk");
+        c.put("choices", choices);
+        return c.toJSONString();
+    }
+
+    private static void send(HttpExchange ex, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(code, bytes.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(bytes); }
+    }
+
+    /** 两种 prompt 都以「目标语言」结尾，取最后一对括号 */
+    private static String lastBetween(String s, char open, char close) {
+        int b = s == null ? -1 : s.lastIndexOf(close);
+        int a = b < 0 ? -1 : s.lastIndexOf(open, b);
+        return a < 0 ? "mock" : s.substring(a + 1, b);
+    }
+}
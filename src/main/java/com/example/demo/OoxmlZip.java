@@ -0,0 +1,524 @@
+package com.example.demo;
+
+import org.apache.poi.ooxml.POIXMLDocument;
+import org.apache.poi.ooxml.POIXMLDocumentPart;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackageRelationship;
+import org.apache.poi.openxml4j.opc.PackageRelationshipCollection;
+import org.apache.poi.openxml4j.opc.PackagingURIHelper;
+import org.apache.poi.openxml4j.opc.TargetMode;
+import org.apache.poi.openxml4j.opc.internal.MemoryPackagePart;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * OOXML 包（zip）的直通读写：只解析中央目录，按名字随机读取单个部件；
+ * 输出时未改动的条目直接拷贝原压缩字节（不解压、不重新 deflate），只有改写的部件重新压缩。
+ * 源是磁盘上的临时文件，按需定位读取，word/media、ppt/media 等大文件从不进堆。
+ * 不支持 ZIP64（单包 >4GB 或 >65535 个条目），遇到时抛 ZipException。
+ */
+final class OoxmlZip implements Closeable {
+
+    /** 改写一个部件：original 为原部件解压后的内容（新增部件为 null），写完不要关闭 out */
+    @FunctionalInterface
+    interface PartWriter {
+        void write(InputStream original, OutputStream out) throws IOException;
+    }
+
+    private static final int LOC_SIG = 0x04034b50, CEN_SIG = 0x02014b50, END_SIG = 0x06054b50, EXT_SIG = 0x08074b50;
+    private static final int STORED = 0, DEFLATED = 8;
+    private static final int FLAG_DESCRIPTOR = 0x08, FLAG_UTF8 = 0x800;
+    private static final int BUFFER = 64 * 1024;
+
+    private static final class Entry {
+        final byte[] name;
+        final int flags, method, dosTime, crc;
+        final long csize, usize, locOffset;
+
+        Entry(byte[] name, int flags, int method, int dosTime, int crc, long csize, long usize, long locOffset) {
+            this.name = name; this.flags = flags; this.method = method; this.dosTime = dosTime;
+            this.crc = crc; this.csize = csize; this.usize = usize; this.locOffset = locOffset;
+        }
+    }
+
+    private final FileChannel ch;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(); // 保持原顺序（[Content_Types].xml 在前）
+
+    private OoxmlZip(FileChannel ch) throws IOException {
+        this.ch = ch;
+        readCentralDirectory();
+    }
+
+    static OoxmlZip open(Path file) throws IOException {
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new OoxmlZip(ch);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException { ch.close(); }
+
+    List<String> names() { return new ArrayList<>(entries.keySet()); }
+
+    boolean contains(String name) { return entries.containsKey(name); }
+
+    /** 解压读取单个部件；不存在返回 null */
+    InputStream open(String name) throws IOException {
+        Entry e = entries.get(name);
+        return e == null ? null : inflate(e);
+    }
+
+    /**
+     * 按原条目顺序写出新包：rewrites 中的部件经 PartWriter 改写后重新压缩，其余条目原样拷贝压缩字节；
+     * rewrites 里原包没有的名字作为新条目追加在末尾。
+     */
+    void write(Map<String, PartWriter> rewrites, OutputStream out) throws IOException {
+        CountingOutputStream cos = new CountingOutputStream(new BufferedOutputStream(out, BUFFER));
+        WritableByteChannel sink = Channels.newChannel(cos);
+        List<Entry> written = new ArrayList<>(entries.size() + rewrites.size());
+
+        for (Map.Entry<String, Entry> me : entries.entrySet()) {
+            Entry src = me.getValue();
+            PartWriter w = rewrites.get(me.getKey());
+            if (w == null) {
+                written.add(copyRaw(src, cos, sink));
+            } else {
+                try (InputStream in = inflate(src)) {
+                    written.add(deflate(src.name, src.dosTime, in, w, cos));
+                }
+            }
+        }
+        for (Map.Entry<String, PartWriter> me : rewrites.entrySet()) {
+            if (entries.containsKey(me.getKey())) continue;
+            written.add(deflate(me.getKey().getBytes(StandardCharsets.UTF_8), dosNow(), null, me.getValue(), cos));
+        }
+        writeCentralDirectory(written, cos);
+        cos.flush();
+    }
+
+    // ===================== POI 文档 =====================
+
+    private static final Method ON_SAVE = onSaveMethod();
+    private static final XMLInputFactory XML = xmlInputFactory();
+
+    /**
+     * POI 文档的直通输出：只让各部件把内存中的 XML 提交回包（与 write 的第一步相同），
+     * 提交过的 XML 部件重新压缩，媒体等未提交的条目按原压缩字节拷贝，docProps 保持原样。
+     * [Content_Types].xml 与各 .rels 按原字节拷贝，因此先核对：部件集合、各部件的内容类型、
+     * 包级与各部件的关系（Id/Type/Target/TargetMode）都必须与原包一致。
+     * 任一不同（例如 XSSF 为没有 sharedStrings 的工作簿补建了该部件、处理中新增了超链接关系）时
+     * 返回 false 且不写任何内容，调用方改用 POI 的完整 write。
+     *
+     * 依赖 pom 中固定的 POI 版本（5.2.4）的内部行为：通过反射调用受保护的 POIXMLDocumentPart.onSave(Set)
+     * 提交部件，且假定 POI 在包保存之前不改写关系与内容类型。升级 POI 时需复核；找不到该方法时自动走完整 write。
+     */
+    static boolean writeCommitted(POIXMLDocument doc, OoxmlZip original, OutputStream out) throws IOException {
+        if (ON_SAVE == null) return false;
+        OPCPackage pkg = doc.getPackage();
+        try {
+            ON_SAVE.invoke(doc, new HashSet<PackagePart>());
+        } catch (InvocationTargetException e) {
+            Throwable c = e.getCause();
+            if (c instanceof IOException) throw (IOException) c;
+            if (c instanceof RuntimeException) throw (RuntimeException) c;
+            throw new IOException(c);
+        } catch (IllegalAccessException e) {
+            return false;
+        }
+
+        List<PackagePart> parts;
+        try {
+            parts = pkg.getParts();
+        } catch (InvalidFormatException e) {
+            throw new IOException(e);
+        }
+        Map<String, PartWriter> rewrites = new LinkedHashMap<>();
+        Set<String> names = new HashSet<>();
+        for (PackagePart part : parts) {
+            String name = part.getPartName().getName().substring(1); // 去掉开头的 "/"
+            if (!original.contains(name)) return false;
+            names.add(name);
+            if (part instanceof MemoryPackagePart) {
+                rewrites.put(name, (in, o) -> {
+                    try (InputStream pin = part.getInputStream()) { pin.transferTo(o); }
+                });
+            }
+        }
+        for (String n : original.names()) {
+            if (!names.contains(n) && !n.endsWith("/") && !n.equals("[Content_Types].xml") && !n.endsWith(".rels")) {
+                return false;
+            }
+        }
+        if (!sameContentTypes(parts, original) || !sameRelationships(pkg, parts, original)) return false;
+        original.write(rewrites, out);
+        return true;
+    }
+
+    /** 每个部件在原 [Content_Types].xml 下解析出的内容类型（Override 优先，其次按扩展名 Default）与 POI 一致 */
+    private static boolean sameContentTypes(List<PackagePart> parts, OoxmlZip original) throws IOException {
+        Map<String, String> defaults = new HashMap<>(), overrides = new HashMap<>();
+        try (InputStream in = original.open("[Content_Types].xml")) {
+            if (in == null) return false;
+            XMLStreamReader r = XML.createXMLStreamReader(in);
+            while (r.hasNext()) {
+                if (r.next() != XMLStreamConstants.START_ELEMENT) continue;
+                String type = r.getAttributeValue(null, "ContentType");
+                if ("Default".equals(r.getLocalName())) defaults.put(lower(r.getAttributeValue(null, "Extension")), type);
+                else if ("Override".equals(r.getLocalName())) overrides.put(lower(r.getAttributeValue(null, "PartName")), type);
+            }
+            r.close();
+        } catch (XMLStreamException e) {
+            return false;
+        }
+        for (PackagePart part : parts) {
+            if (part.isRelationshipPart()) continue;
+            String expected = overrides.get(lower(part.getPartName().getName())); // 部件名不区分大小写
+            if (expected == null) expected = defaults.get(lower(part.getPartName().getExtension()));
+            if (!part.getContentType().equals(expected)) return false;
+        }
+        return true;
+    }
+
+    /** 包级关系与每个部件的关系都与原包中对应的 .rels 一致 */
+    private static boolean sameRelationships(OPCPackage pkg, List<PackagePart> parts, OoxmlZip original) throws IOException {
+        if (!sameRelationships(pkg.getRelationships(), PackagingURIHelper.PACKAGE_ROOT_URI, original, "_rels/.rels")) return false;
+        for (PackagePart part : parts) {
+            if (part.isRelationshipPart()) continue;
+            PackageRelationshipCollection rels;
+            try {
+                rels = part.getRelationships();
+            } catch (InvalidFormatException e) {
+                return false;
+            }
+            String name = part.getPartName().getName().substring(1);
+            int slash = name.lastIndexOf('/');
+            String relsName = name.substring(0, slash + 1) + "_rels/" + name.substring(slash + 1) + ".rels";
+            if (!sameRelationships(rels, part.getPartName().getURI(), original, relsName)) return false;
+        }
+        return true;
+    }
+
+    /** 内部关系的 Target 按 POI 的 getTargetURI 同样的规则相对 source 解析成绝对部件名再比较 */
+    private static boolean sameRelationships(PackageRelationshipCollection rels, URI source, OoxmlZip original,
+                                             String relsName) throws IOException {
+        Set<String> expected = new HashSet<>();
+        try (InputStream in = original.open(relsName)) {
+            if (in != null) {
+                XMLStreamReader r = XML.createXMLStreamReader(in);
+                while (r.hasNext()) {
+                    if (r.next() != XMLStreamConstants.START_ELEMENT || !"Relationship".equals(r.getLocalName())) continue;
+                    String target = r.getAttributeValue(null, "Target");
+                    boolean external = "External".equals(r.getAttributeValue(null, "TargetMode"));
+                    URI uri = target == null ? null : PackagingURIHelper.toURI(target);
+                    if (uri != null && !external && !uri.toASCIIString().startsWith("/")) {
+                        uri = PackagingURIHelper.resolvePartUri(source, uri);
+                    }
+                    expected.add(relationKey(r.getAttributeValue(null, "Id"), r.getAttributeValue(null, "Type"),
+                            uri == null ? null : uri.toString(), external));
+                }
+                r.close();
+            }
+        } catch (XMLStreamException | URISyntaxException e) {
+            return false;
+        }
+        Set<String> actual = new HashSet<>();
+        if (rels != null) {
+            for (PackageRelationship rel : rels) {
+                actual.add(relationKey(rel.getId(), rel.getRelationshipType(),
+                        rel.getTargetURI() == null ? null : rel.getTargetURI().toString(), rel.getTargetMode() == TargetMode.EXTERNAL));
+            }
+        }
+        return actual.equals(expected);
+    }
+
+    private static String relationKey(String id, String type, String target, boolean external) {
+        return id + '\n' + type + '\n' + target + '\n' + external;
+    }
+
+    private static String lower(String s) {
+        return s == null ? null : s.toLowerCase(Locale.ROOT);
+    }
+
+    private static XMLInputFactory xmlInputFactory() {
+        XMLInputFactory f = XMLInputFactory.newInstance();
+        f.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return f;
+    }
+
+    private static Method onSaveMethod() {
+        try {
+            Method m = POIXMLDocumentPart.class.getDeclaredMethod("onSave", Set.class);
+            m.setAccessible(true);
+            return m;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // ===================== 读 =====================
+
+    private void readCentralDirectory() throws IOException {
+        long size = ch.size();
+        int tail = (int) Math.min(size, 22 + 0xFFFF);
+        ByteBuffer end = read(size - tail, tail);
+        int pos = -1;
+        for (int i = tail - 22; i >= 0; i--) {
+            if (end.getInt(i) == END_SIG) { pos = i; break; }
+        }
+        if (pos < 0) throw new ZipException("not a zip file (end of central directory not found)");
+
+        int count = u16(end, pos + 10);
+        long cenSize = u32(end, pos + 12);
+        long cenOffset = u32(end, pos + 16);
+        if (count == 0xFFFF || cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL) {
+            throw new ZipException("ZIP64 packages are not supported");
+        }
+
+        ByteBuffer cen = read(cenOffset, (int) cenSize);
+        int p = 0;
+        for (int i = 0; i < count; i++) {
+            if (cen.getInt(p) != CEN_SIG) throw new ZipException("bad central directory entry #" + i);
+            int flags = u16(cen, p + 8);
+            int method = u16(cen, p + 10);
+            int dosTime = cen.getInt(p + 12);
+            int crc = cen.getInt(p + 16);
+            long csize = u32(cen, p + 20);
+            long usize = u32(cen, p + 24);
+            int nameLen = u16(cen, p + 28), extraLen = u16(cen, p + 30), commentLen = u16(cen, p + 32);
+            long loc = u32(cen, p + 42);
+            if (csize == 0xFFFFFFFFL || usize == 0xFFFFFFFFL || loc == 0xFFFFFFFFL) {
+                throw new ZipException("ZIP64 packages are not supported");
+            }
+            if (method != STORED && method != DEFLATED) throw new ZipException("unsupported compression method " + method);
+            if ((flags & 1) != 0) throw new ZipException("encrypted entries are not supported");
+            byte[] name = new byte[nameLen];
+            cen.position(p + 46);
+            cen.get(name);
+            entries.put(new String(name, StandardCharsets.UTF_8), new Entry(name, flags, method, dosTime, crc, csize, usize, loc));
+            p += 46 + nameLen + extraLen + commentLen;
+        }
+    }
+
+    /** 本地文件头的扩展字段长度可能与中央目录不同，数据起点以本地头为准 */
+    private long dataOffset(Entry e) throws IOException {
+        ByteBuffer loc = read(e.locOffset, 30);
+        if (loc.getInt(0) != LOC_SIG) throw new ZipException("bad local header for " + new String(e.name, StandardCharsets.UTF_8));
+        return e.locOffset + 30 + u16(loc, 26) + u16(loc, 28);
+    }
+
+    private InputStream inflate(Entry e) throws IOException {
+        long start = dataOffset(e);
+        if (e.method == STORED) return new BufferedInputStream(new SliceInputStream(start, e.csize, false), BUFFER);
+        Inflater inf = new Inflater(true);
+        // nowrap 模式下 Inflater 可能还要一个哑字节才能结束，与 ZipFile 的做法相同
+        return new InflaterInputStream(new SliceInputStream(start, e.csize, true), inf, BUFFER) {
+            private boolean closed;
+            @Override public void close() throws IOException {
+                if (closed) return;
+                closed = true;
+                inf.end();
+                super.close();
+            }
+        };
+    }
+
+    private ByteBuffer read(long pos, int len) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+        while (b.hasRemaining()) {
+            if (ch.read(b, pos + b.position()) < 0) throw new ZipException("unexpected end of zip file");
+        }
+        b.flip();
+        return b;
+    }
+
+    /** 通道上 [start, start+len) 的只读视图（按绝对位置读，不改通道的 position） */
+    private final class SliceInputStream extends InputStream {
+        private long pos;
+        private final long end;
+        private boolean dummy; // 末尾补一个 0 字节
+
+        SliceInputStream(long start, long len, boolean dummy) { this.pos = start; this.end = start + len; this.dummy = dummy; }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (pos >= end) {
+                if (!dummy) return -1;
+                dummy = false;
+                b[off] = 0;
+                return 1;
+            }
+            int n = ch.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - pos)), pos);
+            if (n < 0) throw new ZipException("unexpected end of zip file");
+            pos += n;
+            return n;
+        }
+    }
+
+    // ===================== 写 =====================
+
+    private Entry copyRaw(Entry src, CountingOutputStream cos, WritableByteChannel sink) throws IOException {
+        long data = dataOffset(src);
+        int flags = src.flags & ~FLAG_DESCRIPTOR; // 大小与 CRC 已知，直接写进本地头
+        long loc = cos.count;
+        writeLocalHeader(cos, src.name, flags, src.method, src.dosTime, src.crc, src.csize, src.usize);
+        for (long done = 0; done < src.csize; ) {
+            long n = ch.transferTo(data + done, src.csize - done, sink);
+            if (n <= 0) throw new ZipException("unexpected end of zip file");
+            done += n;
+        }
+        return new Entry(src.name, flags, src.method, src.dosTime, src.crc, src.csize, src.usize, loc);
+    }
+
+    private static Entry deflate(byte[] name, int dosTime, InputStream original, PartWriter w, CountingOutputStream cos)
+            throws IOException {
+        int flags = FLAG_DESCRIPTOR | FLAG_UTF8;
+        long loc = cos.count;
+        writeLocalHeader(cos, name, flags, DEFLATED, dosTime, 0, 0, 0);
+
+        long dataStart = cos.count;
+        CRC32 crc = new CRC32();
+        long[] usize = {0};
+        Deflater def = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            DeflaterOutputStream dos = new DeflaterOutputStream(nonClosing(cos), def, BUFFER) {
+                @Override public void write(byte[] b, int off, int len) throws IOException {
+                    crc.update(b, off, len);
+                    usize[0] += len;
+                    super.write(b, off, len);
+                }
+            };
+            // StAX 等写出方按字节写，先缓冲
+            BufferedOutputStream part = new BufferedOutputStream(dos, BUFFER);
+            w.write(original, part);
+            part.flush();
+            dos.finish();
+        } finally {
+            def.end();
+        }
+        long csize = cos.count - dataStart;
+        checkSize(csize); checkSize(usize[0]);
+
+        ByteBuffer ext = le(16);
+        ext.putInt(EXT_SIG).putInt((int) crc.getValue()).putInt((int) csize).putInt((int) usize[0]);
+        cos.write(ext.array());
+        return new Entry(name, flags, DEFLATED, dosTime, (int) crc.getValue(), csize, usize[0], loc);
+    }
+
+    private static void writeLocalHeader(OutputStream out, byte[] name, int flags, int method, int dosTime,
+                                         int crc, long csize, long usize) throws IOException {
+        ByteBuffer h = le(30 + name.length);
+        h.putInt(LOC_SIG).putShort((short) 20).putShort((short) flags).putShort((short) method)
+         .putInt(dosTime).putInt(crc).putInt((int) csize).putInt((int) usize)
+         .putShort((short) name.length).putShort((short) 0).put(name);
+        out.write(h.array());
+    }
+
+    private static void writeCentralDirectory(List<Entry> written, CountingOutputStream cos) throws IOException {
+        if (written.size() > 0xFFFE) throw new ZipException("ZIP64 packages are not supported");
+        long start = cos.count;
+        checkSize(start);
+        for (Entry e : written) {
+            ByteBuffer c = le(46 + e.name.length);
+            c.putInt(CEN_SIG).putShort((short) 20).putShort((short) 20).putShort((short) e.flags)
+             .putShort((short) e.method).putInt(e.dosTime).putInt(e.crc)
+             .putInt((int) e.csize).putInt((int) e.usize)
+             .putShort((short) e.name.length).putShort((short) 0).putShort((short) 0)
+             .putShort((short) 0).putShort((short) 0).putInt(0).putInt((int) e.locOffset)
+             .put(e.name);
+            cos.write(c.array());
+        }
+        long size = cos.count - start;
+        ByteBuffer end = le(22);
+        end.putInt(END_SIG).putShort((short) 0).putShort((short) 0)
+           .putShort((short) written.size()).putShort((short) written.size())
+           .putInt((int) size).putInt((int) start).putShort((short) 0);
+        cos.write(end.array());
+    }
+
+    // ===================== 工具 =====================
+
+    /** 统计写出字节数，用于本地头偏移与压缩后大小 */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) { super(out); }
+
+        @Override public void write(int b) throws IOException { out.write(b); count++; }
+        @Override public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); count += len; }
+        @Override public void flush() throws IOException { out.flush(); }
+    }
+
+    private static OutputStream nonClosing(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); }
+            @Override public void close() throws IOException { flush(); }
+        };
+    }
+
+    private static ByteBuffer le(int n) { return ByteBuffer.allocate(n).order(ByteOrder.LITTLE_ENDIAN); }
+
+    private static int u16(ByteBuffer b, int i) { return b.getShort(i) & 0xFFFF; }
+
+    private static long u32(ByteBuffer b, int i) { return b.getInt(i) & 0xFFFFFFFFL; }
+
+    private static void checkSize(long v) throws ZipException {
+        if (v >= 0xFFFFFFFFL) throw new ZipException("ZIP64 packages are not supported");
+    }
+
+    private static int dosNow() {
+        java.time.LocalDateTime t = java.time.LocalDateTime.now();
+        return (t.getYear() - 1980) << 25 | t.getMonthValue() << 21 | t.getDayOfMonth() << 16
+                | t.getHour() << 11 | t.getMinute() << 5 | t.getSecond() >> 1;
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.demo;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * 当日 token 预算（TPD）不足：作业开始前预估即超出剩余额度时直接拒绝（HTTP 429），
+ * 不再翻到一半才发现、把剩余批次变成模拟译文。retryAfterSeconds 为距次日零点（额度重置）的秒数。
+ * 由 DocumentController 的 @ExceptionHandler 直接转成 429 + Retry-After。
+ */
+public class QuotaExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long neededTokens;
+    private final long remainingTokens;
+    private final long retryAfterSeconds;
+
+    public QuotaExceededException(long neededTokens, long remainingTokens) {
+        super("当日 token 预算不足：预计需要 " + neededTokens + "，剩余 " + Math.max(0, remainingTokens) + "，请次日再试或拆分文档");
+        this.neededTokens = neededTokens;
+        this.remainingTokens = remainingTokens;
+        this.retryAfterSeconds = secondsUntilReset();
+    }
+
+    public long neededTokens() { return neededTokens; }
+    public long remainingTokens() { return remainingTokens; }
+    public long retryAfterSeconds() { return retryAfterSeconds; }
+
+    private static long secondsUntilReset() {
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDateTime now = LocalDateTime.now(zone);
+        return Math.max(1, Duration.between(now, LocalDate.now(zone).plusDays(1).atStartOfDay()).getSeconds());
+    }
+}
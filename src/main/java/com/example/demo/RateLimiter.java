@@ -0,0 +1,195 @@
+package com.example.demo;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 限流器（并发、RPM、TPM、TPD；TPD<=0 表示无限）。
+ * RPM/TPM 用 GCRA（虚拟排程时间 TAT）做原子预约：每个请求 CAS 推进 TAT 后，
+ * 精确睡到自己的放行时刻，无全局锁、无轮询；等价于 60s 滑动窗口内允许满额突发。
+ * TAT 与当日计数存放在 LimiterStore 中：local 为进程内；file/redis 时多个实例共享同一账号配额。
+ * 并发上限始终是本实例的（保护本机连接与线程）。
+ */
+final class RateLimiter {
+
+    private final int rpmLimit; // 每分钟请求数
+    private final int tpmLimit; // 每分钟 token
+    private final int tpdLimit; // 每日 token（<=0 表示无限）
+
+    private final int concurrencyLimit;
+    private final Semaphore concurrency;
+    private final Gcra requests;
+    private final Gcra tokens;
+
+    private final LimiterStore store;
+    private final String dailyKey;
+
+    private final LongAdder reservedTokens = new LongAdder();
+    private final LongAdder consumedTokens = new LongAdder();
+    private final LongAdder refundedTokens = new LongAdder();
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder throttledNanos = new LongAdder();
+    private final LongAdder penalties = new LongAdder();
+
+    /** keyPrefix 标识一份配额（同一账号 key 的所有实例用同一前缀） */
+    RateLimiter(int rpm, int tpm, int tpd, int concurrencyLimit, LimiterStore store, String keyPrefix) {
+        this.rpmLimit = rpm; this.tpmLimit = tpm; this.tpdLimit = tpd;
+        this.concurrencyLimit = Math.max(1, concurrencyLimit);
+        this.concurrency = new Semaphore(this.concurrencyLimit);
+        this.store = store;
+        this.requests = new Gcra(store, keyPrefix + ":rpm", rpm);
+        this.tokens = new Gcra(store, keyPrefix + ":tpm", tpm);
+        this.dailyKey = keyPrefix + ":tpd";
+    }
+
+    void beforeRequest(int requestedTokens) {
+        acquireConcurrency();
+        try {
+            reserveDaily(requestedTokens);
+            long now = System.nanoTime();
+            long wait = Math.max(requests.reserve(1), tokens.reserve(requestedTokens));
+            try {
+                parkUntil(now + wait, now);
+            } catch (RuntimeException e) {
+                // 等待中被中断：请求不会发出，退回本次的 RPM/TPM/TPD 预约
+                requests.adjust(-1);
+                tokens.adjust(-requestedTokens);
+                adjustDaily(-requestedTokens);
+                throw e;
+            }
+            acquired.increment();
+            reservedTokens.add(requestedTokens);
+        } catch (RuntimeException e) {
+            releaseConcurrency();
+            throw e;
+        }
+    }
+
+    void afterRequest() {
+        releaseConcurrency();
+    }
+
+    /**
+     * 用响应里的 usage 校正预占：少用的退回 TPM/TPD，多用的补记（不阻塞当前请求；TPD 补记不受上限约束，必须如实记账）。
+     * actualTokens<0 表示响应无 usage，保持预占不变。
+     */
+    void reconcile(int reserved, int actualTokens) {
+        if (actualTokens < 0) { consumedTokens.add(reserved); return; }
+        consumedTokens.add(actualTokens);
+        int diff = reserved - actualTokens;
+        if (diff == 0) return;
+        tokens.adjust(-diff);
+        adjustDaily(-diff);
+        if (diff > 0) refundedTokens.add(diff);
+    }
+
+    /** 上游返回 429：在 pauseNanos 内不再放行新请求（推后 RPM 的 TAT，所有调用方一起退避） */
+    void penalize(long pauseNanos) {
+        if (pauseNanos <= 0) return;
+        penalties.increment();
+        requests.pause(pauseNanos);
+    }
+
+    /** 剩余余量（0~1）：RPM、TPM、并发三者剩余比例的最小值，用于多 key 之间挑选最空闲的 */
+    double headroom() {
+        double r = (double) requests.available() / Math.max(1, rpmLimit);
+        double t = (double) tokens.available() / Math.max(1, tpmLimit);
+        double c = (double) concurrency.availablePermits() / concurrencyLimit;
+        return Math.min(r, Math.min(t, c));
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("store", store.name());
+        m.put("rpmLimit", rpmLimit);
+        m.put("tpmLimit", tpmLimit);
+        m.put("tpdLimit", tpdLimit);
+        m.put("rpmAvailable", requests.available());
+        m.put("tpmAvailable", tokens.available());
+        m.put("tokensToday", tokensToday());
+        m.put("inFlight", concurrencyLimit - concurrency.availablePermits());
+        m.put("reservedTokens", reservedTokens.sum());
+        m.put("consumedTokens", consumedTokens.sum());
+        m.put("refundedTokens", refundedTokens.sum());
+        m.put("acquired", acquired.sum());
+        m.put("throttled", throttled.sum());
+        m.put("throttledMs", throttledNanos.sum() / 1_000_000L);
+        m.put("penalties", penalties.sum());
+        return m;
+    }
+
+    /** 当日剩余 token（TPD<=0 时无限） */
+    long dailyRemaining() {
+        return tpdLimit <= 0 ? Long.MAX_VALUE : Math.max(0L, tpdLimit - tokensToday());
+    }
+
+    private long tokensToday() {
+        return store.daily(dailyKey, today());
+    }
+
+    private void reserveDaily(int requestedTokens) {
+        if (tpdLimit <= 0) return;
+        long day = today();
+        if (store.addDaily(dailyKey, day, requestedTokens, tpdLimit) < 0) {
+            throw new QuotaExceededException(requestedTokens, tpdLimit - store.daily(dailyKey, day));
+        }
+    }
+
+    /** 退回或补记当日计数：已发生的用量无条件记入（limit=0），超额由下一次 reserveDaily 拒绝 */
+    private void adjustDaily(long delta) {
+        if (tpdLimit <= 0) return;
+        store.addDaily(dailyKey, today(), delta, 0);
+    }
+
+    private static long today() { return LocalDate.now(ZoneId.systemDefault()).toEpochDay(); }
+
+    private void parkUntil(long readyAt, long now) {
+        if (readyAt <= now) return;
+        throttled.increment();
+        throttledNanos.add(readyAt - now);
+        long remain;
+        while ((remain = readyAt - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remain);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("限流等待被中断");
+            }
+        }
+    }
+
+    private void acquireConcurrency() {
+        try { concurrency.acquire(); }
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); throw new RuntimeException("并发信号量获取被中断", e); }
+    }
+    private void releaseConcurrency() { concurrency.release(); }
+
+    /** GCRA：limit 个单位 / 60s；状态（TAT）在 store 中，reserve 返回需要等待的纳秒 */
+    private static final class Gcra {
+        private final LimiterStore store;
+        private final String key;
+        private final long intervalNs;
+
+        Gcra(LimiterStore store, String key, int limitPerMinute) {
+            this.store = store;
+            this.key = key;
+            this.intervalNs = Math.max(1L, LimiterStore.WINDOW_NS / Math.max(1, limitPerMinute));
+        }
+
+        long reserve(long cost) { return store.reserve(key, intervalNs, cost); }
+
+        /** 退回（cost<0）或补记（cost>0）额度；退回不早于当前时刻，避免攒出超额突发 */
+        void adjust(long cost) { store.adjust(key, intervalNs, cost); }
+
+        /** pauseNanos 内不再放行：把 TAT 推到“下一个请求恰好在到期时放行”的位置 */
+        void pause(long pauseNanos) { store.pause(key, intervalNs, pauseNanos); }
+
+        long available() { return store.available(key, intervalNs); }
+    }
+}
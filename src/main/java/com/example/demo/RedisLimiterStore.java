@@ -0,0 +1,295 @@
+package com.example.demo;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 跨实例共享的限流状态：RESP 协议直连 Redis（或任何兼容 RESP + EVAL 的服务），
+ * GCRA 与当日计数都在 Lua 脚本里原子完成，时间取服务端 TIME（微秒），各副本时钟不必同步。
+ * 连接失败时退回进程内存储并在冷却后重连：网关短暂不可用不会阻塞翻译，只是暂时按单实例限流。
+ * 小连接池（MOONSHOT_LIMITER_REDIS_POOL，默认 8）：并发调用各借一条连接，不在单个 socket 上排队；
+ * 池满且超时仍借不到时本次按本地存储处理。
+ *
+ * 地址：redis://[:password@]host[:port][/db]
+ */
+@Slf4j
+final class RedisLimiterStore implements LimiterStore {
+
+    private static final int TIMEOUT_MS = 2000;
+    private static final long RECONNECT_COOLDOWN_NS = 5_000_000_000L;
+    private static final int POOL_SIZE = Math.max(1, getEnvInt("MOONSHOT_LIMITER_REDIS_POOL", 8));
+    private static int getEnvInt(String k, int d){ try { return Integer.parseInt(System.getenv().getOrDefault(k, String.valueOf(d))); } catch(Exception e){ return d; } }
+
+    private static final String NOW =
+            "if redis.replicate_commands then redis.replicate_commands() end " +
+            "local t = redis.call('TIME') local now = tonumber(t[1]) * 1000000 + tonumber(t[2]) ";
+    private static final String SET_TAT =
+            "redis.call('SET', KEYS[1], string.format('%.0f', nxt), 'PX', math.ceil((nxt - now) / 1000) + 1) ";
+
+    // ARGV: intervalUs, cost, windowUs → 需等待的微秒
+    private static final String RESERVE = NOW +
+            "local tat = tonumber(redis.call('GET', KEYS[1]) or now) " +
+            "local nxt = math.max(tat, now) + tonumber(ARGV[2]) * tonumber(ARGV[1]) " +
+            SET_TAT +
+            "return math.floor(nxt - tonumber(ARGV[3]) - now)";
+
+    // ARGV: intervalUs, cost
+    private static final String ADJUST = NOW +
+            "local tat = tonumber(redis.call('GET', KEYS[1]) or now) " +
+            "local d = tonumber(ARGV[2]) * tonumber(ARGV[1]) local nxt " +
+            "if d < 0 then if tat <= now then return 0 end nxt = math.max(now, tat + d) " +
+            "else nxt = math.max(tat, now) + d end " +
+            SET_TAT + "return 0";
+
+    // ARGV: intervalUs, pauseUs, windowUs
+    private static final String PAUSE = NOW +
+            "local tat = tonumber(redis.call('GET', KEYS[1]) or now) " +
+            "local nxt = now + tonumber(ARGV[2]) + tonumber(ARGV[3]) - tonumber(ARGV[1]) " +
+            "if tat >= nxt then return 0 end " +
+            SET_TAT + "return 0";
+
+    // ARGV: intervalUs, windowUs
+    private static final String AVAILABLE = NOW +
+            "local tat = tonumber(redis.call('GET', KEYS[1]) or now) " +
+            "local backlog = math.max(0, tat - now) " +
+            "return math.floor(math.max(0, (tonumber(ARGV[2]) - backlog) / tonumber(ARGV[1])))";
+
+    // KEYS[1] = key:day；ARGV: delta, limit
+    private static final String DAILY_ADD =
+            "local raw = redis.call('GET', KEYS[1]) " +
+            "local d, lim = tonumber(ARGV[1]), tonumber(ARGV[2]) " +
+            "if d < 0 and not raw then return 0 end " +
+            "local cur = tonumber(raw or 0) " +
+            "if d > 0 and lim > 0 and cur + d > lim then return -1 end " +
+            "local nv = math.max(0, cur + d) " +
+            "redis.call('SET', KEYS[1], nv, 'EX', 172800) return nv";
+
+    private final String host;
+    private final int port;
+    private final String password;
+    private final int db;
+    private final LocalLimiterStore fallback = new LocalLimiterStore();
+
+    // 空闲连接 + 借出许可（总连接数不超过 POOL_SIZE）
+    private final LinkedBlockingQueue<Conn> idle = new LinkedBlockingQueue<>();
+    private final Semaphore permits = new Semaphore(POOL_SIZE);
+    private volatile long downSince = 0L;
+    private volatile boolean scriptErrorLogged = false;
+
+    RedisLimiterStore(String url) {
+        URI u = URI.create(url);
+        this.host = u.getHost() == null ? "127.0.0.1" : u.getHost();
+        this.port = u.getPort() > 0 ? u.getPort() : 6379;
+        String info = u.getUserInfo();
+        this.password = info == null ? null : info.substring(info.indexOf(':') + 1);
+        String path = u.getPath();
+        int d = 0;
+        try { if (path != null && path.length() > 1) d = Integer.parseInt(path.substring(1)); } catch (NumberFormatException ignore) {}
+        this.db = d;
+        log.info("[Kimi] limiter store: redis {}:{}/{} (pool {})", host, port, db, POOL_SIZE);
+    }
+
+    @Override
+    public long reserve(String key, long intervalNs, long cost) {
+        Long us = eval(RESERVE, key, micros(intervalNs), Long.toString(cost), micros(WINDOW_NS));
+        return us != null ? us * 1000L : fallback.reserve(key, intervalNs, cost);
+    }
+
+    @Override
+    public void adjust(String key, long intervalNs, long cost) {
+        if (eval(ADJUST, key, micros(intervalNs), Long.toString(cost)) == null) fallback.adjust(key, intervalNs, cost);
+    }
+
+    @Override
+    public void pause(String key, long intervalNs, long pauseNanos) {
+        if (eval(PAUSE, key, micros(intervalNs), micros(pauseNanos), micros(WINDOW_NS)) == null) {
+            fallback.pause(key, intervalNs, pauseNanos);
+        }
+    }
+
+    @Override
+    public long available(String key, long intervalNs) {
+        Long n = eval(AVAILABLE, key, micros(intervalNs), micros(WINDOW_NS));
+        return n != null ? n : fallback.available(key, intervalNs);
+    }
+
+    @Override
+    public long addDaily(String key, long day, long delta, long limit) {
+        Long n = eval(DAILY_ADD, key + ":" + day, Long.toString(delta), Long.toString(limit));
+        return n != null ? n : fallback.addDaily(key, day, delta, limit);
+    }
+
+    @Override
+    public long daily(String key, long day) {
+        try {
+            Object r = command("GET", key + ":" + day);
+            return r == null ? 0L : Long.parseLong(r.toString());
+        } catch (IOException | NumberFormatException e) {
+            return fallback.daily(key, day);
+        }
+    }
+
+    @Override
+    public String name() { return "redis"; }
+
+    /** 执行脚本；Redis 不可用时返回 null（调用方改用本地存储） */
+    private Long eval(String script, String key, String... args) {
+        String[] cmd = new String[4 + args.length];
+        cmd[0] = "EVAL"; cmd[1] = script; cmd[2] = "1"; cmd[3] = key;
+        System.arraycopy(args, 0, cmd, 4, args.length);
+        try {
+            Object r = command(cmd);
+            return r instanceof Long ? (Long) r : Long.parseLong(String.valueOf(r));
+        } catch (RedisError e) {
+            if (!scriptErrorLogged) { scriptErrorLogged = true; log.warn("[Kimi] redis limiter script failed: {}", e.getMessage()); }
+            return null;
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private Object command(String... args) throws IOException {
+        try {
+            if (!permits.tryAcquire(TIMEOUT_MS, TimeUnit.MILLISECONDS)) throw new IOException("redis limiter pool exhausted");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for redis limiter connection");
+        }
+        try {
+            Conn c = idle.poll();
+            if (c == null) c = connect();
+            try {
+                c.write(args);
+                Object r = c.read();
+                idle.offer(c);
+                return r;
+            } catch (RedisError e) {
+                idle.offer(c); // 错误回复已完整读完，连接仍可复用
+                throw e;
+            } catch (IOException | RuntimeException e) {
+                c.close();
+                if (e instanceof IOException) markDown((IOException) e);
+                throw e;
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private Conn connect() throws IOException {
+        if (downSince != 0 && System.nanoTime() - downSince < RECONNECT_COOLDOWN_NS) {
+            throw new IOException("redis limiter store unavailable");
+        }
+        Conn c = null;
+        try {
+            c = new Conn(host, port);
+            if (password != null && !password.isEmpty()) { c.write("AUTH", password); c.read(); }
+            if (db != 0) { c.write("SELECT", Integer.toString(db)); c.read(); }
+            if (downSince != 0) log.info("[Kimi] redis limiter store reconnected");
+            downSince = 0;
+            return c;
+        } catch (IOException e) {
+            if (c != null) c.close();
+            markDown(e);
+            throw e;
+        }
+    }
+
+    /** 连接出错：进入冷却，并丢弃其余空闲连接（服务端重启后它们大多也已失效） */
+    private void markDown(IOException e) {
+        if (downSince == 0) log.warn("[Kimi] redis limiter store unavailable ({}), using local limiter until it recovers", e.getMessage());
+        downSince = System.nanoTime();
+        for (Conn c; (c = idle.poll()) != null; ) c.close();
+    }
+
+    /** 单条 RESP 连接；同一时刻只被一个借用者使用 */
+    private static final class Conn {
+        private final Socket socket = new Socket();
+        private final BufferedInputStream in;
+        private final OutputStream out;
+
+        Conn(String host, int port) throws IOException {
+            try {
+                socket.connect(new InetSocketAddress(host, port), TIMEOUT_MS);
+                socket.setSoTimeout(TIMEOUT_MS);
+                socket.setTcpNoDelay(true);
+                in = new BufferedInputStream(socket.getInputStream());
+                out = new BufferedOutputStream(socket.getOutputStream());
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        void close() {
+            try { socket.close(); } catch (IOException ignore) {}
+        }
+
+        void write(String... args) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            sb.append('*').append(args.length).append("\r\n");
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            for (String a : args) {
+                byte[] b = a.getBytes(StandardCharsets.UTF_8);
+                out.write(('$' + Integer.toString(b.length) + "\r\n").getBytes(StandardCharsets.UTF_8));
+                out.write(b);
+                out.write('\r'); out.write('\n');
+            }
+            out.flush();
+        }
+
+        Object read() throws IOException {
+            int type = in.read();
+            if (type < 0) throw new EOFException("redis connection closed");
+            String line = readLine();
+            switch (type) {
+                case '+': return line;
+                case '-': throw new RedisError(line);
+                case ':': return Long.parseLong(line);
+                case '$': {
+                    int len = Integer.parseInt(line);
+                    if (len < 0) return null;
+                    byte[] b = in.readNBytes(len);
+                    readLine();
+                    return new String(b, StandardCharsets.UTF_8);
+                }
+                case '*': {
+                    int n = Integer.parseInt(line);
+                    Object[] arr = new Object[Math.max(0, n)];
+                    for (int i = 0; i < n; i++) arr[i] = read();
+                    return arr;
+                }
+                default: throw new IOException("unexpected RESP type: " + (char) type);
+            }
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = in.read()) != '\r') {
+                if (c < 0) throw new EOFException("redis connection closed");
+                sb.append((char) c);
+            }
+            in.read(); // '\n'
+            return sb.toString();
+        }
+    }
+
+    private static String micros(long nanos) {
+        return Double.toString(nanos / 1000.0);
+    }
+
+    /** 服务端错误回复（脚本错误等）：连接本身仍可用 */
+    private static final class RedisError extends IOException {
+        private static final long serialVersionUID = 1L;
+        RedisError(String msg) { super(msg); }
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.demo;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 对冲请求：一次模型调用超过近期耗时的 P{TRANSLATE_HEDGE_PERCENTILE} 仍未返回时，再发一份相同请求，
+ * 先成功者胜出，另一份立即取消（Kimi 侧随之 cancel HTTP 调用）。副本同样经过限流器计费，
+ * 并作为所属作业的批次进入 FairShareScheduler 排队，占用该作业的公平份额。
+ * 样本不足或阈值低于 TRANSLATE_HEDGE_MIN_MS 时不对冲。
+ */
+@Slf4j
+@Component
+public class RequestHedger {
+
+    // ===== 参数（可用 .env 覆盖） =====
+    private static final boolean ENABLED =
+            Boolean.parseBoolean(System.getenv().getOrDefault("TRANSLATE_HEDGE_ENABLED", "false"));
+    private static final int PERCENTILE = Math.min(99, Math.max(50, getEnvInt("TRANSLATE_HEDGE_PERCENTILE", 95)));
+    private static final int MIN_DELAY_MS = getEnvInt("TRANSLATE_HEDGE_MIN_MS", 2000);
+    private static final int MIN_SAMPLES = 20;
+    private static final int WINDOW = 512;
+
+    private static int getEnvInt(String k, int d){ try { return Integer.parseInt(System.getenv().getOrDefault(k, String.valueOf(d))); } catch(Exception e){ return d; } }
+
+    @Autowired
+    private FairShareScheduler scheduler;
+
+    // 最近 WINDOW 次成功调用的耗时（毫秒），环形缓冲
+    private final long[] samples = new long[WINDOW];
+    private int sampleCount = 0, sampleNext = 0;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder hedged = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "hedge-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final int RUNNING = 0, PRIMARY_DONE = 1, PREEMPTED = 2;
+
+    /** 一次可能被对冲的调用 */
+    private static final class Hedge<T> {
+        final Thread caller;
+        final AtomicInteger state = new AtomicInteger(RUNNING);
+        final CountDownLatch interruptSent = new CountDownLatch(1);
+        CompletableFuture<T> backupResult; // 仅在 synchronized(this) 下读写
+        Future<?> backupTask;
+        volatile boolean backupStarted;   // 副本已从调度队列取出开始执行
+        Hedge(Thread caller) { this.caller = caller; }
+    }
+
+    /**
+     * 主请求在调用线程里执行（不额外占执行器线程，执行器排满也不会死锁）；
+     * 超过阈值由定时器把副本按 job/cost 提交到公平调度器。副本先成功时中断调用线程，令 Kimi 取消主请求的 HTTP 调用。
+     */
+    public <T> T call(FairShareScheduler.Job job, int cost, Callable<T> task) throws IOException {
+        calls.increment();
+        long delay = ENABLED ? thresholdMs() : -1;
+        long t0 = System.nanoTime();
+        if (delay < 0) {
+            T r = unwrap(task);
+            record(t0);
+            return r;
+        }
+
+        Hedge<T> h = new Hedge<>(Thread.currentThread());
+        ScheduledFuture<?> trigger = timer.schedule(() -> launchBackup(h, job, cost, task, delay), delay, TimeUnit.MILLISECONDS);
+        T primary = null;
+        Exception primaryError = null;
+        try {
+            primary = task.call();
+        } catch (Exception e) {
+            primaryError = e;
+        } finally {
+            trigger.cancel(false);
+        }
+
+        boolean preempted;
+        CompletableFuture<T> backup;
+        synchronized (h) {
+            preempted = !h.state.compareAndSet(RUNNING, PRIMARY_DONE);
+            backup = h.backupResult;
+        }
+
+        if (preempted) {
+            // 副本已胜出并中断了本线程：等中断确实发出后清掉标记，再取副本结果
+            while (true) {
+                try { h.interruptSent.await(); break; } catch (InterruptedException ignore) { /* 正是副本发来的中断 */ }
+            }
+            Thread.interrupted();
+            hedgeWins.increment();
+            record(t0);
+            return backup.join();
+        }
+        if (primaryError == null) {
+            if (backup != null) h.backupTask.cancel(true);
+            record(t0);
+            return primary;
+        }
+        // 副本还排在调度队列里：不等它（调用线程自己就占着调度槽位，等下去可能互等），按主请求失败处理
+        if (backup != null && !h.backupStarted && h.backupTask.cancel(false)) backup = null;
+        if (backup != null) {
+            try {
+                T r = backup.get();
+                hedgeWins.increment();
+                record(t0);
+                return r;
+            } catch (InterruptedException ie) {
+                h.backupTask.cancel(true);
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ignore) {
+                // 两份都失败：抛主请求的错误
+            }
+        }
+        if (primaryError instanceof IOException) throw (IOException) primaryError;
+        if (primaryError instanceof RuntimeException) throw (RuntimeException) primaryError;
+        throw new IOException(primaryError);
+    }
+
+    public Map<String, Object> stats() {
+        long c = calls.sum(), h = hedged.sum(), w = hedgeWins.sum();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", ENABLED);
+        m.put("percentile", PERCENTILE);
+        m.put("thresholdMs", thresholdMs());
+        m.put("calls", c);
+        m.put("hedged", h);
+        m.put("hedgeWins", w);
+        m.put("hedgeRate", c == 0 ? 0.0 : (double) h / c);
+        m.put("winRate", h == 0 ? 0.0 : (double) w / h);
+        return m;
+    }
+
+    @PreDestroy
+    public void shutdown() { timer.shutdownNow(); }
+
+    private <T> void launchBackup(Hedge<T> h, FairShareScheduler.Job job, int cost, Callable<T> task, long delay) {
+        synchronized (h) {
+            if (h.state.get() != RUNNING) return;
+            hedged.increment();
+            log.info("model call exceeded p{} ({} ms), sending hedge request", PERCENTILE, delay);
+            CompletableFuture<T> result = new CompletableFuture<>();
+            h.backupResult = result;
+            h.backupTask = scheduler.submit(job, cost, () -> {
+                h.backupStarted = true;
+                try {
+                    result.complete(task.call());
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                    return null;
+                }
+                if (h.state.compareAndSet(RUNNING, PREEMPTED)) {
+                    h.caller.interrupt();
+                    h.interruptSent.countDown();
+                }
+                return null;
+            });
+        }
+    }
+
+    /** 当前对冲阈值；样本不足返回 -1 */
+    private synchronized long thresholdMs() {
+        if (sampleCount < MIN_SAMPLES) return -1;
+        long[] copy = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(copy);
+        long p = copy[Math.min(copy.length - 1, (int) Math.ceil(copy.length * PERCENTILE / 100.0) - 1)];
+        return Math.max(MIN_DELAY_MS, p);
+    }
+
+    private synchronized void record(long startNanos) {
+        samples[sampleNext] = (System.nanoTime() - startNanos) / 1_000_000L;
+        sampleNext = (sampleNext + 1) % WINDOW;
+        if (sampleCount < WINDOW) sampleCount++;
+    }
+
+    private static <T> T unwrap(Callable<T> task) throws IOException {
+        try {
+            return task.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.demo;
+
+import java.util.*;
+
+/**
+ * 抽取结果的列式存储（所有抽取器共用）：每个片段一行 = 类型码 + 4 个位置坐标 + run 区间 + 2 个字符串引用 + 原文。
+ * 取代每个片段一个 HashMap<String,Object>（装箱 Integer、字符串键、回填时强转/拼键再 split）的做法：
+ * 坐标放在原生 int 列里，字符串列做字典编码（路径类取值高度重复），回填按行号直接取值。
+ * 各列含义由调用方按类型码约定，见各抽取器里类型常量的注释。
+ */
+final class SegmentTable {
+
+    static final int LOCATION_COLUMNS = 4;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private byte[] types = new byte[INITIAL_CAPACITY];
+    private final int[][] locations = new int[LOCATION_COLUMNS][INITIAL_CAPACITY];
+    private int[] runStarts = new int[INITIAL_CAPACITY];
+    private int[] runEnds = new int[INITIAL_CAPACITY];
+    private int[] refs0 = new int[INITIAL_CAPACITY]; // 字典下标 + 1；0 表示 null
+    private int[] refs1 = new int[INITIAL_CAPACITY];
+    private final List<String> texts = new ArrayList<>();
+
+    private final List<String> dict = new ArrayList<>();
+    private final Map<String, Integer> dictIds = new HashMap<>();
+    private int size;
+
+    /** 追加一行并返回行号；用不到的坐标传 0 */
+    int add(byte type, String text, int loc0, int loc1, int loc2, int loc3, int runStart, int runEnd) {
+        if (size == types.length) grow();
+        int row = size++;
+        types[row] = type;
+        locations[0][row] = loc0;
+        locations[1][row] = loc1;
+        locations[2][row] = loc2;
+        locations[3][row] = loc3;
+        runStarts[row] = runStart;
+        runEnds[row] = runEnd;
+        texts.add(text);
+        return row;
+    }
+
+    /** 设置该行的字符串引用（col = 0/1），null 表示缺省 */
+    void setRef(int row, int col, String value) {
+        int id = 0;
+        if (value != null) {
+            Integer known = dictIds.get(value);
+            if (known == null) {
+                dict.add(value);
+                known = dict.size();
+                dictIds.put(value, known);
+            }
+            id = known;
+        }
+        if (col == 0) refs0[row] = id; else refs1[row] = id;
+    }
+
+    int size() { return size; }
+    byte type(int row) { return types[row]; }
+    int location(int row, int col) { return locations[col][row]; }
+    int runStart(int row) { return runStarts[row]; }
+    int runEnd(int row) { return runEnds[row]; }
+    String text(int row) { return texts.get(row); }
+
+    String ref(int row, int col) {
+        int id = (col == 0) ? refs0[row] : refs1[row];
+        return id == 0 ? null : dict.get(id - 1);
+    }
+
+    /** 全部原文，按行号顺序（直接交给 batchTranslate，译文下标即行号） */
+    List<String> texts() { return texts; }
+
+    /** 两行类型相同且位置坐标全部相同（同一段落/单元格内的片段） */
+    boolean sameLocation(int a, int b) {
+        if (types[a] != types[b]) return false;
+        for (int[] col : locations) if (col[a] != col[b]) return false;
+        return true;
+    }
+
+    int count(byte type) {
+        int n = 0;
+        for (int i = 0; i < size; i++) if (types[i] == type) n++;
+        return n;
+    }
+
+    private void grow() {
+        int cap = types.length * 2;
+        types = Arrays.copyOf(types, cap);
+        for (int c = 0; c < LOCATION_COLUMNS; c++) locations[c] = Arrays.copyOf(locations[c], cap);
+        runStarts = Arrays.copyOf(runStarts, cap);
+        runEnds = Arrays.copyOf(runEnds, cap);
+        refs0 = Arrays.copyOf(refs0, cap);
+        refs1 = Arrays.copyOf(refs1, cap);
+    }
+}
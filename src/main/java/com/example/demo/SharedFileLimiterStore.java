@@ -0,0 +1,182 @@
+package com.example.demo;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * 同机多进程共享的限流状态：固定大小的 mmap 文件，按 key 的 64 位哈希开放寻址。
+ * 每次读改写先取进程内锁再取文件锁（FileLock 只在进程之间互斥），临界区只有几次内存读写。
+ * 时钟用墙钟纳秒（各进程一致），不用 System.nanoTime（每个 JVM 的起点不同）。
+ *
+ * 布局：头 64 字节（MAGIC），之后 SLOTS 个 32 字节槽位 [keyHash][value][day][保留]。
+ */
+@Slf4j
+final class SharedFileLimiterStore implements LimiterStore {
+
+    private static final long MAGIC = 0x4B494D494C494D31L; // "KIMILIM1"
+    private static final int HEADER = 64;
+    private static final int SLOT_BYTES = 32;
+    private static final int SLOTS = 4096;
+    private static final int SIZE = HEADER + SLOTS * SLOT_BYTES;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final ReentrantLock localLock = new ReentrantLock();
+
+    private SharedFileLimiterStore(Path path) throws IOException {
+        this.path = path;
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock lock = channel.lock();
+        try {
+            if (channel.size() < SIZE) {
+                channel.write(java.nio.ByteBuffer.allocate(1), SIZE - 1); // 扩到固定大小（新区域全 0）
+            }
+            this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+            if (map.getLong(0) != MAGIC) map.putLong(0, MAGIC);
+        } finally {
+            lock.release();
+        }
+    }
+
+    /** 打不开文件时退回进程内存储（限流仍然有效，只是不跨进程） */
+    static LimiterStore open(String file) {
+        try {
+            SharedFileLimiterStore s = new SharedFileLimiterStore(Paths.get(file));
+            log.info("[Kimi] limiter store: shared file {}", s.path.toAbsolutePath());
+            return s;
+        } catch (IOException | RuntimeException e) {
+            log.warn("[Kimi] limiter file {} unavailable ({}), falling back to local limiter", file, e.getMessage());
+            return new LocalLimiterStore();
+        }
+    }
+
+    @Override
+    public long reserve(String key, long intervalNs, long cost) {
+        long[] wait = new long[1];
+        update(key, (tat, now) -> {
+            long next = LimiterStore.gcraReserve(tat, now, intervalNs, cost);
+            wait[0] = next - WINDOW_NS - now;
+            return next;
+        });
+        return wait[0];
+    }
+
+    @Override
+    public void adjust(String key, long intervalNs, long cost) {
+        update(key, (tat, now) -> LimiterStore.gcraAdjust(tat, now, intervalNs, cost));
+    }
+
+    @Override
+    public void pause(String key, long intervalNs, long pauseNanos) {
+        update(key, (tat, now) -> LimiterStore.gcraPause(tat, now, intervalNs, pauseNanos));
+    }
+
+    @Override
+    public long available(String key, long intervalNs) {
+        long[] avail = new long[1];
+        update(key, (tat, now) -> {
+            avail[0] = LimiterStore.gcraAvailable(tat, now, intervalNs);
+            return tat;
+        });
+        return avail[0];
+    }
+
+    @Override
+    public long addDaily(String key, long day, long delta, long limit) {
+        return locked(key, slot -> {
+            boolean sameDay = map.getLong(slot + 16) == day;
+            if (delta < 0 && !sameDay) return 0L;
+            long used = sameDay ? map.getLong(slot + 8) : 0L;
+            if (delta > 0 && limit > 0 && used + delta > limit) return -1L;
+            long next = Math.max(0L, used + delta);
+            map.putLong(slot + 8, next);
+            map.putLong(slot + 16, day);
+            return next;
+        });
+    }
+
+    @Override
+    public long daily(String key, long day) {
+        return locked(key, slot -> map.getLong(slot + 16) == day ? map.getLong(slot + 8) : 0L);
+    }
+
+    @Override
+    public String name() { return "file"; }
+
+    // —— TAT 槽位：value 为墙钟纳秒；0 表示新槽（桶空） ——
+    private void update(String key, LongBinaryOperator fn) {
+        locked(key, slot -> {
+            long now = wallNanos();
+            long tat = map.getLong(slot + 8);
+            long next = fn.applyAsLong(tat == 0 ? now : tat, now);
+            map.putLong(slot + 8, next);
+            return next;
+        });
+    }
+
+    private interface SlotOp { long apply(int slotOffset); }
+
+    private long locked(String key, SlotOp op) {
+        long h = hash(key);
+        localLock.lock();
+        try {
+            FileLock lock = channel.lock();
+            try {
+                return op.apply(slotOf(h));
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("限流文件加锁失败: " + path, e);
+        } finally {
+            localLock.unlock();
+        }
+    }
+
+    /** 线性探测；表满时复用起始槽（只会让两个 key 共享额度，不会出错） */
+    private int slotOf(long h) {
+        int start = (int) Long.remainderUnsigned(h, SLOTS);
+        for (int i = 0; i < SLOTS; i++) {
+            int off = HEADER + ((start + i) % SLOTS) * SLOT_BYTES;
+            long k = map.getLong(off);
+            if (k == h) return off;
+            if (k == 0) {
+                map.putLong(off, h);
+                map.putLong(off + 8, 0L);
+                map.putLong(off + 16, 0L);
+                return off;
+            }
+        }
+        return HEADER + start * SLOT_BYTES;
+    }
+
+    /** FNV-1a 64；0 保留给空槽 */
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h == 0 ? 1 : h;
+    }
+
+    private static long wallNanos() {
+        Instant t = Instant.now();
+        return t.getEpochSecond() * 1_000_000_000L + t.getNano();
+    }
+}
@@ -0,0 +1,445 @@
+package com.example.demo;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * DOCX 流式引擎（DOCX_ENGINE=stax）：不构建 XWPFDocument，用 StAX 直接扫描 word/document.xml 与页眉/页脚/脚注/尾注部件。
+ * 第一遍按 FormatChangeSegmenter 的规则分段（格式变化、超链接/域边界断段，含 <w:tab/> 的 run 为硬边界且不计入文本），
+ * 同时给每个 run 记下回填动作；第二遍边读边写：译文写入每段第一个 run，其余 run 删除（锚点 run 只清文本），
+ * 其他 zip 条目按原压缩字节直通（OoxmlZip）。内存占用与文档大小基本无关，只保留片段文本与每个 run 一个字节的动作表。
+ *
+ * 与 POI 引擎的差别：文本框、块级 SDT 内的段落按普通段落分段回填（不再逐 run / 整段替换）；
+ * 不同超链接、run 级 SDT 之间也断段，避免译文被挪进别的链接；含图片/对象的 run 只清文本不删除。
+ */
+public final class StaxDocxProcessor {
+    private StaxDocxProcessor() {}
+
+    private static final String NS_W = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+    private static final String NS_XML = "http://www.w3.org/XML/1998/namespace";
+    private static final Pattern TEXT_PART = Pattern.compile("word/(document|header\\d*|footer\\d*|footnotes|endnotes)\\.xml");
+    private static final MergePolicy POLICY = MergePolicy.loose();
+
+    // run 的回填动作
+    private static final byte KEEP = 0, WRITE = 1, CLEAR = 2, REMOVE = 3;
+
+    private static final XMLEventFactory EVENTS = XMLEventFactory.newInstance();
+
+    /** 第一遍的结果：待译文本（按出现顺序）+ 每个部件的 run 动作表 */
+    public static final class Extraction {
+        public final List<String> texts = new ArrayList<>();
+        final Map<String, PartPlan> parts = new HashMap<>();
+    }
+
+    /** 部件内按 run 出现序号索引的动作表；WRITE 的 run 记录其译文下标 */
+    private static final class PartPlan {
+        byte[] role = new byte[256];
+        int[] seg = new int[256];
+        final BitSet touched = new BitSet(); // 有回填的段落（按段落序号），回填后去掉其中的 proofErr
+        int writes;
+
+        void set(int run, byte r, int s) {
+            if (run >= role.length) {
+                int n = Math.max(run + 1, role.length * 2);
+                role = Arrays.copyOf(role, n);
+                seg = Arrays.copyOf(seg, n);
+            }
+            role[run] = r; seg[run] = s;
+            if (r == WRITE) writes++;
+        }
+
+        byte role(int run) { return run < role.length ? role[run] : KEEP; }
+    }
+
+    // ===================== 提取 =====================
+
+    public static Extraction extract(OoxmlZip docx) throws IOException, XMLStreamException {
+        Extraction ex = new Extraction();
+        XMLInputFactory inf = inputFactory();
+        for (String name : docx.names()) {
+            if (!TEXT_PART.matcher(name).matches()) continue;
+            PartPlan plan = new PartPlan();
+            try (InputStream in = docx.open(name)) {
+                scan(inf.createXMLStreamReader(in), plan, ex.texts);
+            }
+            if (plan.writes > 0) ex.parts.put(name, plan);
+        }
+        return ex;
+    }
+
+    private static void scan(XMLStreamReader r, PartPlan plan, List<String> texts) throws XMLStreamException {
+        Walker w = new Walker();
+        Deque<ParaScan> paras = new ArrayDeque<>();
+        Deque<RunScan> runs = new ArrayDeque<>(); // 文本框里的段落嵌在外层 run 内，run 也要成栈
+        try {
+            while (r.hasNext()) {
+                switch (r.next()) {
+                    case XMLStreamConstants.START_ELEMENT: {
+                        int k = w.start(r.getNamespaceURI(), r.getLocalName());
+                        if (k == Walker.PARA) {
+                            paras.push(new ParaScan(w.lastPara));
+                        } else if (k == Walker.RUN) {
+                            int d = w.depth;
+                            RunScan rs = new RunScan(w.lastRun, d, w.container[d], w.link[d], w.field[d]);
+                            runs.push(rs);
+                            paras.peek().runs.add(rs);
+                        } else if (!runs.isEmpty()) {
+                            runs.peek().child(w.depth, r);
+                        }
+                        break;
+                    }
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE: {
+                        RunScan rs = runs.peek();
+                        if (rs != null && rs.inText == w.depth) {
+                            rs.text.append(r.getTextCharacters(), r.getTextStart(), r.getTextLength());
+                        }
+                        break;
+                    }
+                    case XMLStreamConstants.END_ELEMENT: {
+                        int k = w.kind[w.depth];
+                        if (k == Walker.PARA) {
+                            segment(paras.pop(), plan, texts);
+                        } else if (k == Walker.RUN) {
+                            runs.pop().finish();
+                        } else if (!runs.isEmpty() && runs.peek().inText == w.depth) {
+                            runs.peek().inText = -1;
+                        }
+                        w.end();
+                        break;
+                    }
+                    default:
+                }
+            }
+        } finally {
+            r.close();
+        }
+    }
+
+    /** 与 FormatChangeSegmenter.segmentParagraph 相同的分段规则，另加“所属超链接/域/SDT 不同即断段” */
+    private static void segment(ParaScan p, PartPlan plan, List<String> texts) {
+        List<RunScan> rs = p.runs;
+        int segStart = -1;
+        FormatChangeSegmenter.StyleKey segKey = null;
+        StringBuilder segText = new StringBuilder();
+
+        for (int i = 0; i < rs.size(); i++) {
+            RunScan r = rs.get(i);
+            if (r.tab) {
+                if (segStart != -1) emit(p, segStart, i - 1, segText, plan, texts);
+                segStart = -1; segKey = null; segText.setLength(0);
+                continue; // tab run 自身不纳入文本
+            }
+            if (segStart == -1) {
+                segStart = i; segKey = r.key;
+                segText.append(r.text);
+                continue;
+            }
+            if (r.container != rs.get(i - 1).container || !FormatChangeSegmenter.softEqual(segKey, r.key, POLICY)) {
+                emit(p, segStart, i - 1, segText, plan, texts);
+                segStart = i; segKey = r.key; segText.setLength(0);
+            }
+            segText.append(r.text);
+        }
+        if (segStart != -1) emit(p, segStart, rs.size() - 1, segText, plan, texts);
+    }
+
+    private static void emit(ParaScan p, int from, int to, StringBuilder text, PartPlan plan, List<String> texts) {
+        if (!notBlank(text)) return;
+        int idx = texts.size();
+        texts.add(text.toString());
+        plan.set(p.runs.get(from).ord, WRITE, idx);
+        for (int i = from + 1; i <= to; i++) {
+            RunScan r = p.runs.get(i);
+            plan.set(r.ord, r.anchored() ? CLEAR : REMOVE, -1);
+        }
+        plan.touched.set(p.ord);
+    }
+
+    private static final class ParaScan {
+        final int ord;
+        final List<RunScan> runs = new ArrayList<>();
+        ParaScan(int ord) { this.ord = ord; }
+    }
+
+    /** 单个 run：直接子元素决定文本/锚点属性，rPr 的子元素决定 StyleKey */
+    private static final class RunScan {
+        final int ord, depth, container;
+        final boolean link, field;
+        final StringBuilder text = new StringBuilder();
+        int inText = -1;          // 正在读取的 <w:t> 的深度
+        boolean inRPr;            // 最近一个直接子元素是 rPr
+        boolean tab, fieldMark, plain = true; // plain：只有 rPr/t/br 等纯文本子元素，可整体删除
+
+        String font, underline, color, vertAlign, highlight;
+        Integer sizePt, spacing;
+        boolean bold, italic, strike;
+        FormatChangeSegmenter.StyleKey key;
+
+        RunScan(int ord, int depth, int container, boolean link, boolean field) {
+            this.ord = ord; this.depth = depth; this.container = container; this.link = link; this.field = field;
+        }
+
+        void child(int d, XMLStreamReader r) {
+            if (d == depth + 1) {
+                inRPr = false;
+                if (!NS_W.equals(r.getNamespaceURI())) { plain = false; return; }
+                switch (r.getLocalName()) {
+                    case "rPr": inRPr = true; break;
+                    case "t": inText = d; break;
+                    case "br": case "cr": text.append('\n'); break;
+                    case "tab": tab = true; plain = false; break;
+                    case "fldChar": case "instrText": fieldMark = true; plain = false; break;
+                    case "lastRenderedPageBreak": case "softHyphen": case "noBreakHyphen": break;
+                    default: plain = false; // 图片、对象、脚注/批注引用等：保留结构
+                }
+            } else if (d == depth + 2 && inRPr && NS_W.equals(r.getNamespaceURI())) {
+                String val = r.getAttributeValue(NS_W, "val");
+                switch (r.getLocalName()) {
+                    case "rFonts": font = r.getAttributeValue(NS_W, "ascii"); break;
+                    case "sz": {
+                        Integer half = parseInt(val);
+                        if (half != null) sizePt = Math.max(0, (int) Math.round(half / 2.0));
+                        break;
+                    }
+                    case "b": bold = onOff(val); break;
+                    case "i": italic = onOff(val); break;
+                    case "strike": strike = onOff(val); break;
+                    case "u": underline = val; break;
+                    case "color": color = val; break;
+                    case "vertAlign": vertAlign = val; break;
+                    case "spacing": spacing = parseInt(val); break;
+                    case "highlight": highlight = val; break;
+                    default:
+                }
+            }
+        }
+
+        void finish() {
+            key = FormatChangeSegmenter.intern(new FormatChangeSegmenter.StyleKey(font, sizePt, bold, italic, strike,
+                    FormatChangeSegmenter.underlineName(underline), color, vertAlign, link, field || fieldMark, spacing, highlight));
+        }
+
+        /** 与 SegmentRestorer.isAnchoredRun 一致：超链接/域/tab/引用等 run 只清文本不删除 */
+        boolean anchored() { return link || field || fieldMark || tab || !plain; }
+    }
+
+    // ===================== 回填 =====================
+
+    /** 第二遍：只改写有回填的部件，其余条目按原压缩字节直通到 out */
+    public static void restore(OoxmlZip docx, Extraction ex, List<String> translated, OutputStream out) throws IOException {
+        XMLInputFactory inf = inputFactory();
+        XMLOutputFactory outf = XMLOutputFactory.newInstance();
+        Map<String, OoxmlZip.PartWriter> rewrites = new HashMap<>();
+        for (Map.Entry<String, PartPlan> e : ex.parts.entrySet()) {
+            PartPlan plan = e.getValue();
+            rewrites.put(e.getKey(), (in, o) -> {
+                try {
+                    rewrite(inf.createXMLEventReader(in), outf.createXMLEventWriter(nonClosing(o), "UTF-8"), plan, translated);
+                } catch (XMLStreamException x) {
+                    throw new IOException("rewrite " + e.getKey() + " failed: " + x.getMessage(), x);
+                }
+            });
+        }
+        docx.write(rewrites, out);
+    }
+
+    private static void rewrite(XMLEventReader r, XMLEventWriter w, PartPlan plan, List<String> translated)
+            throws XMLStreamException {
+        Walker wk = new Walker();
+        byte[] roleAt = new byte[64];  // 按深度：该层 run 的动作
+        int[] segAt = new int[64];
+        boolean[] touchedAt = new boolean[64];
+        int touched = 0;               // 外层有回填段落的层数
+        int skip = 0;                  // >0 时正在跳过一个子树
+
+        try {
+            while (r.hasNext()) {
+                XMLEvent e = r.nextEvent();
+                if (e.isStartElement()) {
+                    StartElement se = e.asStartElement();
+                    QName n = se.getName();
+                    int k = wk.start(n.getNamespaceURI(), n.getLocalPart());
+                    int d = wk.depth;
+                    if (d >= roleAt.length) {
+                        roleAt = Arrays.copyOf(roleAt, d * 2);
+                        segAt = Arrays.copyOf(segAt, d * 2);
+                        touchedAt = Arrays.copyOf(touchedAt, d * 2);
+                    }
+                    roleAt[d] = KEEP; touchedAt[d] = false;
+                    if (skip > 0) { skip++; continue; }
+
+                    if (k == Walker.PARA) {
+                        if (plan.touched.get(wk.lastPara)) { touchedAt[d] = true; touched++; }
+                    } else if (k == Walker.RUN) {
+                        byte role = plan.role(wk.lastRun);
+                        if (role == REMOVE) { skip = 1; continue; }
+                        roleAt[d] = role;
+                        segAt[d] = plan.seg[wk.lastRun];
+                    } else if (NS_W.equals(n.getNamespaceURI())) {
+                        String ln = n.getLocalPart();
+                        boolean runText = "t".equals(ln) || "br".equals(ln) || "cr".equals(ln) || "instrText".equals(ln);
+                        if ((runText && roleAt[d - 1] != KEEP) || ("proofErr".equals(ln) && touched > 0)) {
+                            skip = 1;
+                            continue;
+                        }
+                    }
+                    w.add(e);
+                } else if (e.isEndElement()) {
+                    int d = wk.depth;
+                    wk.end();
+                    if (skip > 0) { skip--; continue; }
+                    if (roleAt[d] == WRITE) {
+                        writeText(w, e.asEndElement().getName().getPrefix(), translated.get(segAt[d]));
+                    }
+                    if (touchedAt[d]) touched--;
+                    w.add(e);
+                } else if (skip == 0) {
+                    w.add(e);
+                }
+            }
+            w.flush();
+        } finally {
+            w.close();
+            r.close();
+        }
+    }
+
+    /** 与 SegmentRestorer.writeTextToRun 一致：每行一个 <w:t xml:space="preserve">，行间 <w:br/> */
+    private static void writeText(XMLEventWriter w, String prefix, String text) throws XMLStreamException {
+        String s = (text == null) ? "" : text.replace("\r\n", "\n").replace('\r', '\n')
+                .replace('\u2028', '\n').replace('\u2029', '\n');
+        String[] lines = s.split("\n", -1);
+        for (int i = 0; i < lines.length; i++) {
+            if (i > 0) {
+                w.add(EVENTS.createStartElement(prefix, NS_W, "br"));
+                w.add(EVENTS.createEndElement(prefix, NS_W, "br"));
+            }
+            w.add(EVENTS.createStartElement(prefix, NS_W, "t",
+                    Collections.singletonList(EVENTS.createAttribute("xml", NS_XML, "space", "preserve")).iterator(),
+                    null));
+            w.add(EVENTS.createCharacters(lines[i]));
+            w.add(EVENTS.createEndElement(prefix, NS_W, "t"));
+        }
+    }
+
+    // ===================== 结构跟踪（两遍共用，编号规则必须一致） =====================
+
+    /**
+     * 段落与 run 的编号：w:p 按开始标签顺序编号；w:r 只有“属于段落”时才编号
+     * （直接在 w:p 下，或经由 hyperlink/fldSimple/smartTag/ins/sdt 等 run 容器），与 XWPFParagraph.getRuns 的范围一致。
+     * w:del/w:moveFrom 里的 run 不编号，删除修订保持原样。
+     */
+    private static final class Walker {
+        static final int OTHER = 0, PARA = 1, RUN = 2;
+
+        int depth;
+        int elements, paras, runs;
+        int lastPara = -1, lastRun = -1;
+        int[] kind = new int[64];
+        boolean[] runCtx = new boolean[64];  // 该元素下的 w:r 是否属于最近的段落
+        int[] container = new int[64];       // 最近的超链接/域/SDT 编号（0=直接在段落下）
+        boolean[] link = new boolean[64];
+        boolean[] field = new boolean[64];
+
+        int start(String ns, String local) {
+            int d = ++depth;
+            if (d >= kind.length) {
+                int n = d * 2;
+                kind = Arrays.copyOf(kind, n); runCtx = Arrays.copyOf(runCtx, n);
+                container = Arrays.copyOf(container, n);
+                link = Arrays.copyOf(link, n); field = Arrays.copyOf(field, n);
+            }
+            elements++;
+            boolean inPara = runCtx[d - 1];
+            int k = OTHER;
+            boolean ctx = false;
+            container[d] = container[d - 1]; link[d] = link[d - 1]; field[d] = field[d - 1];
+
+            if (NS_W.equals(ns)) {
+                switch (local) {
+                    case "p":
+                        k = PARA; ctx = true;
+                        container[d] = 0; link[d] = false; field[d] = false;
+                        lastPara = paras++;
+                        break;
+                    case "r":
+                        if (inPara) { k = RUN; lastRun = runs++; }
+                        break;
+                    case "hyperlink":
+                        if (inPara) { ctx = true; container[d] = elements; link[d] = true; }
+                        break;
+                    case "fldSimple":
+                        if (inPara) { ctx = true; container[d] = elements; field[d] = true; }
+                        break;
+                    case "sdt":
+                        if (inPara) { ctx = true; container[d] = elements; }
+                        break;
+                    case "sdtContent": case "smartTag": case "ins": case "moveTo": case "customXml":
+                        ctx = inPara;
+                        break;
+                    default:
+                }
+            }
+            kind[d] = k;
+            runCtx[d] = ctx;
+            return k;
+        }
+
+        void end() { depth--; }
+    }
+
+    // ===================== 工具 =====================
+
+    private static XMLInputFactory inputFactory() {
+        XMLInputFactory f = XMLInputFactory.newInstance();
+        f.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return f;
+    }
+
+    /** StAX writer 关闭时不能顺带关掉部件输出流；JDK 的实现按字节写出，先缓冲 */
+    private static OutputStream nonClosing(OutputStream out) {
+        return new BufferedOutputStream(out, 64 * 1024) {
+            @Override public void close() throws IOException { flush(); }
+        };
+    }
+
+    private static boolean onOff(String v) {
+        return v == null || !("false".equals(v) || "0".equals(v) || "off".equals(v));
+    }
+
+    private static Integer parseInt(String v) {
+        if (v == null || v.isEmpty()) return null;
+        try { return Integer.parseInt(v); } catch (NumberFormatException e) { return null; }
+    }
+
+    private static boolean notBlank(CharSequence s) {
+        for (int i = 0; i < s.length(); i++) if (s.charAt(i) > ' ') return true;
+        return false;
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.demo;
+
+/**
+ * 片段清洗与“微小片段”判定的单遍实现（输出与原先的正则链逐字一致）：
+ * 去 BOM → 去孤立代理项 → ASCII 控制字符改空格（保留 \r\n\t）→ \r\n/\r 统一为 \n → NBSP 改空格
+ * → 连续 2 个以上空格/制表符压成一个空格 → trim → 删除两个汉字之间的所有空白。
+ * 逐字符扫描一次写入线程内复用的 char[]（输出不会比输入长），内容未变化时直接返回原字符串；判定不分配任何对象。
+ */
+final class TextNormalizer {
+
+    private static final String CJK_PUNCT = "、，。！？：；…—·《》〈〉“”‘’（）【】";
+    private static final int INITIAL_BUFFER = 256;
+
+    // 每个线程一份：复用输出缓冲与扫描状态
+    private static final ThreadLocal<TextNormalizer> LOCAL = ThreadLocal.withInitial(TextNormalizer::new);
+
+    private char[] out = new char[INITIAL_BUFFER];
+    private int len;
+    private int spaces;          // 待输出的连续空格/制表符个数
+    private char firstSpace;     // 只有 1 个时原样输出它
+    private int wsStart;         // 当前空白段（空格/制表符/换行）在 out 中的起点；-1 表示不在空白段
+    private boolean hanBeforeWs; // 空白段前一个码点是否汉字
+    private boolean lastHan;     // 最后一个非空白码点是否汉字
+
+    private TextNormalizer() {}
+
+    /** 原 cleanForJson：null 视为空串 */
+    static String clean(String s) {
+        if (s == null) return "";
+        return s.isEmpty() ? s : LOCAL.get().run(s);
+    }
+
+    private String run(String s) {
+        final int n = s.length();
+        if (out.length < n + 2) out = new char[Math.max(n + 2, out.length * 2)];
+        len = 0; spaces = 0; wsStart = -1; hanBeforeWs = false; lastHan = false;
+
+        boolean pendingCr = false; // 上一个字符是 \r，看下一个是否 \n 再决定
+        for (int i = (s.charAt(0) == '\uFEFF') ? 1 : 0; i < n; i++) {
+            char c = s.charAt(i);
+            char low = 0;
+            if (Character.isHighSurrogate(c)) {
+                if (i + 1 >= n || !Character.isLowSurrogate(s.charAt(i + 1))) continue; // 孤立高代理
+                low = s.charAt(++i);
+            } else if (Character.isLowSurrogate(c)) {
+                continue; // 孤立低代理
+            } else if (c == '\r') {
+                if (pendingCr) whitespace('\n');
+                pendingCr = true;
+                continue;
+            } else if ((c < 0x20 && c != '\n' && c != '\t') || c == 0x7F || c == '\u00A0') {
+                c = ' ';
+            }
+            if (pendingCr) {
+                pendingCr = false;
+                if (c != '\n') whitespace('\n'); // 孤立 \r → \n；\r\n 只留 \n
+            }
+            if (c == ' ' || c == '\t' || c == '\n') whitespace(c);
+            else codePoint(c, low);
+        }
+        // 末尾的 \r / 空格都会被 trim 掉，不必再输出
+
+        int a = 0, b = len;
+        while (a < b && out[a] <= ' ') a++;
+        while (b > a && out[b - 1] <= ' ') b--;
+        if (a == 0 && b == n && sameAs(s, n)) return s;
+        return new String(out, a, b - a);
+    }
+
+    private void whitespace(char c) {
+        if (c != '\n') {
+            if (spaces++ == 0) firstSpace = c;
+            return;
+        }
+        flushSpaces();
+        startWs();
+        out[len++] = '\n';
+    }
+
+    private void codePoint(char c, char low) {
+        flushSpaces();
+        boolean han = isHan(low == 0 ? c : Character.toCodePoint(c, low));
+        if (wsStart >= 0) {
+            if (han && hanBeforeWs) len = wsStart; // 两个汉字之间的空白整段删除
+            wsStart = -1;
+        }
+        out[len++] = c;
+        if (low != 0) out[len++] = low;
+        lastHan = han;
+    }
+
+    /** [ \t]{2,} → 一个空格；单个空格/制表符原样保留 */
+    private void flushSpaces() {
+        if (spaces == 0) return;
+        startWs();
+        out[len++] = spaces >= 2 ? ' ' : firstSpace;
+        spaces = 0;
+    }
+
+    private void startWs() {
+        if (wsStart < 0) { wsStart = len; hanBeforeWs = lastHan; }
+    }
+
+    private boolean sameAs(String s, int n) {
+        for (int i = 0; i < n; i++) if (s.charAt(i) != out[i]) return false;
+        return true;
+    }
+
+    /** 原 isTrivialSegment：纯空白/纯标点，或单个 ASCII 字母/数字；含汉字一律不算 */
+    static boolean isTrivial(String s) {
+        if (s == null) return true;
+        int a = 0, b = s.length();
+        while (a < b && s.charAt(a) <= ' ') a++;
+        while (b > a && s.charAt(b - 1) <= ' ') b--;
+        if (a == b) return true;
+
+        boolean punctOnly = true;
+        for (int i = a; i < b; ) {
+            int cp = s.codePointAt(i);
+            i += Character.charCount(cp);
+            if (isCjkIdeograph(cp)) return false;
+            if (punctOnly && !(Character.isWhitespace(cp) || isAsciiPunct(cp) || CJK_PUNCT.indexOf((char) cp) >= 0)) {
+                punctOnly = false;
+            }
+        }
+        if (punctOnly) return true;
+
+        // 极短 ASCII：仅单字符字母/数字 才直通（如 "A"、"3"）
+        char only = s.charAt(a);
+        return b - a == 1 && only < 128 && Character.isLetterOrDigit(only);
+    }
+
+    // \p{Punct}：!"#$%&'()*+,-./:;<=>?@[\]^_`{|}~
+    static boolean isAsciiPunct(int ch) {
+        return (ch >= '!' && ch <= '/') || (ch >= ':' && ch <= '@') || (ch >= '[' && ch <= '`') || (ch >= '{' && ch <= '~');
+    }
+
+    /** 与原判定相同的区块集合；0x3400 以下不可能命中，直接跳过区块查表 */
+    static boolean isCjkIdeograph(int cp) {
+        if (cp < 0x3400) return false;
+        Character.UnicodeBlock b = Character.UnicodeBlock.of(cp);
+        return b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS
+            || b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_A
+            || b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_B
+            || b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_C
+            || b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_D
+            || b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_E
+            || b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_F
+            || b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_G
+            || b == Character.UnicodeBlock.CJK_COMPATIBILITY_IDEOGRAPHS;
+    }
+
+    /** \p{IsHan}（Unicode 脚本 Han）；最小的 Han 码点是 U+2E80 */
+    private static boolean isHan(int cp) {
+        return cp >= 0x2E80 && Character.UnicodeScript.of(cp) == Character.UnicodeScript.HAN;
+    }
+}
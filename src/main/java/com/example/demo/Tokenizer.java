@@ -0,0 +1,36 @@
+package com.example.demo;
+
+/**
+ * 本地 token 计数（切批规划与限流预算共用）。
+ * 由 TRANSLATE_TOKENIZER 选择实现：bpe（默认，按脚本/词形近似 BPE 切分）或 legacy（旧的 CJK=1、其余 4 字符=1）。
+ * 实现须线程安全且不分配对象：每个片段都会调用。
+ */
+public interface Tokenizer {
+
+    int count(CharSequence s);
+
+    String name();
+
+    static Tokenizer shared() { return Holder.INSTANCE; }
+
+    /** 旧启发式：CJK 统一表意文字 1 token/字，其它字符 4 个 1 token */
+    Tokenizer LEGACY = new Tokenizer() {
+        @Override public int count(CharSequence s) {
+            if (s == null || s.length() == 0) return 0;
+            int cjk = 0, other = 0;
+            for (int i = 0; i < s.length(); i++) {
+                char ch = s.charAt(i);
+                if ((ch >= '\u4E00' && ch <= '\u9FFF') || (ch >= '\u3400' && ch <= '\u4DBF')) cjk++; else other++;
+            }
+            return cjk + (other + 3) / 4;
+        }
+        @Override public String name() { return "legacy"; }
+    };
+
+    final class Holder {
+        private Holder() {}
+        static final Tokenizer INSTANCE =
+                "legacy".equalsIgnoreCase(System.getenv().getOrDefault("TRANSLATE_TOKENIZER", "bpe"))
+                        ? LEGACY : new BpeEstimateTokenizer();
+    }
+}
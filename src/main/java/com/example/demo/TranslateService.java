@@ -1,12 +1,17 @@
 package com.example.demo;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import java.util.Locale;
 
@@ -14,10 +19,23 @@ import java.util.Locale;
 @Service
 public class TranslateService {
 
+    @Autowired
+    private TranslationMemory memory;
+    @Autowired
+    private BatchCoalescer coalescer;
+    @Autowired
+    private AdaptiveBatchPlanner planner;
+    @Autowired
+    private RequestHedger hedger;
+    @Autowired
+    private FairShareScheduler scheduler;
+
+    // 翻译引擎（TRANSLATE_ENGINE=kimi|fake）
+    private final TranslationEngine engine = TranslationEngine.fromEnv();
+
     // ===== 参数（可用 .env 覆盖） =====
     // Tier3：把单次预算与批大小默认放宽；仍可用 ENV 覆盖
     private static final int MAX_TOKENS_PER_REQUEST = getEnvInt("TRANSLATE_MAX_TOKENS_PER_REQUEST", 16000); // prompt + max_tokens
-    private static final int MAX_ITEMS_PER_BATCH     = getEnvInt("TRANSLATE_MAX_ITEMS_PER_BATCH", 10);
     private static final int EST_PROMPT_OVERHEAD     = 300; // system+user+JSON结构开销
 
     private static final int MAX_COMPLETION_TOKENS   = getEnvInt("MOONSHOT_MAX_COMPLETION", 1500);
@@ -25,6 +43,16 @@ public class TranslateService {
 
     private static final int PARALLELISM             = getEnvInt("MOONSHOT_CONCURRENCY", 32); // 与 Kimi 限流器一致
 
+    // 响应协议：keyed=按 id 对象（缺失的 id 单独补发），array=按下标数组（数量不一致整批重发）
+    private static final boolean KEYED_PROTOCOL =
+            !"array".equalsIgnoreCase(System.getenv().getOrDefault("TRANSLATE_PROTOCOL", "keyed"));
+    private static final int KEYED_ROUNDS = 3;
+
+    // TPD 准入：作业开始前按切批方案预估 token（输入 + 预计输出 + 每批开销），超出当日剩余直接拒绝
+    private static final boolean TPD_ADMISSION =
+            Boolean.parseBoolean(System.getenv().getOrDefault("TRANSLATE_TPD_ADMISSION", "true"));
+    private static final int TPD_ADMISSION_MARGIN_PCT = getEnvInt("TRANSLATE_TPD_ADMISSION_MARGIN_PCT", 10);
+
     // —— 策略/诊断开关（沿用已有的） ——
     private static final boolean TRIVIAL_PASSTHROUGH =
             Boolean.parseBoolean(System.getenv().getOrDefault("TRANSLATE_TRIVIAL_PASSTHROUGH","true"));
@@ -34,14 +62,6 @@ public class TranslateService {
 
     private static int getEnvInt(String k, int d){ try { return Integer.parseInt(System.getenv().getOrDefault(k, String.valueOf(d))); } catch(Exception e){ return d; } }
 
-    /** 粗略输出系数：CJK 语言更紧凑，其它语种略膨胀（仅用于切片预算） */
-    private static double outputFactorFor(String targetLang) {
-        if (targetLang == null) return 1.15;
-        String v = targetLang.toLowerCase(Locale.ROOT);
-        boolean cjk = v.startsWith("zh") || v.startsWith("ja") || v.startsWith("ko");
-        return cjk ? 0.95 : 1.20;
-    }
-
     /** 默认方向（ENV: TRANSLATE_DIRECTION），批量翻译 */
     // public List<String> batchTranslate(List<String> texts) { return batchTranslate(texts, DEFAULT_DIR); }
 
@@ -50,60 +70,150 @@ public class TranslateService {
         if (texts == null || texts.isEmpty()) return new ArrayList<>();
 
         long t0 = System.currentTimeMillis();
-        log.info("translate: size={}, targetLang={}, parallelism={}", texts.size(), targetLang, Math.max(1, PARALLELISM));
+        log.info("translate: size={}, targetLang={}, parallelism={}, engine={}", texts.size(), targetLang, Math.max(1, PARALLELISM), engine.name());
 
         // 清理 + 默认 CJK 空格归一化
         final int N = texts.size();
         List<String> cleaned = new ArrayList<>(N);
         for (String s : texts) cleaned.add(cleanForJson(s));
 
+        // 去重：相同的清洗后片段只翻一次，结果回填到所有原始下标
+        Map<String, Integer> uniqueIdx = new HashMap<>();
+        List<String> uniques = new ArrayList<>();
+        int[] slot = new int[N];
+        for (int i = 0; i < N; i++) {
+            String s = cleaned.get(i);
+            Integer u = uniqueIdx.get(s);
+            if (u == null) { u = uniques.size(); uniqueIdx.put(s, u); uniques.add(s); }
+            slot[i] = u;
+        }
+        final int U = uniques.size();
+        log.info("dedup: segments={}, unique={}, ratio={}", N, U, String.format(Locale.ROOT, "%.2f", N / (double) U));
+
+        // 翻译记忆：命中直接回填，仅未命中的片段进入切批
+        String[] uniqOut = new String[U];
+        String[] keys = new String[U];
+        List<Integer> missIdx = new ArrayList<>();
+        List<String> misses = new ArrayList<>();
+        final boolean useMemory = memory.isEnabled() && engine.cacheable();
+        for (int u = 0; u < U; u++) {
+            String s = uniques.get(u);
+            if (useMemory && !(TRIVIAL_PASSTHROUGH && isTrivialSegment(s))) {
+                keys[u] = TranslationMemory.keyOf(s, targetLang, userInstruction);
+                String hit = memory.get(keys[u]);
+                if (hit != null) { uniqOut[u] = hit; continue; }
+            }
+            missIdx.add(u); misses.add(s);
+        }
+        if (useMemory) log.info("translation memory: hits={}, misses={}", U - misses.size(), misses.size());
+
+        if (!misses.isEmpty()) {
+            admit(misses, targetLang);
+            // 一个文档的一次翻译即一个调度作业：与其它并发作业按租户/优先级公平分享上游并发
+            FairShareScheduler.Job job = scheduler.open(misses.size());
+            String[] res;
+            try {
+                res = translateAll(job, misses, targetLang, userInstruction);
+            } finally {
+                scheduler.close(job);
+            }
+            for (int k = 0; k < res.length; k++) {
+                int u = missIdx.get(k);
+                uniqOut[u] = res[k];
+                if (keys[u] != null && res[k] != null && !isSimulated(res[k])) memory.put(keys[u], res[k]);
+            }
+            memory.flush();
+        }
+
+        String[] out = new String[N];
+        for (int i = 0; i < N; i++) out[i] = uniqOut[slot[i]];
+
+        List<String> results = new ArrayList<>(N);
+        for (String s : out) results.add(Objects.requireNonNullElse(s, ""));
+        log.info("done in {} ms", (System.currentTimeMillis() - t0));
+        return results;
+    }
+
+    /** 当日剩余 token 不够翻完这些片段时直接拒绝（QuotaExceededException → HTTP 429），避免翻到一半才耗尽 */
+    private void admit(List<String> misses, String targetLang) {
+        if (!TPD_ADMISSION) return;
+        long remaining = engine.remainingDailyTokens();
+        if (remaining == Long.MAX_VALUE) return;
+        long need = estimateJobTokens(misses, targetLang) * (100 + Math.max(0, TPD_ADMISSION_MARGIN_PCT)) / 100;
+        if (need > remaining) {
+            log.warn("rejecting job: estimated {} tokens > {} remaining today (TPD)", need, remaining);
+            throw new QuotaExceededException(need, remaining);
+        }
+        log.info("TPD admission: estimated {} tokens, {} remaining today", need, remaining);
+    }
+
+    /** 按实际切批方案估算整个作业的 token 消耗（每批 prompt 开销 + 输入 + 预计输出） */
+    private long estimateJobTokens(List<String> cleaned, String targetLang) {
+        List<Range> plan = planBatches(cleaned, planner.limitsFor(targetLang));
+        long total = 0;
+        for (Range r : plan) {
+            List<String> part = cleaned.subList(r.start, r.end);
+            total += EST_PROMPT_OVERHEAD + sumTokens(part) + estimateOutputTokens(part, targetLang);
+        }
+        return total;
+    }
+
+    /** 切批 + 并发执行，结果按输入下标写回 */
+    private String[] translateAll(FairShareScheduler.Job job, List<String> cleaned, String targetLang, String userInstruction) {
+        final int N = cleaned.size();
+
         // 规划批次（返回一组连续区间）
-        List<Range> plan = planBatches(cleaned, targetLang);
-        log.info("planned batches: {}, avg size≈{}", plan.size(), N / Math.max(1, plan.size()));
+        AdaptiveBatchPlanner.Limits limits = planner.limitsFor(targetLang);
+        List<Range> plan = planBatches(cleaned, limits);
+        log.info("planned batches: {}, avg size≈{} (maxItems={}, ratio={}, fill={})",
+                plan.size(), N / Math.max(1, plan.size()), limits.maxItems, limits.outputRatio, limits.fill);
 
         // 并发执行所有批次，并把结果写回固定数组，保证全局顺序
         String[] out = new String[N];
         if (plan.size() == 1) {
             Range r = plan.get(0);
-            List<String> partRes = translateOneBatchWithAutoSplit(cleaned.subList(r.start, r.end), targetLang, userInstruction);
+            List<String> partRes = translateOneBatchWithAutoSplit(job, cleaned.subList(r.start, r.end), targetLang, userInstruction);
             for (int i=0;i<partRes.size();i++) out[r.start+i] = partRes.get(i);
         } else {
-            int poolSize = Math.min(PARALLELISM, plan.size());
-            ExecutorService exec = Executors.newFixedThreadPool(poolSize);
-            List<Callable<Void>> jobs = new ArrayList<>(plan.size());
+            // 经公平调度器进入共享执行器：按预计 token 计成本，交互作业优先，大作业不再独占上游并发
+            List<Future<Void>> futures = new ArrayList<>(plan.size());
             for (Range r : plan) {
-                jobs.add(() -> {
-                    List<String> partRes = translateOneBatchWithAutoSplit(cleaned.subList(r.start, r.end), targetLang, userInstruction);
+                futures.add(scheduler.submit(job, sumTokens(cleaned.subList(r.start, r.end)), () -> {
+                    List<String> partRes = translateOneBatchWithAutoSplit(job, cleaned.subList(r.start, r.end), targetLang, userInstruction);
                     for (int i = 0; i < partRes.size(); i++) out[r.start + i] = partRes.get(i);
                     return null;
-                });
+                }));
             }
             try {
-                for (Future<Void> f : exec.invokeAll(jobs)) f.get();
+                for (Future<Void> f : futures) f.get();
             } catch (InterruptedException ie) {
                 Thread.currentThread().interrupt();
+                for (Future<Void> f : futures) f.cancel(true);
                 log.warn("parallel interrupted, falling back to sequential...");
                 for (Range r : plan) {
-                    List<String> partRes = translateOneBatchWithAutoSplit(cleaned.subList(r.start, r.end), targetLang, userInstruction);
+                    List<String> partRes = translateOneBatchWithAutoSplit(job, cleaned.subList(r.start, r.end), targetLang, userInstruction);
                     for (int i=0;i<partRes.size();i++) out[r.start+i] = partRes.get(i);
                 }
             } catch (ExecutionException ee) {
+                for (Future<Void> f : futures) f.cancel(true);
+                rethrowIfJobFailed(ee.getCause());
                 log.warn("parallel execution error: {}", ee.getMessage());
                 for (Range r : plan) {
-                    List<String> partRes = translateOneBatchWithAutoSplit(cleaned.subList(r.start, r.end), targetLang, userInstruction);
+                    List<String> partRes = translateOneBatchWithAutoSplit(job, cleaned.subList(r.start, r.end), targetLang, userInstruction);
                     for (int i=0;i<partRes.size();i++) out[r.start+i] = partRes.get(i);
                 }
-            } finally { exec.shutdownNow(); }
+            }
         }
-
-        List<String> results = new ArrayList<>(N);
-        for (String s : out) results.add(Objects.requireNonNullElse(s, ""));
-        log.info("done in {} ms", (System.currentTimeMillis() - t0));
-        return results;
+        return out;
     }
 
     // —— 单批执行（length / 数量不一致 → 自动细分重试） ——
-    private List<String> translateOneBatchWithAutoSplit(List<String> part, String targetLang, String userInstruction) {
+    private List<String> translateOneBatchWithAutoSplit(FairShareScheduler.Job job, List<String> part, String targetLang, String userInstruction) {
+        return translateOneBatch(job, part, targetLang, userInstruction, true);
+    }
+
+    /** coalesce=true 时小批次可与其它作业合并发送；拆批重试的子批不再合并，避免坏片段牵连他人 */
+    private List<String> translateOneBatch(FairShareScheduler.Job job, List<String> part, String targetLang, String userInstruction, boolean coalesce) {
         final int n = part.size();
         String[] out = new String[n];
         List<Integer> idx = new ArrayList<>();
@@ -124,39 +234,55 @@ public class TranslateService {
         if (trivialCount > 0) log.info("trivial bypassed in this batch: {}", trivialCount);
         if (pay.isEmpty()) return java.util.Arrays.asList(out);
 
-        com.alibaba.fastjson.JSONObject input = new com.alibaba.fastjson.JSONObject();
-        input.put("texts", toFastJsonArray(pay));
-        String json;
-        try { json = input.toJSONString(); }
-        catch (Exception e) {
-            log.warn("json serialize failed, emergency clean: {}", e.getMessage());
-            List<String> emergency = pay.stream().map(this::emergencyClean).collect(Collectors.toList());
-            input.put("texts", toFastJsonArray(emergency));
-            json = input.toJSONString();
-        }
-
+        long callStart = System.currentTimeMillis();
+        StreamedItems streamed = new StreamedItems(pay.size());
+        // 合并发送时 texts 是拼起来的新列表，下标对不上本批，不记流式条目
+        BatchCoalescer.Sender send = (texts, lang, instr) -> callModel(job, texts, lang, instr, texts == pay ? streamed : null);
         try {
-            String resp = Kimi.robustTranslate(json, targetLang, userInstruction); // ← 仅 targetLang
-            com.alibaba.fastjson.JSONObject obj = com.alibaba.fastjson.JSONObject.parseObject(resp);
-            com.alibaba.fastjson.JSONArray arr = obj.getJSONArray("translations");
-            if (arr == null || arr.size() != pay.size()) throw new RuntimeException("size mismatch");
+            List<String> arr = coalesce
+                    ? coalescer.translate(pay, estimateOutputTokens(pay, targetLang), MAX_COMPLETION_TOKENS - COMPLETION_SAFETY_MARGIN,
+                                          planner.limitsFor(targetLang).maxItems, targetLang, userInstruction, send)
+                    : send.send(pay, targetLang, userInstruction);
+            streamed.close();
 
             int sameCount = 0;
             for (int k = 0; k < pay.size(); k++) {
                 String in = pay.get(k);
-                String outStr = arr.getString(k);
+                String outStr = arr.get(k);
                 boolean same = safeEqualsTrim(in, outStr);
                 if (same) sameCount++;
                 out[idx.get(k)] = outStr;
                 if (LOG_SEGMENT_DECISIONS) log.debug("seg[{}] MODEL-OUT: in=\"{}\" | out=\"{}\"{}", idx.get(k), preview(in), preview(outStr), same ? "  (UNCHANGED)" : "");
             }
             if (LOG_SEGMENT_DECISIONS && sameCount > 0) log.info("model returned unchanged items in this batch: {}", sameCount);
+            planner.recordSuccess(targetLang, pay.size(), sumTokens(pay), sumTokens(arr), System.currentTimeMillis() - callStart);
             return java.util.Arrays.asList(out);
 
         } catch (Exception e) {
+            String[] early = streamed.close();
+            rethrowIfJobFailed(e);
             String msg = String.valueOf(e.getMessage());
-            boolean needSplit =
-                    msg != null && (msg.contains("finish_reason=length") || msg.contains("仍不一致") || msg.contains("not equal") || msg.contains("size mismatch"));
+            boolean truncated = msg.contains("finish_reason=length");
+            boolean mismatched = msg.contains("仍不一致") || msg.contains("not equal") || msg.contains("size mismatch");
+            if (truncated && !KEYED_PROTOCOL) planner.recordTruncation(targetLang, pay.size()); // keyed 协议已在 callModelKeyed 里记过
+            else if (mismatched) planner.recordMismatch(targetLang, pay.size());
+
+            // 中途失败（截断/断流）：已流式完成的条目直接落位，只重发其余；数量不一致时位置不可信，不采用
+            if (!mismatched) {
+                List<Integer> rest = new ArrayList<>();
+                for (int k = 0; k < early.length; k++) if (early[k] == null) rest.add(k);
+                if (!rest.isEmpty() && rest.size() < early.length) {
+                    log.warn("call failed after {}/{} streamed items, re-requesting the remainder: {}", early.length - rest.size(), early.length, msg);
+                    for (int k = 0; k < early.length; k++) if (early[k] != null) out[idx.get(k)] = early[k];
+                    List<String> restTexts = new ArrayList<>(rest.size());
+                    for (int k : rest) restTexts.add(pay.get(k));
+                    List<String> again = translateOneBatch(job, restTexts, targetLang, userInstruction, false);
+                    for (int r = 0; r < rest.size(); r++) out[idx.get(rest.get(r))] = again.get(r);
+                    return java.util.Arrays.asList(out);
+                }
+            }
+
+            boolean needSplit = truncated || mismatched;
 
             if (needSplit) {
                 log.warn("need split & retry, reason={}", msg);
@@ -164,12 +290,8 @@ public class TranslateService {
                     log.warn("single item still not fixable, fallback to simulate: \"{}\"", preview(part.get(0)));
                     return simulateBatch(part);
                 }
-                int mid = part.size() / 2;
-                List<String> left  = translateOneBatchWithAutoSplit(part.subList(0, mid), targetLang, userInstruction);
-                List<String> right = translateOneBatchWithAutoSplit(part.subList(mid, part.size()), targetLang, userInstruction);
-                List<String> merged = new ArrayList<>(left.size() + right.size());
-                merged.addAll(left); merged.addAll(right);
-                return merged;
+                int pieces = splitCount(part.size(), truncated, estimateOutputTokens(pay, targetLang));
+                return translatePartsConcurrently(job, part, pieces, targetLang, userInstruction);
             }
 
             log.warn("batch failed (simulate this batch): {} | first=\"{}\"", e.toString(), preview(part.get(0)));
@@ -177,17 +299,244 @@ public class TranslateService {
         }
     }
 
+    /**
+     * 失败批次拆成几份：截断按预计输出超出输出上限的倍数拆（至少 2 份，留 25% 余量）；
+     * 数量不一致多由个别片段引起，拆成约 √n 份，让坏片段只拖累一个小子批。
+     */
+    private int splitCount(int n, boolean truncated, int estOutput) {
+        int budget = Math.max(1, MAX_COMPLETION_TOKENS - COMPLETION_SAFETY_MARGIN);
+        int k = truncated
+                ? (int) Math.ceil(estOutput * 1.25 / budget)
+                : (int) Math.ceil(Math.sqrt(n));
+        return Math.max(2, Math.min(n, k));
+    }
+
+    /**
+     * 子批按所属作业经公平调度器并发重试（与首轮批次同样计成本、排队），结果按原顺序拼回。
+     * 调用线程自己跑第一份，并“认领”尚未开始的子批就地执行、撤销其排队项；只等待调度器已经开始执行的子批。
+     * 调用线程本身可能占着调度槽位，绝不能阻塞等待仍在排队的调度项（槽位全被这样的父批占住时永远不会派发）。
+     */
+    private List<String> translatePartsConcurrently(FairShareScheduler.Job job, List<String> part, int pieces,
+                                                    String targetLang, String userInstruction) {
+        final int n = part.size();
+        List<List<String>> subs = new ArrayList<>(pieces);
+        for (int p = 0; p < pieces; p++) subs.add(part.subList(n * p / pieces, n * (p + 1) / pieces));
+        log.info("re-splitting {} items into {} concurrent sub-batches", n, pieces);
+
+        List<List<String>> results = new ArrayList<>(Collections.nCopies(pieces, null));
+        AtomicBoolean[] claimed = new AtomicBoolean[pieces];
+        List<Future<Void>> futures = new ArrayList<>(pieces);
+        for (int p = 0; p < pieces; p++) {
+            claimed[p] = new AtomicBoolean(p == 0);
+            if (p == 0) { futures.add(null); continue; }
+            final int idx = p;
+            futures.add(scheduler.submit(job, sumTokens(subs.get(idx)), () -> {
+                if (claimed[idx].compareAndSet(false, true)) {
+                    results.set(idx, translateOneBatch(job, subs.get(idx), targetLang, userInstruction, false));
+                }
+                return null;
+            }));
+        }
+
+        results.set(0, translateOneBatch(job, subs.get(0), targetLang, userInstruction, false));
+        boolean[] inline = new boolean[pieces];
+        for (int p = 1; p < pieces; p++) {
+            if (claimed[p].compareAndSet(false, true)) {
+                inline[p] = true;
+                futures.get(p).cancel(false); // 排队项出队时已完成即跳过，不再占槽位
+                results.set(p, translateOneBatch(job, subs.get(p), targetLang, userInstruction, false));
+            }
+        }
+        for (int p = 1; p < pieces; p++) {
+            if (inline[p]) continue;
+            try {
+                futures.get(p).get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ee) {
+                rethrowIfJobFailed(ee.getCause());
+                log.warn("sub-batch failed: {}", ee.getMessage());
+            }
+            if (results.get(p) == null) results.set(p, simulateBatch(subs.get(p)));
+        }
+
+        List<String> merged = new ArrayList<>(n);
+        for (List<String> r : results) merged.addAll(r);
+        return merged;
+    }
+
+    /** 上游全部熔断 / 当日额度耗尽：整个作业失败（503/429，可重试），不拆批、不用模拟译文顶替 */
+    private static void rethrowIfJobFailed(Throwable e) {
+        if (e instanceof UpstreamUnavailableException) throw (UpstreamUnavailableException) e;
+        if (e instanceof QuotaExceededException) throw (QuotaExceededException) e;
+    }
+
+    /** 一次模型调用：JSON 打包 → Kimi → 解析并校验数量；streamed 非空时逐条记下流式完成的译文 */
+    private List<String> callModel(FairShareScheduler.Job job, List<String> pay, String targetLang, String userInstruction,
+                                   StreamedItems streamed) throws java.io.IOException {
+        // 慢请求对冲：超过近期耗时百分位仍未返回时发副本（经公平调度、计入本作业份额），先到者胜
+        return hedger.call(job, sumTokens(pay), () -> KEYED_PROTOCOL
+                ? callModelKeyed(pay, targetLang, userInstruction, streamed)
+                : callModelArray(pay, targetLang, userInstruction, streamed));
+    }
+
+    private List<String> callModelArray(List<String> pay, String targetLang, String userInstruction,
+                                        StreamedItems streamed) throws java.io.IOException {
+        com.alibaba.fastjson.JSONObject input = new com.alibaba.fastjson.JSONObject();
+        input.put("texts", toFastJsonArray(pay));
+        String json;
+        try { json = input.toJSONString(); }
+        catch (Exception e) {
+            log.warn("json serialize failed, emergency clean: {}", e.getMessage());
+            List<String> emergency = pay.stream().map(this::emergencyClean).collect(Collectors.toList());
+            input.put("texts", toFastJsonArray(emergency));
+            json = input.toJSONString();
+        }
+
+        StreamedItems.Positional copy = streamed == null ? null : streamed.positional();
+        String resp = engine.translate(json, targetLang, userInstruction,
+                copy == null ? null : (i, id, t) -> copy.onItem(i, t)); // ← 仅 targetLang
+        com.alibaba.fastjson.JSONObject obj = com.alibaba.fastjson.JSONObject.parseObject(resp);
+        com.alibaba.fastjson.JSONArray arr = obj.getJSONArray("translations");
+        if (arr == null || arr.size() != pay.size()) throw new RuntimeException("size mismatch");
+        List<String> res = new ArrayList<>(arr.size());
+        for (int k = 0; k < arr.size(); k++) res.add(arr.getString(k));
+        return res;
+    }
+
+    /**
+     * 按 id 协议调用：每条片段带短 id（下标的 36 进制），逐条核对返回的 id，
+     * 正确返回的直接采用，只把缺失/非字符串的 id 再发一轮；截断时保留已流式完成的条目。
+     */
+    private List<String> callModelKeyed(List<String> pay, String targetLang, String userInstruction,
+                                        StreamedItems streamed) throws java.io.IOException {
+        final int n = pay.size();
+        String[] got = new String[n];
+        List<Integer> pending = new ArrayList<>(n);
+        for (int k = 0; k < n; k++) pending.add(k);
+        boolean truncationRecorded = false;
+
+        for (int round = 0; round < KEYED_ROUNDS && !pending.isEmpty(); round++) {
+            com.alibaba.fastjson.JSONObject texts = new com.alibaba.fastjson.JSONObject(true);
+            for (int k : pending) texts.put(Integer.toString(k, 36), pay.get(k));
+            com.alibaba.fastjson.JSONObject input = new com.alibaba.fastjson.JSONObject();
+            input.put("texts", texts);
+            String json;
+            try { json = input.toJSONString(); }
+            catch (Exception e) {
+                log.warn("json serialize failed, emergency clean: {}", e.getMessage());
+                for (int k : pending) texts.put(Integer.toString(k, 36), emergencyClean(pay.get(k)));
+                json = input.toJSONString();
+            }
+
+            Map<String, ?> returned;
+            try {
+                com.alibaba.fastjson.JSONObject obj = com.alibaba.fastjson.JSONObject.parseObject(
+                        engine.translateKeyed(json, pending.size(), targetLang, userInstruction,
+                                streamed == null ? null : (i, id, t) -> streamed.put(parseKey(id), t)));
+                returned = obj == null ? null : obj.getJSONObject("translations");
+            } catch (Kimi.TruncatedException te) {
+                // 每次调用只记一次（含最终抛出的情况），外层 catch 对 keyed 协议不再重复记
+                if (!truncationRecorded) {
+                    planner.recordTruncation(targetLang, pending.size());
+                    truncationRecorded = true;
+                }
+                if (te.completedById().isEmpty()) throw te;
+                returned = te.completedById();
+            } catch (com.alibaba.fastjson.JSONException | ClassCastException bad) {
+                returned = null; // 非法 JSON：本轮全部视为缺失
+            }
+
+            List<Integer> missing = new ArrayList<>();
+            for (int k : pending) {
+                Object v = returned == null ? null : returned.get(Integer.toString(k, 36));
+                if (v instanceof String) {
+                    got[k] = (String) v;
+                    if (streamed != null) streamed.put(k, got[k]);
+                } else missing.add(k);
+            }
+            if (!missing.isEmpty()) log.warn("keyed response missing {}/{} ids, re-requesting only those", missing.size(), pending.size());
+            pending = missing;
+        }
+        if (!pending.isEmpty()) throw new RuntimeException("size mismatch: " + pending.size() + " ids still missing");
+        return java.util.Arrays.asList(got);
+    }
+
+    private static int parseKey(String id) {
+        try { return id == null ? -1 : Integer.parseInt(id, 36); } catch (NumberFormatException e) { return -1; }
+    }
+
+    /**
+     * 单批已流式完成的译文：调用中途失败时直接采用，只补发其余。
+     * 按 id 协议直接按下标记；按位置协议每个调用副本（含对冲副本）各记一份，数量纠正重发从下标 0 重来时丢弃上一轮。
+     * close() 之后迟到的回调（对冲输掉的副本）不再写入。
+     */
+    private static final class StreamedItems {
+        private final String[] byIndex;
+        private final List<List<String>> attempts = new ArrayList<>();
+        private boolean closed;
+
+        StreamedItems(int n) { this.byIndex = new String[n]; }
+
+        synchronized void put(int k, String text) {
+            if (!closed && text != null && k >= 0 && k < byIndex.length) byIndex[k] = text;
+        }
+
+        Positional positional() { return new Positional(); }
+
+        /** 按位置协议的一个调用副本：回调下标即到达顺序 */
+        final class Positional {
+            private List<String> current;
+
+            void onItem(int index, String text) {
+                synchronized (StreamedItems.this) {
+                    if (closed || text == null) return;
+                    if (index == 0 || current == null) {
+                        List<String> stale = current;
+                        attempts.removeIf(a -> a == stale);
+                        current = new ArrayList<>();
+                        attempts.add(current);
+                    }
+                    if (current.size() < byIndex.length) current.add(text);
+                }
+            }
+        }
+
+        /** 停止接收并返回已完成的条目（未完成的为 null） */
+        synchronized String[] close() {
+            closed = true;
+            String[] res = byIndex.clone();
+            List<String> longest = Collections.emptyList();
+            for (List<String> a : attempts) if (a.size() > longest.size()) longest = a;
+            for (int k = 0; k < longest.size(); k++) if (res[k] == null) res[k] = longest.get(k);
+            return res;
+        }
+    }
+
+    private int estimateOutputTokens(List<String> pay, String targetLang) {
+        double of = planner.limitsFor(targetLang).outputRatio;
+        return (int) Math.ceil(sumTokens(pay) * of) + 2 * pay.size();
+    }
+
+    private int sumTokens(List<String> xs) {
+        int sum = 0;
+        for (String s : xs) sum += estimateTokens(s);
+        return sum;
+    }
+
     // ===== 批次规划：用“输入token总和”估算输出，再对照 max_tokens 分批 =====
     private static final class Range { final int start, end; Range(int s,int e){ this.start=s; this.end=e; } }
 
-    private List<Range> planBatches(List<String> cleaned, String targetLang) {
+    private List<Range> planBatches(List<String> cleaned, AdaptiveBatchPlanner.Limits limits) {
         List<Range> plan = new ArrayList<>();
         int curStart = 0;
         int curCount = 0;
 
         int promptTokens = EST_PROMPT_OVERHEAD;     // 当前批的 prompt token 总估
         int outputTokens = 0;                       // 当前批的“预计输出”总估（= sum(input_tokens * factor)）
-        double of = outputFactorFor(targetLang);
+        double of = limits.outputRatio;             // 按目标语言实测学习的输出/输入比
+        int maxItems = limits.maxItems;
+        int outputBudget = limits.outputBudget(MAX_COMPLETION_TOKENS - COMPLETION_SAFETY_MARGIN);
 
         for (int i = 0; i < cleaned.size(); i++) {
             String s = cleaned.get(i);
@@ -195,9 +544,9 @@ public class TranslateService {
             int projectedPrompt = promptTokens + t;
             int projectedOutput = (int)Math.ceil(outputTokens + t * of) + 2; // +2 粗略结构开销
 
-            boolean exceedCount = (curCount + 1) > MAX_ITEMS_PER_BATCH;
+            boolean exceedCount = (curCount + 1) > maxItems;
             boolean exceedPromptPlusMax = (projectedPrompt + MAX_COMPLETION_TOKENS) > MAX_TOKENS_PER_REQUEST;
-            boolean exceedCompletion = projectedOutput > (MAX_COMPLETION_TOKENS - COMPLETION_SAFETY_MARGIN);
+            boolean exceedCompletion = projectedOutput > outputBudget;
 
             if (curCount > 0 && (exceedCount || exceedPromptPlusMax || exceedCompletion)) {
                 plan.add(new Range(curStart, i));
@@ -217,7 +566,7 @@ public class TranslateService {
 
             // 单条超预算：强制单条一批
             if ((promptTokens + MAX_COMPLETION_TOKENS) > MAX_TOKENS_PER_REQUEST
-                || (outputTokens + 2) > (MAX_COMPLETION_TOKENS - COMPLETION_SAFETY_MARGIN)) {
+                || (outputTokens + 2) > outputBudget) {
                 plan.add(new Range(curStart, i + 1));
                 curStart = i + 1; curCount = 0;
                 promptTokens = EST_PROMPT_OVERHEAD;
@@ -229,77 +578,20 @@ public class TranslateService {
         return plan;
     }
 
-    // ===== 估算器（粗略） =====
+    // ===== 估算器（与 Kimi 限流预算共用同一 Tokenizer） =====
     private int estimateTokens(String s){
-        if (s == null || s.isEmpty()) return 0;
-        int cjk=0, other=0; for (int i=0;i<s.length();i++){ char ch=s.charAt(i); if ((ch>='\u4E00'&&ch<='\u9FFF')||(ch>='\u3400'&&ch<='\u4DBF')) cjk++; else other++; }
-        return cjk + (int)Math.ceil(other/4.0);
+        return Tokenizer.shared().count(s);
     }
 
-    // ===== 清理辅助（含默认开启的 CJK 空格归一化） =====
-    private String cleanForJson(String s){
-        if (s==null) return "";
-        String t = stripControls(removeUnpairedSurrogates(removeBOM(s)))
-                .replace("\r\n","\n").replace("\r","\n");
-        t = normalizeForTranslation(t);
-        return t;
-    }
+    // ===== 清理辅助（含默认开启的 CJK 空格归一化；单遍实现见 TextNormalizer） =====
+    private String cleanForJson(String s){ return TextNormalizer.clean(s); }
     private String emergencyClean(String s){ return stripControls(removeUnpairedSurrogates(removeBOM(Objects.requireNonNullElse(s, "")))); }
     private String removeBOM(String s){ return (!s.isEmpty() && s.charAt(0)=='\uFEFF') ? s.substring(1) : s; }
     private String stripControls(String s){ return s.replaceAll("[\\p{Cntrl}&&[^\\r\\n\\t]]"," "); }
     private String removeUnpairedSurrogates(String s){ StringBuilder sb=new StringBuilder(s.length()); for(int i=0;i<s.length();i++){ char ch=s.charAt(i); if(Character.isHighSurrogate(ch)){ if(i+1<s.length()&&Character.isLowSurrogate(s.charAt(i+1))){ sb.append(ch).append(s.charAt(++i)); } } else if(!Character.isLowSurrogate(ch)){ sb.append(ch);} } return sb.toString(); }
 
-    // —— 归一化：去掉“汉字 与 汉字”之间的异常空白（多轮迭代，直到收敛） ——
-    private String normalizeForTranslation(String s){
-        if (s == null || s.isEmpty()) return s;
-        String t = s.replace('\u00A0',' ').replaceAll("[ \\t]{2,}", " ").trim();
-        String prev;
-        do {
-            prev = t;
-            t = t.replaceAll("([\\p{IsHan}])\\s+([\\p{IsHan}])", "$1$2");
-        } while (!t.equals(prev));
-        return t;
-    }
-
     // ===== “微小/纯标点”判定（更保守的直通策略） =====
-    private boolean isTrivialSegment(String s) {
-        if (s == null) return true;
-        String t = s.trim();
-        if (t.isEmpty()) return true;
-
-        // 一旦包含“汉字”（CJK统一表意），必须送模型
-        if (hasCJKIdeograph(t)) return false;
-
-        // 纯空白/纯标点（ASCII 或 CJK 标点）→ 直通
-        boolean punctOnly = t.codePoints().allMatch(ch ->
-            Character.isWhitespace(ch) || isAsciiPunct(ch) || isCjkPunct(ch)
-        );
-        if (punctOnly) return true;
-
-        // 极短 ASCII：仅单字符字母/数字 才直通（如 "A"、"3"）
-        if (t.length() == 1 && t.codePoints().allMatch(ch -> ch < 128 && Character.isLetterOrDigit(ch))) {
-            return true;
-        }
-
-        return false;
-    }
-
-    private boolean isAsciiPunct(int ch) { return ch < 128 && String.valueOf((char) ch).matches("\\p{Punct}"); }
-    private boolean isCjkPunct(int ch) { return "、，。！？：；…—·《》〈〉“”‘’（）【】".indexOf((char) ch) >= 0; }
-    private boolean hasCJKIdeograph(String s) {
-        return s.codePoints().anyMatch(ch -> {
-            Character.UnicodeBlock b = Character.UnicodeBlock.of(ch);
-            return b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS
-                || b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_A
-                || b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_B
-                || b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_C
-                || b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_D
-                || b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_E
-                || b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_F
-                || b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_G
-                || b == Character.UnicodeBlock.CJK_COMPATIBILITY_IDEOGRAPHS;
-        });
-    }
+    private boolean isTrivialSegment(String s) { return TextNormalizer.isTrivial(s); }
 
     // ===== fastjson JSONArray 构造辅助 =====
     private com.alibaba.fastjson.JSONArray toFastJsonArray(List<String> list){
@@ -311,6 +603,7 @@ public class TranslateService {
     // ===== 本地模拟（仅兜底） =====
     private List<String> simulateBatch(List<String> texts){ List<String> out=new ArrayList<>(texts.size()); for(String s:texts) out.add(simulateOne(s)); return out; }
     private String simulateOne(String s){ String core = s==null?"":s.replace("\r","").replace("\n",""); return containsChinese(core)?"[模拟翻译]"+core+"[模拟翻译]":"[Simulated]"+core+"[Simulated]"; }
+    private boolean isSimulated(String s){ return s.startsWith("[模拟翻译]") || s.startsWith("[Simulated]"); }
     private boolean containsChinese(String s){ return s!=null && s.matches(".*[\\u4e00-\\u9fa5].*"); }
 
     // ===== 诊断辅助 =====
@@ -0,0 +1,62 @@
+package com.example.demo;
+
+import java.io.IOException;
+
+/**
+ * 翻译引擎 SPI：TranslateService 只通过它调用模型。
+ * 由 TRANSLATE_ENGINE 选择：kimi（默认，Moonshot 接口）或 fake（进程内离线引擎，用于压测/无外网环境）。
+ * 两种协议与 Kimi 一致：数组 {"texts":[...]} → {"translations":[...]}，按 id {"texts":{id:..}} → {"translations":{id:..}}；
+ * 截断抛 {@link Kimi.TruncatedException}。
+ */
+public interface TranslationEngine {
+
+    /** 数组协议；返回 {"translations":[...]} 且数量与输入一致 */
+    String translate(String jsonTexts, String targetLang, String userInstruction) throws IOException;
+
+    /** 按 id 协议；返回 {"translations":{id:..}}，可能缺 id，由调用方补发 */
+    String translateKeyed(String jsonTexts, int expectedCount, String targetLang, String userInstruction) throws IOException;
+
+    /** 同 translate，流式引擎每完成一条就回调 onItem（index 为到达顺序）；不支持流式的引擎只在最后返回 */
+    default String translate(String jsonTexts, String targetLang, String userInstruction,
+                             TranslationsStreamParser.ItemListener onItem) throws IOException {
+        return translate(jsonTexts, targetLang, userInstruction);
+    }
+
+    /** 同 translateKeyed，流式引擎每完成一条就回调 onItem（id 为输入键） */
+    default String translateKeyed(String jsonTexts, int expectedCount, String targetLang, String userInstruction,
+                                  TranslationsStreamParser.ItemListener onItem) throws IOException {
+        return translateKeyed(jsonTexts, expectedCount, targetLang, userInstruction);
+    }
+
+    String name();
+
+    /** 译文是否可以写入翻译记忆（离线假引擎的输出不能污染缓存） */
+    default boolean cacheable() { return true; }
+
+    /** 当日剩余可用 token（作业开始前的准入检查用）；无日额度限制时为 Long.MAX_VALUE */
+    default long remainingDailyTokens() { return Long.MAX_VALUE; }
+
+    static TranslationEngine fromEnv() {
+        String v = System.getenv().getOrDefault("TRANSLATE_ENGINE", "kimi");
+        return "fake".equalsIgnoreCase(v) ? new FakeTranslationEngine() : KIMI;
+    }
+
+    TranslationEngine KIMI = new TranslationEngine() {
+        @Override public String translate(String jsonTexts, String targetLang, String userInstruction) throws IOException {
+            return Kimi.robustTranslate(jsonTexts, targetLang, userInstruction);
+        }
+        @Override public String translateKeyed(String jsonTexts, int expectedCount, String targetLang, String userInstruction) throws IOException {
+            return Kimi.translateKeyed(jsonTexts, expectedCount, targetLang, userInstruction);
+        }
+        @Override public String translate(String jsonTexts, String targetLang, String userInstruction,
+                                          TranslationsStreamParser.ItemListener onItem) throws IOException {
+            return Kimi.robustTranslate(jsonTexts, targetLang, userInstruction, onItem);
+        }
+        @Override public String translateKeyed(String jsonTexts, int expectedCount, String targetLang, String userInstruction,
+                                               TranslationsStreamParser.ItemListener onItem) throws IOException {
+            return Kimi.translateKeyed(jsonTexts, expectedCount, targetLang, userInstruction, onItem);
+        }
+        @Override public String name() { return "kimi"; }
+        @Override public long remainingDailyTokens() { return Kimi.remainingDailyTokens(); }
+    };
+}
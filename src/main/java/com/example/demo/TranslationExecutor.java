@@ -0,0 +1,99 @@
+package com.example.demo;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 全应用共享的翻译执行器：所有作业的批次都提交到这里，真正的并发由 Kimi 限流器约束。
+ * 运行在 JDK 21+ 时使用虚拟线程（每任务一线程）；否则退化为有上限的平台线程池。
+ */
+@Slf4j
+@Component
+public class TranslationExecutor {
+
+    // ===== 参数（可用 .env 覆盖） =====
+    private static final boolean PREFER_VIRTUAL =
+            Boolean.parseBoolean(System.getenv().getOrDefault("TRANSLATE_VIRTUAL_THREADS", "true"));
+    private static final int PLATFORM_THREADS = getEnvInt("TRANSLATE_EXECUTOR_THREADS", 256);
+
+    private static int getEnvInt(String k, int d){ try { return Integer.parseInt(System.getenv().getOrDefault(k, String.valueOf(d))); } catch(Exception e){ return d; } }
+
+    private final ExecutorService delegate;
+    private final boolean virtual;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public TranslationExecutor() {
+        ExecutorService v = PREFER_VIRTUAL ? newVirtualThreadExecutor() : null;
+        this.virtual = v != null;
+        this.delegate = v != null ? v : newPlatformPool();
+        log.info("translation executor: {}", virtual ? "virtual threads" : "platform threads x" + PLATFORM_THREADS);
+    }
+
+    public <T> Future<T> submit(Callable<T> task) {
+        submitted.increment();
+        queued.incrementAndGet();
+        return delegate.submit(() -> {
+            queued.decrementAndGet();
+            active.incrementAndGet();
+            try {
+                T r = task.call();
+                completed.increment();
+                return r;
+            } catch (Exception | Error e) {
+                failed.increment();
+                throw e;
+            } finally {
+                active.decrementAndGet();
+            }
+        });
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("virtualThreads", virtual);
+        m.put("queueDepth", queued.get());
+        m.put("activeTasks", active.get());
+        m.put("submitted", submitted.sum());
+        m.put("completed", completed.sum());
+        m.put("failed", failed.sum());
+        return m;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        delegate.shutdownNow();
+    }
+
+    // JDK 21+：Executors.newVirtualThreadPerTaskExecutor()（反射调用，保持 Java 17 可编译）
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Throwable ignore) {
+            return null;
+        }
+    }
+
+    private static ExecutorService newPlatformPool() {
+        AtomicInteger seq = new AtomicInteger();
+        int n = Math.max(1, PLATFORM_THREADS);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(n, n, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "translate-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
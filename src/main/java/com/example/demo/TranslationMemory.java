@@ -0,0 +1,191 @@
+package com.example.demo;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 片段级翻译记忆（磁盘持久化）：key = sha256(清洗后文本 + targetLang + 清洗后的用户偏好)。
+ * 内存 LRU + TTL；落盘为追加式 JSON Lines，启动时回放，超长时压缩重写。
+ */
+@Slf4j
+@Component
+public class TranslationMemory {
+
+    // ===== 参数（可用 .env 覆盖） =====
+    private static final boolean ENABLED =
+            Boolean.parseBoolean(System.getenv().getOrDefault("TRANSLATE_CACHE_ENABLED", "true"));
+    private static final String FILE = System.getenv().getOrDefault("TRANSLATE_CACHE_FILE", "data/translation-memory.jsonl");
+    private static final int MAX_ENTRIES = getEnvInt("TRANSLATE_CACHE_MAX_ENTRIES", 200_000);
+    private static final long TTL_MS = getEnvInt("TRANSLATE_CACHE_TTL_HOURS", 720) * 3_600_000L; // <=0 表示永不过期
+
+    private static int getEnvInt(String k, int d){ try { return Integer.parseInt(System.getenv().getOrDefault(k, String.valueOf(d))); } catch(Exception e){ return d; } }
+
+    private static final class Entry {
+        final String value; final long createdAt;
+        Entry(String v, long t){ this.value = v; this.createdAt = t; }
+    }
+
+    // accessOrder=true → 按访问顺序，超过上限淘汰最久未用
+    private final LinkedHashMap<String, Entry> map = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > MAX_ENTRIES) { evictions.incrementAndGet(); return true; }
+            return false;
+        }
+    };
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong puts = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final Path path;
+    private Writer appender;
+    private int appendedLines = 0;
+
+    public TranslationMemory() {
+        this.path = Paths.get(FILE);
+        if (!ENABLED) return;
+        load();
+        compact();
+    }
+
+    public static String keyOf(String cleanedText, String targetLang, String userInstruction) {
+        String pref = Kimi.sanitizeUserInstruction(userInstruction);
+        String raw = (cleanedText == null ? "" : cleanedText) + '\u0000'
+                + (targetLang == null ? "" : targetLang.toLowerCase(Locale.ROOT)) + '\u0000'
+                + (pref == null ? "" : pref);
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(raw.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(d);
+        } catch (Exception e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+
+    public boolean isEnabled() { return ENABLED; }
+
+    /** 命中返回译文；未命中/过期返回 null */
+    public synchronized String get(String key) {
+        if (!ENABLED) return null;
+        Entry e = map.get(key);
+        if (e != null && expired(e, System.currentTimeMillis())) { map.remove(key); e = null; }
+        if (e == null) { misses.incrementAndGet(); return null; }
+        hits.incrementAndGet();
+        return e.value;
+    }
+
+    public synchronized void put(String key, String value) {
+        if (!ENABLED || value == null) return;
+        long now = System.currentTimeMillis();
+        map.put(key, new Entry(value, now));
+        puts.incrementAndGet();
+        append(key, value, now);
+    }
+
+    /** 一次作业结束后落盘 */
+    public synchronized void flush() {
+        if (appender == null) return;
+        try { appender.flush(); } catch (IOException e) { log.warn("translation memory flush failed: {}", e.getMessage()); }
+        if (appendedLines > Math.max(1024, map.size())) compact();
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        long h = hits.get(), ms = misses.get();
+        m.put("enabled", ENABLED);
+        m.put("entries", map.size());
+        m.put("maxEntries", MAX_ENTRIES);
+        m.put("hits", h);
+        m.put("misses", ms);
+        m.put("hitRatio", (h + ms) == 0 ? 0.0 : (double) h / (h + ms));
+        m.put("puts", puts.get());
+        m.put("evictions", evictions.get());
+        return m;
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (!ENABLED) return;
+        compact();
+        closeAppender();
+    }
+
+    // ===== 持久化 =====
+    private boolean expired(Entry e, long now) { return TTL_MS > 0 && now - e.createdAt > TTL_MS; }
+
+    private void load() {
+        if (!Files.exists(path)) return;
+        long now = System.currentTimeMillis();
+        int lines = 0, bad = 0;
+        try (BufferedReader br = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isBlank()) continue;
+                lines++;
+                try {
+                    com.alibaba.fastjson.JSONObject o = com.alibaba.fastjson.JSONObject.parseObject(line);
+                    Entry e = new Entry(o.getString("v"), o.getLongValue("t"));
+                    String k = o.getString("k");
+                    if (k != null && e.value != null && !expired(e, now)) map.put(k, e);
+                } catch (Exception ex) { bad++; }
+            }
+        } catch (IOException e) {
+            log.warn("translation memory load failed: {}", e.getMessage());
+        }
+        log.info("translation memory loaded: entries={}, lines={}, bad={}", map.size(), lines, bad);
+    }
+
+    /** 用当前内存内容重写文件（原子替换），去掉被覆盖/过期/淘汰的旧行 */
+    private void compact() {
+        closeAppender();
+        try {
+            Path dir = path.toAbsolutePath().getParent();
+            if (dir != null) Files.createDirectories(dir);
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            long now = System.currentTimeMillis();
+            try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Entry> e : map.entrySet()) {
+                    if (expired(e.getValue(), now)) continue;
+                    w.write(line(e.getKey(), e.getValue().value, e.getValue().createdAt));
+                }
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            appendedLines = 0;
+        } catch (IOException e) {
+            log.warn("translation memory compact failed: {}", e.getMessage());
+        }
+    }
+
+    private void append(String key, String value, long t) {
+        try {
+            if (appender == null) {
+                appender = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            appender.write(line(key, value, t));
+            appendedLines++;
+        } catch (IOException e) {
+            log.warn("translation memory append failed: {}", e.getMessage());
+        }
+    }
+
+    private void closeAppender() {
+        if (appender == null) return;
+        try { appender.close(); } catch (IOException ignore) {}
+        appender = null;
+    }
+
+    private static String line(String k, String v, long t) {
+        com.alibaba.fastjson.JSONObject o = new com.alibaba.fastjson.JSONObject(true);
+        o.put("k", k); o.put("v", v); o.put("t", t);
+        return o.toJSONString() + "\n";
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.demo;
+
+/**
+ * 增量解析流式输出的 {"translations":[...]} 或按 id 的 {"translations":{"id":"..."}}：每收到一段 delta 就 feed，
+ * 每个元素一旦完整（字符串闭合/遇到分隔符）立即回调，不等整个 JSON 结束。
+ */
+final class TranslationsStreamParser {
+
+    /** 流式逐条回调：index 为到达顺序；数组模式 id 为 null，对象模式为键 */
+    @FunctionalInterface
+    interface ItemListener {
+        void onItem(int index, String id, String text);
+    }
+
+    private enum State { SEEK, IN_ARRAY, IN_OBJECT, DONE }
+
+    private final ItemListener listener;
+    private final StringBuilder buf = new StringBuilder();
+    private State state = State.SEEK;
+    private int pos = 0;      // 下一个待扫描位置
+    private int emitted = 0;  // 已回调条数
+    private long tokens = 0;  // 已收内容的估算 token 数：每段 delta 累加一次，不重算整个缓冲区
+
+    TranslationsStreamParser(ItemListener listener) { this.listener = listener; }
+
+    void feed(String delta) {
+        if (delta == null || delta.isEmpty()) return;
+        buf.append(delta);
+        tokens += Tokenizer.shared().count(delta);
+        scan();
+    }
+
+    int emitted() { return emitted; }
+    long tokens() { return tokens; }
+    String content() { return buf.toString(); }
+
+    private void scan() {
+        if (state == State.SEEK) {
+            int k = buf.indexOf("\"translations\"", pos);
+            if (k < 0) { pos = Math.max(pos, buf.length() - 16); return; }
+            int i = skipWs(k + 14);
+            if (i >= buf.length()) return;
+            if (buf.charAt(i) != ':') { pos = k + 1; return; }
+            i = skipWs(i + 1);
+            if (i >= buf.length()) return;
+            char open = buf.charAt(i);
+            if (open != '[' && open != '{') { state = State.DONE; return; }
+            state = open == '[' ? State.IN_ARRAY : State.IN_OBJECT;
+            pos = i + 1;
+        }
+        while (state == State.IN_OBJECT) {
+            int i = skipWs(pos);
+            if (i < buf.length() && buf.charAt(i) == ',') i = skipWs(i + 1);
+            if (i >= buf.length()) return;
+            char c = buf.charAt(i);
+            if (c == '}') { state = State.DONE; return; }
+            if (c != '"') { state = State.DONE; return; }
+            int keyEnd = valueEnd(i);
+            if (keyEnd < 0) return;
+            int colon = skipWs(keyEnd);
+            if (colon >= buf.length()) return;
+            if (buf.charAt(colon) != ':') { state = State.DONE; return; }
+            int v = skipWs(colon + 1);
+            if (v >= buf.length()) return;
+            int end = valueEnd(v);
+            if (end < 0) return;
+            emit(decode(buf.substring(i, keyEnd)), buf.substring(v, end));
+            pos = end;
+        }
+        while (state == State.IN_ARRAY) {
+            int i = skipWs(pos);
+            if (i < buf.length() && buf.charAt(i) == ',') i = skipWs(i + 1);
+            if (i >= buf.length()) return;
+            char c = buf.charAt(i);
+            if (c == ']') { state = State.DONE; return; }
+            int end = valueEnd(i);
+            if (end < 0) return; // 元素尚未完整，等下一段
+            emit(null, buf.substring(i, end));
+            pos = end;
+        }
+    }
+
+    /** 返回值结束位置（不含）；未完整返回 -1 */
+    private int valueEnd(int start) {
+        if (buf.charAt(start) == '"') {
+            for (int j = start + 1; j < buf.length(); j++) {
+                char c = buf.charAt(j);
+                if (c == '\\') { j++; continue; }
+                if (c == '"') return j + 1;
+            }
+            return -1;
+        }
+        int depth = 0; boolean inStr = false;
+        for (int j = start; j < buf.length(); j++) {
+            char c = buf.charAt(j);
+            if (inStr) {
+                if (c == '\\') j++;
+                else if (c == '"') inStr = false;
+                continue;
+            }
+            if (c == '"') inStr = true;
+            else if (c == '[' || c == '{') depth++;
+            else if (c == ']' || c == '}') { if (depth == 0) return j; depth--; }
+            else if (c == ',' && depth == 0) return j;
+        }
+        return -1;
+    }
+
+    private void emit(String id, String literal) {
+        listener.onItem(emitted++, id, decode(literal));
+    }
+
+    private static String decode(String literal) {
+        try {
+            Object v = com.alibaba.fastjson.JSON.parse(literal.trim());
+            return v == null ? null : String.valueOf(v);
+        } catch (Exception e) {
+            return literal.trim();
+        }
+    }
+
+    private int skipWs(int i) {
+        while (i < buf.length() && Character.isWhitespace(buf.charAt(i))) i++;
+        return i;
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.demo;
+
+/**
+ * 上游全部熔断中：作业直接失败（HTTP 503 + Retry-After），不再用模拟译文填满剩余批次、当作成功返回。
+ * retryAfterSeconds 为距熔断器放行半开探测的秒数（至少 1 秒）。
+ * 由 DocumentController 的 @ExceptionHandler 直接转成 503 + Retry-After。
+ */
+public class UpstreamUnavailableException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterSeconds;
+
+    public UpstreamUnavailableException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterSeconds = Math.max(1, (retryAfterMillis + 999) / 1000);
+    }
+
+    public long retryAfterSeconds() { return retryAfterSeconds; }
+}
@@ -9,18 +9,14 @@ import java.util.*;
 
 public class WordDocExtractorRestorer {
 
-    public static class TextElement {
-        public final String text;
-        public final String type; // "run" | "tableCellRun" | "tbRun"
-        public final Map<String, Object> position;
-        public TextElement(String text, String type, Map<String, Object> position) {
-            this.text = text; this.type = type; this.position = position;
-        }
-    }
+    // 片段类型（SegmentTable 类型码）及各列含义
+    static final byte RUN = 1;             // 正文 run：loc0=段落下标，runStart=run 下标
+    static final byte TABLE_CELL_RUN = 2;  // 表格 run：loc0..3=表/行/列/格内段落，runStart=run 下标
+    static final byte TEXT_BOX_RUN = 3;    // 文本框 run：loc0=段落下标，runStart=run 下标
 
     // ========= 抽取：正文/表格/文本框（跳过图片/对象锚点 run） =========
-    public static List<TextElement> extractWordTexts(HWPFDocument doc) {
-        List<TextElement> elements = new ArrayList<>();
+    public static SegmentTable extractWordTexts(HWPFDocument doc) {
+        SegmentTable elements = new SegmentTable();
         Range range = doc.getRange();
         PicturesTable pt = doc.getPicturesTable();
 
@@ -33,9 +29,7 @@ public class WordDocExtractorRestorer {
                 if (isPictureAnchor(run, pt)) continue;
                 String clean = cleanForExtract(run.text());
                 if (!clean.isEmpty()) {
-                    Map<String,Object> pos = new HashMap<>();
-                    pos.put("paragraphIndex", pIdx); pos.put("runIndex", rIdx);
-                    elements.add(new TextElement(clean, "run", pos));
+                    elements.add(RUN, clean, pIdx, 0, 0, 0, rIdx, rIdx);
                 }
             }
         }
@@ -57,11 +51,7 @@ public class WordDocExtractorRestorer {
                             if (isPictureAnchor(run, pt)) continue;
                             String clean = cleanForExtract(run.text());
                             if (!clean.isEmpty()) {
-                                Map<String,Object> pos = new HashMap<>();
-                                pos.put("tableIndex", tIdx); pos.put("rowIndex", r);
-                                pos.put("cellIndex", c); pos.put("cellParaIndex", p);
-                                pos.put("cellRunIndex", i);
-                                elements.add(new TextElement(clean, "tableCellRun", pos));
+                                elements.add(TABLE_CELL_RUN, clean, tIdx, r, c, p, i, i);
                             }
                         }
                     }
@@ -79,9 +69,7 @@ public class WordDocExtractorRestorer {
                     if (isPictureAnchor(run, pt)) continue;
                     String clean = cleanForExtract(run.text());
                     if (!clean.isEmpty()) {
-                        Map<String,Object> pos = new HashMap<>();
-                        pos.put("tbParaIndex", p); pos.put("tbRunIndex", r);
-                        elements.add(new TextElement(clean, "tbRun", pos));
+                        elements.add(TEXT_BOX_RUN, clean, p, 0, 0, 0, r, r);
                     }
                 }
             }
@@ -92,7 +80,7 @@ public class WordDocExtractorRestorer {
 
     // ========= 写回：不修改内容，仅打印锚点前后对照 =========
     public static void restoreWordTexts(HWPFDocument doc,
-                                        List<TextElement> elements,
+                                        SegmentTable elements,
                                         List<String> translatedTexts) {
         dumpAnchorsAll(doc, "before(no-change)");
         // 不做任何替换
@@ -14,49 +14,36 @@ import java.util.regex.Pattern;
 /** 支持：段片提取/回填；文本框 run 提取/回填；外层 SDT 回填。含 <w:tab/> 的 run 作为硬边界保留。 */
 public class WordDocxExtractorRestorer {
 
-    public static class TextElement {
-        public final String text;
-        public final String type; // "paraSeg" | "cellSeg" | "docxTextBoxRun" | "docxSdtField"
-        public final Map<String, Object> position;
-
-        public TextElement(String text, String type, Map<String, Object> position) {
-            this.text = text; this.type = type; this.position = position;
-        }
-    }
+    // 片段类型（SegmentTable 类型码）及各列含义
+    static final byte PARA_SEG = 1;     // 正文段片：loc0=段落下标；run 区间
+    static final byte CELL_SEG = 2;     // 表格段片：loc0..3=表/行/列/格内段落；run 区间
+    static final byte TEXT_BOX_RUN = 3; // 文本框 run：runStart=文本框内 run 序号；ref0=sdtPath，ref1=boxPath
+    static final byte SDT_FIELD = 4;    // 文本框外 SDT：ref0=sdtPath，ref1=boxPath
 
     private static class XmlChange {
-        final String type;   // "docxTextBoxRun" | "docxSdtField"
-        final String part;
+        final byte type;     // TEXT_BOX_RUN | SDT_FIELD
         final String sdtPath;
         final String boxPath;
-        final String alias;
-        final String tag;
-        final String kind;
         final String newText;
-        final Integer runOrd;
+        final int runOrd;
 
-        XmlChange(String type, String part, String sdtPath, String boxPath,
-                  String alias, String tag, String kind, String newText, Integer runOrd) {
-            this.type = type; this.part = part; this.sdtPath = sdtPath; this.boxPath = boxPath;
-            this.alias = alias; this.tag = tag; this.kind = kind; this.newText = newText; this.runOrd = runOrd;
+        XmlChange(byte type, String sdtPath, String boxPath, String newText, int runOrd) {
+            this.type = type; this.sdtPath = sdtPath; this.boxPath = boxPath;
+            this.newText = newText; this.runOrd = runOrd;
         }
     }
 
     private static final String NS_W = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
     private static final QName QN_W_SDT          = new QName(NS_W, "sdt");
     private static final QName QN_W_SDTCONTENT   = new QName(NS_W, "sdtContent");
-    private static final QName QN_W_SDTPr        = new QName(NS_W, "sdtPr");
-    private static final QName QN_W_ALIAS        = new QName(NS_W, "alias");
-    private static final QName QN_W_TAG          = new QName(NS_W, "tag");
-    private static final QName QN_W_VAL          = new QName(NS_W, "val");
     private static final QName QN_W_TXBX_CONTENT = new QName(NS_W, "txbxContent");
     private static final QName QN_XML_SPACE      = new QName("http://www.w3.org/XML/1998/namespace", "space", "xml");
 
     private static final String PARA_SEP = "\u2029";
     private static final Pattern ANY_BREAK = Pattern.compile("\r\n|\r|\n|\u2028|\u2029|\u000B|\u000C|\u0085");
 
-    public static List<TextElement> extractWordTexts(XWPFDocument doc) {
-        List<TextElement> elements = new ArrayList<>();
+    public static SegmentTable extractWordTexts(XWPFDocument doc) {
+        SegmentTable table = new SegmentTable();
 
         // 正文段片
         List<XWPFParagraph> paras = doc.getParagraphs();
@@ -65,11 +52,7 @@ public class WordDocxExtractorRestorer {
             List<FormatChangeSegmenter.Segment> segs = FormatChangeSegmenter.segmentParagraph(p, MergePolicy.loose());
             for (FormatChangeSegmenter.Segment seg : segs) {
                 if (notBlank(seg.text)) {
-                    Map<String, Object> pos = new HashMap<>();
-                    pos.put("paragraphIndex", pIdx);
-                    pos.put("runStartIndex", seg.runStartIdx);
-                    pos.put("runEndIndex", seg.runEndIdx);
-                    elements.add(new TextElement(seg.text, "paraSeg", pos));
+                    table.add(PARA_SEG, seg.text, pIdx, 0, 0, 0, seg.runStartIdx, seg.runEndIdx);
                 }
             }
         }
@@ -87,14 +70,7 @@ public class WordDocxExtractorRestorer {
                         List<FormatChangeSegmenter.Segment> segs = FormatChangeSegmenter.segmentParagraph(p, MergePolicy.loose());
                         for (FormatChangeSegmenter.Segment seg : segs) {
                             if (notBlank(seg.text)) {
-                                Map<String, Object> pos = new HashMap<>();
-                                pos.put("tableIndex", tIdx);
-                                pos.put("rowIndex", r);
-                                pos.put("cellIndex", c);
-                                pos.put("paraInCell", pi);
-                                pos.put("runStartIndex", seg.runStartIdx);
-                                pos.put("runEndIndex", seg.runEndIdx);
-                                elements.add(new TextElement(seg.text, "cellSeg", pos));
+                                table.add(CELL_SEG, seg.text, tIdx, r, c, pi, seg.runStartIdx, seg.runEndIdx);
                             }
                         }
                     }
@@ -103,100 +79,46 @@ public class WordDocxExtractorRestorer {
         }
 
         // 文本框 run（跳过含 tab 的 run） + 文本框外 SDT
-        collectDocXmlContainers(doc.getDocument(), elements);
-        return elements;
+        collectDocXmlContainers(doc.getDocument(), table);
+        return table;
     }
 
-    public static void restoreWordTexts(XWPFDocument doc, List<TextElement> elements, List<String> translated) {
-        Map<Integer, List<Integer>> paraGroups = new HashMap<>();
-        Map<String, List<Integer>> cellGroups = new HashMap<>();
-
-        for (int i = 0; i < elements.size(); i++) {
-            TextElement el = elements.get(i);
-            if ("paraSeg".equals(el.type)) {
-                int p = (Integer) el.position.get("paragraphIndex");
-                paraGroups.computeIfAbsent(p, k -> new ArrayList<>()).add(i);
-            } else if ("cellSeg".equals(el.type)) {
-                String key = el.position.get("tableIndex") + "|" + el.position.get("rowIndex") + "|" +
-                             el.position.get("cellIndex") + "|" + el.position.get("paraInCell");
-                cellGroups.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
-            }
-        }
-
-        for (Map.Entry<Integer, List<Integer>> e : paraGroups.entrySet()) {
-            int pIdx = e.getKey();
-            XWPFParagraph p = doc.getParagraphs().get(pIdx);
-
-            e.getValue().sort((i1, i2) -> {
-                int s1 = (Integer) elements.get(i1).position.get("runStartIndex");
-                int s2 = (Integer) elements.get(i2).position.get("runStartIndex");
-                return Integer.compare(s2, s1);
-            });
-
-            for (int idx : e.getValue()) {
-                TextElement el = elements.get(idx);
-                int s = (Integer) el.position.get("runStartIndex");
-                int rEnd = (Integer) el.position.get("runEndIndex");
-                SegmentRestorer.restoreSegmentInParagraph(p, s, rEnd, translated.get(idx));
-            }
-            SegmentRestorer.stripProofErr(p);
-        }
-
-        for (Map.Entry<String, List<Integer>> e : cellGroups.entrySet()) {
-            String[] parts = e.getKey().split("\\|");
-            int ti = Integer.parseInt(parts[0]);
-            int ri = Integer.parseInt(parts[1]);
-            int ci = Integer.parseInt(parts[2]);
-            int pi = Integer.parseInt(parts[3]);
-
-            XWPFParagraph p = doc.getTables().get(ti).getRow(ri).getCell(ci).getParagraphArray(pi);
-
-            e.getValue().sort((i1, i2) -> {
-                int s1 = (Integer) elements.get(i1).position.get("runStartIndex");
-                int s2 = (Integer) elements.get(i2).position.get("runStartIndex");
-                return Integer.compare(s2, s1);
-            });
-
-            for (int idx : e.getValue()) {
-                TextElement el = elements.get(idx);
-                int s = (Integer) el.position.get("runStartIndex");
-                int rEnd = (Integer) el.position.get("runEndIndex");
-                SegmentRestorer.restoreSegmentInParagraph(p, s, rEnd, translated.get(idx));
+    public static void restoreWordTexts(XWPFDocument doc, SegmentTable table, List<String> translated) {
+        List<XWPFParagraph> paras = doc.getParagraphs();
+        List<XmlChange> xmlChanges = new ArrayList<>();
+
+        int n = table.size();
+        for (int i = 0; i < n; ) {
+            byte type = table.type(i);
+            if (type == PARA_SEG || type == CELL_SEG) {
+                // 同一段落的片段抽取时连续且 run 区间递增：整组从后往前回填，前面片段的 run 下标不受影响
+                int end = i + 1;
+                while (end < n && table.sameLocation(i, end)) end++;
+
+                XWPFParagraph p = (type == PARA_SEG)
+                        ? paras.get(table.location(i, 0))
+                        : doc.getTables().get(table.location(i, 0)).getRow(table.location(i, 1))
+                             .getCell(table.location(i, 2)).getParagraphArray(table.location(i, 3));
+                for (int k = end - 1; k >= i; k--) {
+                    SegmentRestorer.restoreSegmentInParagraph(p, table.runStart(k), table.runEnd(k), translated.get(k));
+                }
+                SegmentRestorer.stripProofErr(p);
+                i = end;
+                continue;
             }
-            SegmentRestorer.stripProofErr(p);
-        }
-
-        Map<String, List<XmlChange>> changesByPart = new HashMap<>();
-        for (int i = 0; i < elements.size(); i++) {
-            TextElement el = elements.get(i);
-            String typ = el.type == null ? "" : el.type;
-            if ("docxTextBoxRun".equalsIgnoreCase(typ)) {
-                String part    = asString(el.position.get("part"), "/word/document.xml");
-                String sdtPath = asString(el.position.get("sdtPath"), "-");
-                String boxPath = asString(el.position.get("boxPath"), "-");
-                Integer runOrd = (Integer) el.position.get("runOrd");
-                XmlChange ch = new XmlChange("docxTextBoxRun", part, sdtPath, boxPath,
-                        "", "", "w:txbxContent", translated.get(i), runOrd);
-                changesByPart.computeIfAbsent(part, k -> new ArrayList<>()).add(ch);
-            } else if ("docxSdtField".equalsIgnoreCase(typ)) {
-                String part    = asString(el.position.get("part"), "/word/document.xml");
-                String sdtPath = asString(el.position.get("sdtPath"), "-");
-                String boxPath = asString(el.position.get("boxPath"), "-");
-                String alias   = asString(el.position.get("alias"), "");
-                String tag     = asString(el.position.get("tag"), "");
-                XmlChange ch = new XmlChange("docxSdtField", part, sdtPath, boxPath,
-                        alias, tag, "sdt", translated.get(i), null);
-                changesByPart.computeIfAbsent(part, k -> new ArrayList<>()).add(ch);
+            if (type == TEXT_BOX_RUN || type == SDT_FIELD) {
+                xmlChanges.add(new XmlChange(type, table.ref(i, 0), table.ref(i, 1), translated.get(i),
+                        type == TEXT_BOX_RUN ? table.runStart(i) : -1));
             }
+            i++;
         }
 
-        List<XmlChange> docChanges = changesByPart.get("/word/document.xml");
-        if (docChanges != null && !docChanges.isEmpty()) {
-            applyChangesToPart(doc.getDocument(), docChanges);
+        if (!xmlChanges.isEmpty()) {
+            applyChangesToPart(doc.getDocument(), xmlChanges);
         }
     }
 
-    private static void collectDocXmlContainers(XmlObject root, List<TextElement> out) {
+    private static void collectDocXmlContainers(XmlObject root, SegmentTable out) {
         Deque<Integer> sdtStack = new ArrayDeque<>();
         Deque<Integer> boxStack = new ArrayDeque<>();
         Map<Integer, Integer> boxDepthCounters = new HashMap<>();
@@ -205,7 +127,7 @@ public class WordDocxExtractorRestorer {
     }
 
     private static void dfsCollect(XmlObject node, Deque<Integer> sdtStack, Deque<Integer> boxStack,
-                                   Map<Integer,Integer> boxDepthCounters, int[] sdtCounter, List<TextElement> out) {
+                                   Map<Integer,Integer> boxDepthCounters, int[] sdtCounter, SegmentTable out) {
         try (XmlCursor cur = node.newCursor()) {
             if (!cur.toFirstChild()) return;
             do {
@@ -219,18 +141,11 @@ public class WordDocxExtractorRestorer {
 
                         boolean insideTextBox = hasAncestor(child, QN_W_TXBX_CONTENT);
                         if (!insideTextBox) {
-                            SdtMeta meta = readSdtMeta(child);
                             String text = aggregateParagraphSeparated(child, QN_W_SDTCONTENT);
                             if (notBlank(text)) {
-                                Map<String, Object> pos = new HashMap<>();
-                                pos.put("type", "docxSdtField");
-                                pos.put("part", "/word/document.xml");
-                                pos.put("sdtPath", pathString(sdtStack));
-                                pos.put("boxPath", pathString(boxStack));
-                                pos.put("alias", meta.alias);
-                                pos.put("tag", meta.tag);
-                                pos.put("kind", "sdt");
-                                out.add(new TextElement(text, "docxSdtField", pos));
+                                int row = out.add(SDT_FIELD, text, 0, 0, 0, 0, 0, 0);
+                                out.setRef(row, 0, pathString(sdtStack));
+                                out.setRef(row, 1, pathString(boxStack));
                             }
                         }
 
@@ -253,13 +168,9 @@ public class WordDocxExtractorRestorer {
                                 if (runHasTabXml(rObj)) { runOrd++; continue; } // 跳过含 tab 的 run
                                 String txt = getRunTextPreserveBrTab(rObj);
                                 if (notBlank(txt)) {
-                                    Map<String, Object> pos = new HashMap<>();
-                                    pos.put("type", "docxTextBoxRun");
-                                    pos.put("part", "/word/document.xml");
-                                    pos.put("sdtPath", pathString(sdtStack));
-                                    pos.put("boxPath", pathString(boxStack));
-                                    pos.put("runOrd", runOrd);
-                                    out.add(new TextElement(txt, "docxTextBoxRun", pos));
+                                    int row = out.add(TEXT_BOX_RUN, txt, 0, 0, 0, 0, runOrd, runOrd);
+                                    out.setRef(row, 0, pathString(sdtStack));
+                                    out.setRef(row, 1, pathString(boxStack));
                                 }
                                 runOrd++;
                             }
@@ -276,35 +187,6 @@ public class WordDocxExtractorRestorer {
         }
     }
 
-    private static class SdtMeta { String alias = "", tag = ""; }
-    private static SdtMeta readSdtMeta(XmlObject sdt) {
-        SdtMeta m = new SdtMeta();
-        try (XmlCursor cur = sdt.newCursor()) {
-            if (cur.toFirstChild()) {
-                do {
-                    if (QN_W_SDTPr.equals(cur.getName())) {
-                        try (XmlCursor c2 = cur.getObject().newCursor()) {
-                            if (c2.toFirstChild()) {
-                                do {
-                                    QName n = c2.getName();
-                                    if (QN_W_ALIAS.equals(n)) {
-                                        String v = c2.getAttributeText(QN_W_VAL);
-                                        if (v != null) m.alias = v;
-                                    } else if (QN_W_TAG.equals(n)) {
-                                        String v = c2.getAttributeText(QN_W_VAL);
-                                        if (v != null) m.tag = v;
-                                    }
-                                } while (c2.toNextSibling());
-                            }
-                        }
-                        break;
-                    }
-                } while (cur.toNextSibling());
-            }
-        }
-        return m;
-    }
-
     private static boolean hasAncestor(XmlObject node, QName qn) {
         try (XmlCursor c = node.newCursor()) {
             while (c.toParent()) {
@@ -354,14 +236,21 @@ public class WordDocxExtractorRestorer {
     private static boolean applyChangesToPart(XmlObject root, List<XmlChange> changes) {
         if (changes == null || changes.isEmpty()) return false;
 
-        List<XmlChange> sdtChanges = new ArrayList<>();
-        List<XmlChange> tbRunChanges = new ArrayList<>();
-
+        // 预先按路径建索引：SDT 按 sdtPath；文本框 run 按 (sdtPath, boxPath)，组内保持 runOrd 递增（抽取顺序）
+        Map<String, List<XmlChange>> sdtChanges = new HashMap<>();
+        Map<String, Map<String, List<XmlChange>>> tbRunChanges = new HashMap<>();
         for (XmlChange ch : changes) {
-            if ("docxSdtField".equalsIgnoreCase(ch.type)) sdtChanges.add(ch);
-            else if ("docxTextBoxRun".equalsIgnoreCase(ch.type)) tbRunChanges.add(ch);
+            if (ch.type == SDT_FIELD) {
+                sdtChanges.computeIfAbsent(ch.sdtPath, k -> new ArrayList<>()).add(ch);
+            } else if (ch.type == TEXT_BOX_RUN && ch.runOrd >= 0) {
+                tbRunChanges.computeIfAbsent(ch.sdtPath, k -> new HashMap<>())
+                            .computeIfAbsent(ch.boxPath, k -> new ArrayList<>()).add(ch);
+            }
         }
         if (sdtChanges.isEmpty() && tbRunChanges.isEmpty()) return false;
+        for (Map<String, List<XmlChange>> byBox : tbRunChanges.values()) {
+            for (List<XmlChange> list : byBox.values()) list.sort(Comparator.comparingInt(ch -> ch.runOrd));
+        }
 
         boolean[] modified = new boolean[]{false};
         Deque<Integer> sdtStack = new ArrayDeque<>();
@@ -375,7 +264,8 @@ public class WordDocxExtractorRestorer {
 
     private static void applyDFS(XmlObject node, Deque<Integer> sdtStack, Deque<Integer> boxStack,
                                  Map<Integer,Integer> boxDepthCounters, int[] sdtCounter,
-                                 List<XmlChange> sdtChanges, List<XmlChange> tbRunChanges, boolean[] modified) {
+                                 Map<String, List<XmlChange>> sdtChanges,
+                                 Map<String, Map<String, List<XmlChange>>> tbRunChanges, boolean[] modified) {
         try (XmlCursor cur = node.newCursor()) {
             if (!cur.toFirstChild()) return;
             do {
@@ -387,10 +277,12 @@ public class WordDocxExtractorRestorer {
                         int idx = ++sdtCounter[0];
                         sdtStack.push(idx);
 
-                        String curSdtPath = pathString(sdtStack);
-                        for (XmlChange ch : sdtChanges) {
-                            if (pathEquals(ch.sdtPath, curSdtPath)) {
-                                if (setSdtContentText(child, ch.newText)) modified[0] = true;
+                        if (!sdtChanges.isEmpty()) {
+                            List<XmlChange> hits = sdtChanges.get(pathString(sdtStack));
+                            if (hits != null) {
+                                for (XmlChange ch : hits) {
+                                    if (setSdtContentText(child, ch.newText)) modified[0] = true;
+                                }
                             }
                         }
 
@@ -405,15 +297,9 @@ public class WordDocxExtractorRestorer {
                         boxDepthCounters.put(depth, next);
                         boxStack.push(next);
 
-                        String curSdt = pathString(sdtStack);
-                        String curBox = pathString(boxStack);
-
-                        for (XmlChange ch : tbRunChanges) {
-                            if (!pathEquals(ch.sdtPath, curSdt)) continue;
-                            if (!pathEquals(ch.boxPath, curBox)) continue;
-                            if (ch.runOrd == null || ch.runOrd < 0) continue;
-                            if (setTextBoxRunTextByOrdinal(child, ch.runOrd, ch.newText)) modified[0] = true;
-                        }
+                        Map<String, List<XmlChange>> byBox = tbRunChanges.isEmpty() ? null : tbRunChanges.get(pathString(sdtStack));
+                        List<XmlChange> hits = (byBox == null) ? null : byBox.get(pathString(boxStack));
+                        if (hits != null && setTextBoxRunTexts(child, hits)) modified[0] = true;
 
                         applyDFS(child, sdtStack, boxStack, boxDepthCounters, sdtCounter, sdtChanges, tbRunChanges, modified);
                         boxStack.pop();
@@ -426,47 +312,54 @@ public class WordDocxExtractorRestorer {
         }
     }
 
-    /** 文本框：若目标 run 含 <w:tab/> 则不做写入与清理 */
-    private static boolean setTextBoxRunTextByOrdinal(XmlObject txbxNode, int runOrd, String text) {
+    /** 文本框：一次选出全部 run，按 runOrd 递增依次写入；目标 run 含 <w:tab/> 则不做写入与清理 */
+    private static boolean setTextBoxRunTexts(XmlObject txbxNode, List<XmlChange> changes) {
+        List<XmlObject> runs = new ArrayList<>();
         try (XmlCursor rc = txbxNode.newCursor()) {
             rc.selectPath("declare namespace w='" + NS_W + "' .//w:r");
-            int idx = 0;
-            while (rc.toNextSelection()) {
-                XmlObject r = rc.getObject();
-                if (idx == runOrd) {
-                    if (runHasTabXml(r)) return true; // 保留
-                    try (XmlCursor c = r.newCursor()) {
-                        if (c.toFirstChild()) {
-                            do {
-                                QName n = c.getName(); if (n == null) continue;
-                                String ln = n.getLocalPart();
-                                if ("t".equals(ln) || "br".equals(ln) || "cr".equals(ln) || "instrText".equals(ln)) {
-                                    c.removeXml();
-                                }
-                            } while (c.toNextSibling());
-                        }
-                    }
-                    String s = (text == null) ? "" : text.replace("\r\n","\n").replace('\r','\n')
-                                                .replace('\u2028','\n').replace('\u2029','\n');
-                    String[] lines = s.split("\n", -1);
-                    lines = trimTrailingEmpty(lines);
-
-                    try (XmlCursor c = r.newCursor()) {
-                        c.toEndToken();
-                        for (int i = 0; i < lines.length; i++) {
-                            if (i > 0) { c.beginElement(new QName(NS_W, "br")); c.toParent(); }
-                            c.beginElement(new QName(NS_W, "t"));
-                            c.insertAttributeWithValue(QN_XML_SPACE, "preserve");
-                            c.insertChars(lines[i] == null ? "" : lines[i]);
-                            c.toParent();
-                        }
+            int last = changes.get(changes.size() - 1).runOrd;
+            while (runs.size() <= last && rc.toNextSelection()) runs.add(rc.getObject());
+        }
+
+        boolean done = false;
+        for (XmlChange ch : changes) {
+            if (ch.runOrd >= runs.size()) break;
+            try {
+                setRunText(runs.get(ch.runOrd), ch.newText);
+                done = true;
+            } catch (Exception ignore) {}
+        }
+        return done;
+    }
+
+    private static void setRunText(XmlObject r, String text) {
+        if (runHasTabXml(r)) return; // 保留
+        try (XmlCursor c = r.newCursor()) {
+            if (c.toFirstChild()) {
+                do {
+                    QName n = c.getName(); if (n == null) continue;
+                    String ln = n.getLocalPart();
+                    if ("t".equals(ln) || "br".equals(ln) || "cr".equals(ln) || "instrText".equals(ln)) {
+                        c.removeXml();
                     }
-                    return true;
-                }
-                idx++;
+                } while (c.toNextSibling());
             }
-        } catch (Exception ignore) {}
-        return false;
+        }
+        String s = (text == null) ? "" : text.replace("\r\n","\n").replace('\r','\n')
+                                    .replace('\u2028','\n').replace('\u2029','\n');
+        String[] lines = s.split("\n", -1);
+        lines = trimTrailingEmpty(lines);
+
+        try (XmlCursor c = r.newCursor()) {
+            c.toEndToken();
+            for (int i = 0; i < lines.length; i++) {
+                if (i > 0) { c.beginElement(new QName(NS_W, "br")); c.toParent(); }
+                c.beginElement(new QName(NS_W, "t"));
+                c.insertAttributeWithValue(QN_XML_SPACE, "preserve");
+                c.insertChars(lines[i] == null ? "" : lines[i]);
+                c.toParent();
+            }
+        }
     }
 
     /** SDT：若内容包含 <w:tab/>，只覆盖现有 <w:t> 文本，不重建结构 */
@@ -617,8 +510,6 @@ public class WordDocxExtractorRestorer {
     }
 
     private static boolean notBlank(String s) { return s != null && !s.trim().isEmpty(); }
-    private static String asString(Object v, String def) { return v == null ? def : String.valueOf(v); }
-    private static boolean pathEquals(String a, String b) { return Objects.equals(a, b); }
     private static String pathString(Deque<Integer> stack) {
         if (stack.isEmpty()) return "-";
         Iterator<Integer> it = stack.descendingIterator();
@@ -630,13 +521,8 @@ public class WordDocxExtractorRestorer {
     public static void debugScanAfterWriteContainers(XWPFDocument doc) throws Exception {
         ByteArrayOutputStream bos = new ByteArrayOutputStream(); doc.write(bos); bos.flush();
         try (XWPFDocument reopened = new XWPFDocument(new ByteArrayInputStream(bos.toByteArray()))) {
-            List<TextElement> els = extractWordTexts(reopened);
-            int tbxRun = 0, sdt = 0;
-            for (TextElement el : els) {
-                if ("docxTextBoxRun".equalsIgnoreCase(el.type)) tbxRun++;
-                else if ("docxSdtField".equalsIgnoreCase(el.type)) sdt++;
-            }
-            System.out.println("TextBoxRuns="+tbxRun+", SDT-Fields="+sdt);
+            SegmentTable els = extractWordTexts(reopened);
+            System.out.println("TextBoxRuns="+els.count(TEXT_BOX_RUN)+", SDT-Fields="+els.count(SDT_FIELD));
         }
     }
 }
@@ -0,0 +1,78 @@
+package com.example.demo;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.IntConsumer;
+
+/**
+ * 基准测试小工具（不引入 JMH）：先预热，再取多轮测量的中位数，结果打印到控制台。
+ * 各 *Benchmark 默认跳过，需要时运行：mvn test -Dbench=true -Dtest='*Benchmark'
+ */
+final class Bench {
+
+    static final String ENABLED_PROPERTY = "bench";
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
+    /** 防止被测结果被 JIT 当作死代码消除 */
+    static volatile Object sink;
+
+    private Bench() {}
+
+    /** 单线程：每轮执行 round 一次（内含 opsPerRound 次操作），返回每次操作的纳秒数（中位数） */
+    static double nanosPerOp(int opsPerRound, Runnable round) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) round.run();
+        double[] samples = new double[MEASURED_ROUNDS];
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long t0 = System.nanoTime();
+            round.run();
+            samples[i] = (System.nanoTime() - t0) / (double) opsPerRound;
+        }
+        return median(samples);
+    }
+
+    /** threads 个线程同时起跑，各执行 opsPerThread 次 op（参数为线程号），返回总吞吐（次/秒，中位数） */
+    static double opsPerSecond(int threads, int opsPerThread, IntConsumer op) throws InterruptedException {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) runConcurrently(threads, opsPerThread, op);
+        double[] samples = new double[MEASURED_ROUNDS];
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long nanos = runConcurrently(threads, opsPerThread, op);
+            samples[i] = (double) threads * opsPerThread * 1e9 / nanos;
+        }
+        return median(samples);
+    }
+
+    private static long runConcurrently(int threads, int opsPerThread, IntConsumer op) throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            Thread th = new Thread(() -> {
+                ready.countDown();
+                try {
+                    start.await();
+                    for (int k = 0; k < opsPerThread; k++) op.accept(id);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "bench-" + t);
+            th.setDaemon(true);
+            th.start();
+        }
+        ready.await();
+        long t0 = System.nanoTime();
+        start.countDown();
+        done.await();
+        return System.nanoTime() - t0;
+    }
+
+    private static double median(double[] xs) {
+        double[] s = xs.clone();
+        Arrays.sort(s);
+        return s[s.length / 2];
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.demo;
+
+import org.apache.poi.xwpf.usermodel.UnderlinePatterns;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFHyperlinkRun;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.xmlbeans.XmlCursor;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTR;
+
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * DOCX 分段热点：大段落（200 段 × 200 run，字体/字号/加粗/颜色/下划线/字距/上标随机变化）上的
+ * 每 run 样式键计算与整段分段耗时。基线 Legacy 为原先每个属性各开一个 XmlCursor + selectPath 的实现，
+ * 先核对新旧样式键逐 run 相等再计时。
+ *
+ * XmlBeans 在开启断言时每次建/释放游标都会遍历整条游标链表（Cur.isOnList），耗时随文档规模平方增长，
+ * 与生产（不带 -ea）不符，因此需关闭 surefire 默认的断言：mvn test -Dbench=true -DenableAssertions=false -Dtest=FormatChangeSegmenterBenchmark
+ */
+@EnabledIfSystemProperty(named = Bench.ENABLED_PROPERTY, matches = "true")
+class FormatChangeSegmenterBenchmark {
+
+    private static final int PARAGRAPHS = 200;
+    private static final int RUNS_PER_PARAGRAPH = 200;
+
+    @Test
+    void styleKeysAndSegmentation() throws Exception {
+        Assumptions.assumeFalse(Class.forName("org.apache.xmlbeans.impl.store.Cur").desiredAssertionStatus(),
+                "XmlBeans 断言已开启，计时不代表生产；加 -DenableAssertions=false 运行");
+        try (XWPFDocument doc = new XWPFDocument()) {
+            List<XWPFParagraph> paragraphs = build(doc);
+            List<XWPFRun> runs = new ArrayList<>();
+            for (XWPFParagraph p : paragraphs) runs.addAll(p.getRuns());
+
+            for (XWPFRun r : runs) assertEquals(Legacy.keyOf(r), FormatChangeSegmenter.keyOf(r), "样式键与旧实现不一致");
+
+            double legacyKeyNs = Bench.nanosPerOp(runs.size(), () -> {
+                int h = 0;
+                for (XWPFRun r : runs) h += Legacy.keyOf(r).hashCode();
+                Bench.sink = h;
+            });
+            double keyNs = Bench.nanosPerOp(runs.size(), () -> {
+                int h = 0;
+                for (XWPFRun r : runs) h += FormatChangeSegmenter.keyOf(r).hashCode();
+                Bench.sink = h;
+            });
+            double segmentNs = Bench.nanosPerOp(paragraphs.size(), () -> {
+                int segs = 0;
+                for (XWPFParagraph p : paragraphs) segs += FormatChangeSegmenter.segmentParagraph(p, MergePolicy.loose()).size();
+                Bench.sink = segs;
+            });
+
+            System.out.printf("%n[segmenter] %d runs: keyOf legacy %.0f ns/run, single-pass %.0f ns/run (%.1fx)%n",
+                    runs.size(), legacyKeyNs, keyNs, legacyKeyNs / keyNs);
+            System.out.printf("[segmenter] segmentParagraph: %.2f ms/paragraph (%d runs), %.0f ms for the document%n",
+                    segmentNs / 1e6, RUNS_PER_PARAGRAPH, segmentNs * paragraphs.size() / 1e6);
+        }
+    }
+
+    private static List<XWPFParagraph> build(XWPFDocument doc) {
+        Random rnd = new Random(1);
+        List<XWPFParagraph> out = new ArrayList<>(PARAGRAPHS);
+        for (int i = 0; i < PARAGRAPHS; i++) {
+            XWPFParagraph p = doc.createParagraph();
+            out.add(p);
+            for (int j = 0; j < RUNS_PER_PARAGRAPH; j++) {
+                XWPFRun r = p.createRun();
+                r.setText("w" + j + " ");
+                r.setFontFamily(rnd.nextInt(4) == 0 ? "Arial" : "Calibri");
+                r.setFontSize(10 + rnd.nextInt(2));
+                if (rnd.nextInt(10) == 0) r.setBold(true);
+                if (rnd.nextInt(7) == 0) r.setColor("FF0000");
+                if (rnd.nextInt(20) == 0) r.setUnderline(UnderlinePatterns.SINGLE);
+                if (rnd.nextInt(15) == 0) r.setCharacterSpacing(20);
+                if (rnd.nextInt(30) == 0) r.setVerticalAlignment("superscript");
+            }
+        }
+        return out;
+    }
+
+    /** 原 FormatChangeSegmenter.keyOf：各属性分别经 XmlCursor.selectPath 读取 */
+    private static final class Legacy {
+        private static final String NS_W = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+
+        static FormatChangeSegmenter.StyleKey keyOf(XWPFRun r) {
+            String underline = (r.getUnderline() != null) ? r.getUnderline().name() : null;
+            return new FormatChangeSegmenter.StyleKey(r.getFontFamily(), fontSizePtOf(r), r.isBold(), r.isItalic(),
+                    r.isStrikeThrough(), underline, r.getColor(), attr(r, ".//w:vertAlign"),
+                    r instanceof XWPFHyperlinkRun, hasFieldMark(r.getCTR()), charSpacingHundPtOf(r),
+                    attr(r, ".//w:rPr/w:highlight"));
+        }
+
+        private static Integer fontSizePtOf(XWPFRun r) {
+            String half = attr(r, ".//w:sz");
+            if (half != null) {
+                try { return Math.max(0, (int) Math.round(Integer.parseInt(half) / 2.0)); }
+                catch (NumberFormatException ignore) {}
+            }
+            try { @SuppressWarnings("deprecation") int v = r.getFontSize(); return (v > 0) ? v : null; }
+            catch (Throwable ignore) { return null; }
+        }
+
+        private static Integer charSpacingHundPtOf(XWPFRun r) {
+            String v = attr(r, ".//w:rPr/w:spacing");
+            if (v == null) return null;
+            try { return Integer.parseInt(v); } catch (NumberFormatException ignore) { return null; }
+        }
+
+        private static String attr(XWPFRun r, String path) {
+            CTR ctr = r.getCTR();
+            if (ctr == null) return null;
+            try (XmlCursor c = ctr.newCursor()) {
+                c.selectPath("declare namespace w='" + NS_W + "' " + path);
+                if (c.toNextSelection()) {
+                    String val = c.getAttributeText(new QName(NS_W, "val"));
+                    return (val == null || val.isEmpty()) ? null : val;
+                }
+            }
+            return null;
+        }
+
+        private static boolean hasFieldMark(CTR ctr) {
+            return ctr != null && (ctr.sizeOfFldCharArray() > 0 || ctr.sizeOfInstrTextArray() > 0);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.demo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 限流器获取开销随线程数的变化：额度设得足够大，只测预约本身（GCRA CAS / 文件锁），不含限流等待。
+ * local 存储应随线程数基本持平；file 存储每次操作都要拿文件锁，作为对照。
+ */
+@EnabledIfSystemProperty(named = Bench.ENABLED_PROPERTY, matches = "true")
+class RateLimiterBenchmark {
+
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32};
+    private static final int OPS_PER_THREAD = 200_000;
+
+    @Test
+    void acquireThroughputLocalStore() throws Exception {
+        run("local", new LocalLimiterStore(), OPS_PER_THREAD);
+    }
+
+    @Test
+    void acquireThroughputFileStore() throws Exception {
+        Path dir = Files.createTempDirectory("limiter-bench");
+        LimiterStore store = SharedFileLimiterStore.open(dir.resolve("limiter.bin").toString());
+        run("file", store, OPS_PER_THREAD / 20);
+    }
+
+    private static void run(String name, LimiterStore store, int opsPerThread) throws Exception {
+        System.out.printf("%n[limiter:%s] threads  acquire/s   ns/acquire/thread%n", name);
+        for (int threads : THREADS) {
+            // 每个线程数用新的 key，互不影响；并发上限等于线程数，不在信号量上排队
+            RateLimiter limiter = new RateLimiter(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE,
+                    threads, store, "bench-" + name + "-" + threads);
+            double opsPerSec = Bench.opsPerSecond(threads, opsPerThread, t -> {
+                limiter.beforeRequest(1);
+                limiter.afterRequest();
+            });
+            System.out.printf("[limiter:%s] %7d  %12.0f  %10.1f%n", name, threads, opsPerSec, threads * 1e9 / opsPerSec);
+            assertEquals(0L, ((Number) limiter.stats().get("throttled")).longValue(), "额度足够时不应进入限流等待");
+        }
+    }
+}
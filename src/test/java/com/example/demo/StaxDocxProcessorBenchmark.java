@@ -0,0 +1,149 @@
+package com.example.demo;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * DOCX 整篇 提取 + 回填 + 输出：POI 引擎（XWPFDocument）对比 StAX 流式引擎（DOCX_ENGINE=stax）的耗时与堆占用。
+ * 文档为生成的 3 万段落（每段 3 个 run，中间一个加粗或变色），译文取原文加前缀，不经过模型。
+ *
+ * 与 FormatChangeSegmenterBenchmark 相同，XmlBeans 的断言会让 POI 路径失真，需加 -DenableAssertions=false 运行。
+ */
+@EnabledIfSystemProperty(named = Bench.ENABLED_PROPERTY, matches = "true")
+class StaxDocxProcessorBenchmark {
+
+    private static final int PARAGRAPHS = 30_000;
+
+    @Test
+    void extractRestoreWrite() throws Exception {
+        Assumptions.assumeFalse(Class.forName("org.apache.xmlbeans.impl.store.Cur").desiredAssertionStatus(),
+                "XmlBeans 断言已开启，计时不代表生产；加 -DenableAssertions=false 运行");
+        Path file = Files.createTempFile("stax-bench", ".docx");
+        try {
+            build(file);
+
+            // 流式输出须仍是 POI 可打开的完整文档
+            try (XWPFDocument check = new XWPFDocument(new ByteArrayInputStream(stax(file)))) {
+                assertEquals(PARAGRAPHS, check.getParagraphs().size(), "流式回填后段落数不一致");
+            }
+
+            double poiNs = Bench.nanosPerOp(1, unchecked(() -> Bench.sink = poi(file)));
+            double staxNs = Bench.nanosPerOp(1, unchecked(() -> Bench.sink = stax(file)));
+            long poiAlloc = allocatedBytes(unchecked(() -> Bench.sink = poi(file)));
+            long staxAlloc = allocatedBytes(unchecked(() -> Bench.sink = stax(file)));
+
+            long poiRetained = retainedBytes(() -> {
+                try (InputStream in = Files.newInputStream(file)) {
+                    XWPFDocument doc = new XWPFDocument(in);
+                    return new Object[]{doc, WordDocxExtractorRestorer.extractWordTexts(doc)};
+                }
+            });
+            long staxRetained = retainedBytes(() -> {
+                OoxmlZip zip = OoxmlZip.open(file);
+                return new Object[]{zip, StaxDocxProcessor.extract(zip)};
+            });
+
+            System.out.printf("%n[docx] %d paragraphs, %.1f MB file%n", PARAGRAPHS, Files.size(file) / 1e6);
+            System.out.printf("[docx] engine   ms/doc   MB allocated   MB retained after extract%n");
+            System.out.printf("[docx] poi    %8.0f   %12.0f   %10.1f%n", poiNs / 1e6, poiAlloc / 1e6, poiRetained / 1e6);
+            System.out.printf("[docx] stax   %8.0f   %12.0f   %10.1f%n", staxNs / 1e6, staxAlloc / 1e6, staxRetained / 1e6);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static byte[] poi(Path file) throws Exception {
+        try (InputStream in = Files.newInputStream(file); XWPFDocument doc = new XWPFDocument(in)) {
+            SegmentTable table = WordDocxExtractorRestorer.extractWordTexts(doc);
+            WordDocxExtractorRestorer.restoreWordTexts(doc, table, translate(table.texts()));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            doc.write(out);
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[] stax(Path file) throws Exception {
+        try (OoxmlZip zip = OoxmlZip.open(file)) {
+            StaxDocxProcessor.Extraction ex = StaxDocxProcessor.extract(zip);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            StaxDocxProcessor.restore(zip, ex, translate(ex.texts), out);
+            return out.toByteArray();
+        }
+    }
+
+    private static List<String> translate(List<String> texts) {
+        List<String> out = new ArrayList<>(texts.size());
+        for (String t : texts) out.add("[译]" + t);
+        return out;
+    }
+
+    private static void build(Path file) throws Exception {
+        Random rnd = new Random(7);
+        try (XWPFDocument doc = new XWPFDocument(); OutputStream out = Files.newOutputStream(file)) {
+            for (int i = 0; i < PARAGRAPHS; i++) {
+                XWPFParagraph p = doc.createParagraph();
+                XWPFRun a = p.createRun();
+                a.setText("第" + i + "条 本合同自双方签字盖章之日起生效，");
+                XWPFRun b = p.createRun();
+                b.setText("The Supplier shall deliver the Goods ");
+                if (rnd.nextBoolean()) b.setBold(true); else b.setColor("C00000");
+                XWPFRun c = p.createRun();
+                c.setText("no later than " + rnd.nextInt(90) + " days after the Effective Date.");
+            }
+            doc.write(out);
+        }
+    }
+
+    private static long allocatedBytes(Runnable r) {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long before = mx.getThreadAllocatedBytes(tid);
+        r.run();
+        return mx.getThreadAllocatedBytes(tid) - before;
+    }
+
+    /** 提取完成、模型仍存活时相对提取前多占用的堆（各自独立栈帧，避免上一个引擎的局部变量仍被 GC 视为存活） */
+    private static long retainedBytes(Load load) throws Exception {
+        long before = usedHeapAfterGc();
+        Object[] held = load.load();
+        long after = usedHeapAfterGc();
+        for (Object o : held) if (o instanceof java.io.Closeable) ((java.io.Closeable) o).close();
+        return after - before;
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private interface Load { Object[] load() throws Exception; }
+
+    private interface Step { void run() throws Exception; }
+
+    private static Runnable unchecked(Step s) {
+        return () -> {
+            try {
+                s.run();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.demo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 片段清洗 + trivial 判定：TextNormalizer（单遍 char[]）对比原先 TranslateService 里的正则实现（Legacy，原样保留作基线）。
+ * 语料为 10 万个混合片段（表格短值、标点、中英文句子、带 NBSP/控制字符/多余空白的脏文本），先核对两者输出一致再计时。
+ */
+@EnabledIfSystemProperty(named = Bench.ENABLED_PROPERTY, matches = "true")
+class TextNormalizerBenchmark {
+
+    private static final int SEGMENTS = 100_000;
+
+    @Test
+    void cleanAndClassify() {
+        List<String> corpus = corpus(SEGMENTS, 42);
+        for (String s : corpus) {
+            String cleaned = Legacy.cleanForJson(s);
+            assertEquals(cleaned, TextNormalizer.clean(s), "clean 输出与旧实现不一致");
+            assertEquals(Legacy.isTrivialSegment(cleaned), TextNormalizer.isTrivial(cleaned), "trivial 判定与旧实现不一致");
+        }
+
+        double legacyNs = Bench.nanosPerOp(SEGMENTS, () -> {
+            int trivial = 0;
+            for (String s : corpus) if (Legacy.isTrivialSegment(Legacy.cleanForJson(s))) trivial++;
+            Bench.sink = trivial;
+        });
+        double singlePassNs = Bench.nanosPerOp(SEGMENTS, () -> {
+            int trivial = 0;
+            for (String s : corpus) if (TextNormalizer.isTrivial(TextNormalizer.clean(s))) trivial++;
+            Bench.sink = trivial;
+        });
+        System.out.printf("%n[normalizer] %d segments: legacy %.0f ns/seg (%.0f ms), single-pass %.0f ns/seg (%.0f ms), %.1fx%n",
+                SEGMENTS, legacyNs, legacyNs * SEGMENTS / 1e6, singlePassNs, singlePassNs * SEGMENTS / 1e6, legacyNs / singlePassNs);
+    }
+
+    private static List<String> corpus(int n, long seed) {
+        String[] sentences = {
+                "本合同自双方签字盖章之日起生效。", "The Supplier shall deliver the Goods.", "第3.2条 付款方式",
+                "合计", "Total", "A", "3", "—", "（续）", "12,345.00", "N/A", "お問い合わせ", "",
+        };
+        String[] noise = {"  ", "\u00A0", "\t", "\r\n", "\u0007", " ", "\uFEFF", "\n"};
+        Random r = new Random(seed);
+        List<String> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            StringBuilder sb = new StringBuilder();
+            int parts = 1 + r.nextInt(4);
+            for (int p = 0; p < parts; p++) {
+                if (r.nextInt(3) == 0) sb.append(noise[r.nextInt(noise.length)]);
+                String s = sentences[r.nextInt(sentences.length)];
+                if (r.nextInt(4) == 0 && s.length() > 2) {
+                    int cut = 1 + r.nextInt(s.length() - 1); // 在句中插入空白（如汉字之间的异常空格）
+                    s = s.substring(0, cut) + noise[r.nextInt(noise.length)] + s.substring(cut);
+                }
+                sb.append(s);
+            }
+            out.add(sb.toString());
+        }
+        return out;
+    }
+
+    /** 原 TranslateService 中的实现（正则链 + 收敛循环 + 逐字符 String.matches） */
+    private static final class Legacy {
+
+        static String cleanForJson(String s) {
+            if (s == null) return "";
+            String t = stripControls(removeUnpairedSurrogates(removeBOM(s)))
+                    .replace("\r\n", "\n").replace("\r", "\n");
+            return normalizeForTranslation(t);
+        }
+
+        static String normalizeForTranslation(String s) {
+            if (s == null || s.isEmpty()) return s;
+            String t = s.replace('\u00A0', ' ').replaceAll("[ \\t]{2,}", " ").trim();
+            String prev;
+            do {
+                prev = t;
+                t = t.replaceAll("([\\p{IsHan}])\\s+([\\p{IsHan}])", "$1$2");
+            } while (!t.equals(prev));
+            return t;
+        }
+
+        static boolean isTrivialSegment(String s) {
+            if (s == null) return true;
+            String t = s.trim();
+            if (t.isEmpty()) return true;
+            if (hasCJKIdeograph(t)) return false;
+            boolean punctOnly = t.codePoints().allMatch(ch ->
+                    Character.isWhitespace(ch) || isAsciiPunct(ch) || isCjkPunct(ch));
+            if (punctOnly) return true;
+            return t.length() == 1 && t.codePoints().allMatch(ch -> ch < 128 && Character.isLetterOrDigit(ch));
+        }
+
+        static boolean isAsciiPunct(int ch) { return ch < 128 && String.valueOf((char) ch).matches("\\p{Punct}"); }
+        static boolean isCjkPunct(int ch) { return "、，。！？：；…—·《》〈〉“”‘’（）【】".indexOf((char) ch) >= 0; }
+
+        static boolean hasCJKIdeograph(String s) {
+            return s.codePoints().anyMatch(ch -> {
+                Character.UnicodeBlock b = Character.UnicodeBlock.of(ch);
+                return b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS
+                        || b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_A
+                        || b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_B
+                        || b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_C
+                        || b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_D
+                        || b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_E
+                        || b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_F
+                        || b == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_G
+                        || b == Character.UnicodeBlock.CJK_COMPATIBILITY_IDEOGRAPHS;
+            });
+        }
+
+        static String removeBOM(String s) { return (!s.isEmpty() && s.charAt(0) == '\uFEFF') ? s.substring(1) : s; }
+        static String stripControls(String s) { return s.replaceAll("[\\p{Cntrl}&&[^\\r\\n\\t]]", " "); }
+
+        static String removeUnpairedSurrogates(String s) {
+            StringBuilder sb = new StringBuilder(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                char ch = s.charAt(i);
+                if (Character.isHighSurrogate(ch)) {
+                    if (i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) sb.append(ch).append(s.charAt(++i));
+                } else if (!Character.isLowSurrogate(ch)) {
+                    sb.append(ch);
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
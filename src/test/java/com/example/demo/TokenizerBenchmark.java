@@ -0,0 +1,106 @@
+package com.example.demo;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 本地 token 计数：速度 / 分配，以及与实际用量的误差（bpe 与 legacy 对比）。
+ *
+ * 误差部分需要实测样本：-Dbench.tokenizer.samples=路径，JSONL 每行 {"text": "...", "tokens": N}，
+ * N 为该文本单独作为一条 user 消息时响应 usage.prompt_tokens 减去空消息的 prompt_tokens（即只算文本本身）。
+ * 可选 "script" 字段（如 han/latin/kana）用于分组统计；未提供样本文件时只跑速度部分。
+ */
+@EnabledIfSystemProperty(named = Bench.ENABLED_PROPERTY, matches = "true")
+class TokenizerBenchmark {
+
+    private static final String[] CORPUS = {
+            "本合同自双方签字盖章之日起生效，有效期为三年。",
+            "The Supplier shall deliver the Goods no later than 30 days after the Effective Date.",
+            "第3.2条　付款方式：买方应于收到发票后十五（15）个工作日内支付合同总价的30%。",
+            "お客様の個人情報は、利用目的の範囲内で適切に取り扱います。",
+            "본 계약은 양 당사자가 서명한 날로부터 효력이 발생합니다.",
+            "Настоящий договор вступает в силу с момента подписания сторонами.",
+            "Die Vertragsparteien verpflichten sich zur Geheimhaltung aller vertraulichen Informationen.",
+            "สัญญานี้มีผลบังคับใช้นับแต่วันที่คู่สัญญาลงนาม",
+            "Q3 revenue: ¥12,345,678.90 (+18.5% YoY) — see Table 4-2 📈",
+    };
+
+    @Test
+    void countSpeedAndAllocation() {
+        int chars = 0;
+        for (String s : CORPUS) chars += s.length();
+        final int perRound = 20_000;
+        final int totalChars = chars * perRound;
+        System.out.printf("%n[tokenizer] impl    ns/char   bytes allocated/count%n");
+        for (Tokenizer t : new Tokenizer[]{Tokenizer.LEGACY, new BpeEstimateTokenizer()}) {
+            double nsPerChar = Bench.nanosPerOp(totalChars, () -> {
+                long sum = 0;
+                for (int r = 0; r < perRound; r++) for (String s : CORPUS) sum += t.count(s);
+                Bench.sink = sum;
+            });
+            long allocated = allocatedBytes(() -> {
+                long sum = 0;
+                for (int r = 0; r < perRound; r++) for (String s : CORPUS) sum += t.count(s);
+                Bench.sink = sum;
+            });
+            double perCount = allocated / (double) (perRound * CORPUS.length);
+            System.out.printf("[tokenizer] %-6s %8.2f   %8.3f%n", t.name(), nsPerChar, perCount);
+            if (t instanceof BpeEstimateTokenizer) assertEquals(0.0, perCount, 0.01, "count() 不应分配对象");
+        }
+    }
+
+    @Test
+    void estimateVersusUsage() throws Exception {
+        String file = System.getProperty("bench.tokenizer.samples", "");
+        Assumptions.assumeFalse(file.isEmpty(), "未指定 -Dbench.tokenizer.samples，跳过误差对比");
+        List<com.alibaba.fastjson.JSONObject> samples = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+            if (!line.isBlank()) samples.add(com.alibaba.fastjson.JSONObject.parseObject(line));
+        }
+        Assumptions.assumeFalse(samples.isEmpty(), "样本文件为空");
+
+        System.out.printf("%n[tokenizer] %-8s %6s  %-6s %9s %9s %9s%n", "script", "n", "impl", "actual", "estimate", "MAPE%");
+        Map<String, List<com.alibaba.fastjson.JSONObject>> groups = new LinkedHashMap<>();
+        groups.put("all", samples);
+        for (com.alibaba.fastjson.JSONObject o : samples) {
+            String script = o.getString("script");
+            if (script != null) groups.computeIfAbsent(script, k -> new ArrayList<>()).add(o);
+        }
+        for (Map.Entry<String, List<com.alibaba.fastjson.JSONObject>> g : groups.entrySet()) {
+            for (Tokenizer t : new Tokenizer[]{Tokenizer.LEGACY, new BpeEstimateTokenizer()}) {
+                long actual = 0, estimate = 0;
+                double ape = 0;
+                for (com.alibaba.fastjson.JSONObject o : g.getValue()) {
+                    int a = o.getIntValue("tokens");
+                    int e = t.count(o.getString("text"));
+                    actual += a;
+                    estimate += e;
+                    ape += Math.abs(e - a) / (double) Math.max(1, a);
+                }
+                System.out.printf("[tokenizer] %-8s %6d  %-6s %9d %9d %9.1f%n", g.getKey(), g.getValue().size(),
+                        t.name(), actual, estimate, 100 * ape / g.getValue().size());
+            }
+        }
+    }
+
+    private static long allocatedBytes(Runnable r) {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        r.run(); // 预热，排除类加载/JIT 的分配
+        long before = mx.getThreadAllocatedBytes(tid);
+        r.run();
+        return mx.getThreadAllocatedBytes(tid) - before;
+    }
+}